@@ -41,6 +41,7 @@ import g3.project.graphics.SizeObj;
 import g3.project.graphics.StrokeProps;
 import g3.project.graphics.VisualProps;
 import g3.project.xmlIO.DocIO;
+import g3.project.xmlIO.IO;
 import g3.project.xmlIO.ToolIO;
 import java.io.File;
 import java.io.IOException;
@@ -50,16 +51,23 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Optional;
+import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -76,6 +84,7 @@ import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javax.script.ScriptException;
 import nu.xom.Element;
+import nu.xom.Node;
 
 /**
  * @author Group 3
@@ -136,6 +145,18 @@ public final class Engine extends Threaded {
      * Executor service for delaying events.
      */
     private final ScheduledThreadPoolExecutor elementDelayService = new ScheduledThreadPoolExecutor(1);
+    /**
+     * Saves docs in the background, one at a time and in order.
+     */
+    private final ExecutorService saveService = Executors.newSingleThreadExecutor();
+    /**
+     * Latest snapshot of the current doc, for reads from other threads.
+     */
+    private volatile TreeSnapshot publishedDoc = null;
+    /**
+     * Doc the published snapshot was taken of.
+     */
+    private DocElement publishedFrom = null;
 
     /**
      * Event queue from input sources.
@@ -173,6 +194,32 @@ public final class Engine extends Threaded {
      */
     private final String emptyFileName = "empty.spres";
 
+    /**
+     * Resource cache budget in bytes, set with -Dg3.resourceCacheBytes. Zero
+     * leaves the cache off.
+     */
+    private final long resourceCacheBytes = Long.getLong("g3.resourceCacheBytes", 0L);
+
+    /**
+     * Default prefetch budget per card visited.
+     */
+    //CHECKSTYLE:OFF
+    private static final long DEFAULT_PREFETCH_BYTES = 32L * 1024 * 1024;
+    //CHECKSTYLE:ON
+
+    /**
+     * Longest another thread waits for a fresh snapshot to read from.
+     */
+    //CHECKSTYLE:OFF
+    private static final long SNAPSHOT_WAIT_MS = 250;
+    //CHECKSTYLE:ON
+
+    /**
+     * Warms caches for the cards likely to come next. Budget set with
+     * -Dg3.prefetchBytes; zero turns it off.
+     */
+    private final Prefetcher prefetcher;
+
     /**
      * Get running
      */
@@ -191,6 +238,7 @@ public final class Engine extends Threaded {
     public Engine(final MainController uiController) {
         super();
         this.controller = uiController;
+        prefetcher = new Prefetcher(Long.getLong("g3.prefetchBytes", DEFAULT_PREFETCH_BYTES), uiController::prefetchImage, this::runFunction);
         scrWriter = new Writer() {
             @Override
             public void write(final char[] chars, final int i, final int i1) throws IOException {
@@ -262,6 +310,8 @@ public final class Engine extends Threaded {
         while (!(running.get())) {
         }
         try {
+            //Remove temp files from runs that didn't exit cleanly
+            IO.cleanupStaleTemps();
             //Start network thing
             netComms.start();
             //Init Scripting Engine
@@ -314,6 +364,10 @@ public final class Engine extends Threaded {
                     var function = callQueue.take();
                     function.run();
                 } else { //Nothing to do. Suspend
+                    if (currentDoc != null) { //Each burst of work is one undo step, at most.
+                        currentDoc.getJournal().ifPresent(UndoJournal::checkpoint);
+                    }
+                    publishSnapshot();
                     suspended.set(true);
                 }
 
@@ -331,8 +385,18 @@ public final class Engine extends Threaded {
             }
         }
         netComms.stop();
+        //Let pending saves finish.
+        saveService.shutdown();
+        try {
+            //CHECKSTYLE:OFF
+            saveService.awaitTermination(30, TimeUnit.SECONDS);
+            //CHECKSTYLE:ON
+        } catch (InterruptedException ex) {
+            Logger.getLogger(Engine.class.getName()).log(Level.WARNING, null, ex);
+        }
         //Cleanup resources
         if (docIO != null) {
+            dropHistory();
             docIO.close();
         }
         toolIO.close();
@@ -569,22 +633,37 @@ public final class Engine extends Threaded {
         }
     }
 
+    /**
+     * Print any validation errors. Don't really care though. Docs are opened
+     * without validation, so this is called once it finishes in the
+     * background.
+     *
+     * @param valErrs Validation errors.
+     */
+    private void reportValidationErrors(final ArrayList<String> valErrs) {
+        if (valErrs.size() > 0) {
+            var errStr = String.join("\n", valErrs);
+            System.err.println("Validation Errors Found:\n" + errStr);
+        }
+    }
+
     /**
      * Parse a new document archive.
      *
      * @param xmlFile Doc to load
      */
     private void parseNewDoc(final File xmlFile) { // Load a new doc
-        initDoc(new DocIO(xmlFile.getAbsolutePath()));
+        initDoc(new DocIO(xmlFile.getAbsolutePath(), this::reportValidationErrors));
     }
 
     /**
-     * Parse an internal document archive from stream.
+     * Parse an internal document archive from stream. These are small, so are
+     * held in memory.
      *
      * @param archStream Doc to load
      */
     private void parseNewDoc(final InputStream archStream) {
-        initDoc(new DocIO(archStream));
+        initDoc(new DocIO(archStream, IO.OpenMode.MEMORY, this::reportValidationErrors));
         //Platform.runLater(() -> controller.showPlayable("test-player", new SizeObj(200d, 200d, 0d), new LocObj(new Point2D(50d, 50d), 0d), "file:/home/david/Videos/Popcornarchive-aClockworkOrange1971.mp4"));
     }
 
@@ -613,10 +692,16 @@ public final class Engine extends Threaded {
      */
     private void initDoc(final DocIO docio) {
         if (docIO != null) {
-            docIO.close(); //Close the previous
+            prefetcher.cancel(docIO);
+            dropHistory(); //Release what it held back.
+            final var old = docIO;
+            saveService.execute(old::close); //Close the previous once its queued saves are done.
         }
         putMessage("Loading...", false);
         docIO = docio;
+        if (resourceCacheBytes > 0) {
+            docIO.enableCache(resourceCacheBytes);
+        }
         eventQueue.clear();
         callQueue.clear();
         docQueue.clear();
@@ -637,16 +722,12 @@ public final class Engine extends Threaded {
         var child = doc.getRootElement();
         if (child instanceof DocElement) { //Make sure that doc is sane.
             currentDoc = (DocElement) child;
+            publishedDoc = null; //Don't serve reads from the old doc.
             scriptingEngine.setGlobal("doc", currentDoc); //Expose the doc to the scripting engine.
-            //Check for and print any validation errors. Don't really care though.
-            var valErrs = currentDoc.getValidationErrors();
-            if (valErrs.size() > 0) {
-                var errStr = String.join("\n", valErrs);
-                System.err.println("Validation Errors Found:\n" + errStr);
-            }
-            //When the doc changes, redraw the element that has changed.
+            //When the doc changes, send the part of the element that has changed.
             currentDoc.setChangeCallback(
                     el -> {
+                        var changes = el.takeChanges();
                         if (el instanceof PageElement) {//Short-out the redraw logic for pages to avoid nasty flickering.
                             var propsMap = el.getVisualProps();
                             var id = el.getID();
@@ -656,7 +737,7 @@ public final class Engine extends Threaded {
                                 maybeSize.ifPresent(s -> controller.resizeElement(id, s));
                             });
                         } else {
-                            this.redrawEl(el);
+                            this.updateEl(el, changes);
                         }
                     }
             );
@@ -671,6 +752,7 @@ public final class Engine extends Threaded {
 
             // Initialise first page
             this.gotoPage(0, true);
+            currentDoc.enableUndo(); //Edits from here on can be undone.
         } else {
             putMessage("Malformed Doc - not Doc Element!", true);
             // Looks like doc is malformed
@@ -840,7 +922,7 @@ public final class Engine extends Threaded {
      * @return Maybe text string.
      */
     public Optional<String> getShapeTextString(final String shapeID) {
-        var maybeEl = currentDoc.getElementByID(shapeID);
+        var maybeEl = readElement(shapeID);
         return maybeEl.filter(el -> el instanceof ShapeElement).map(s -> {
             return ((ShapeElement) s).getTextString();
         });
@@ -868,7 +950,7 @@ public final class Engine extends Threaded {
      */
     public Optional<HashMap<String, Object>> getShapeTextProps(final String shapeID) {
         HashMap<String, Object> retmap = new HashMap<>();
-        var maybeEl = currentDoc.getElementByID(shapeID);
+        var maybeEl = readElement(shapeID);
         maybeEl.filter(el -> el instanceof ShapeElement).ifPresent(s -> {
             ShapeElement sel = (ShapeElement) s;
             retmap.putAll(FontProps.PROP_DEFAULTS);
@@ -1063,7 +1145,7 @@ public final class Engine extends Threaded {
                     p.detach();
                     String newID = currentDoc.getNewUniqueID("page-");
                     ((PageElement) p).setID(newID);
-                    var endIndex = currentDoc.getPages().size();
+                    var endIndex = currentDoc.getPageCount();
                     currentDoc.insertPage(endIndex, (PageElement) p);
                     updateCardButtons(currentDoc.getPages());
                 });
@@ -1097,7 +1179,7 @@ public final class Engine extends Threaded {
             return;
         }
         currentDoc.getCurrentPage().map(card -> {
-            if (card.getIndex() < currentDoc.getPages().size() - 1) {
+            if (card.getIndex() < currentDoc.getPageCount() - 1) {
                 return (Integer) (card.getIndex() + 1);
             }
             return null;
@@ -1167,7 +1249,11 @@ public final class Engine extends Threaded {
             return;
         }
         scriptingEngine.setGlobal("currentPage", page);
+        page.materialise(); //Large docs parse each card on first visit.
         processEls(page);
+        //Current card's loads are queued; now guess at the next.
+        var lastVisited = navHistory.isEmpty() ? Optional.<String>empty() : Optional.of(navHistory.peek());
+        prefetcher.arrive(docIO, currentDoc, page, lastVisited);
         putMessage("Loaded New Card: " + currentDoc.getCurrentPage().get().getID(), false);
     }
 
@@ -1225,6 +1311,72 @@ public final class Engine extends Threaded {
 //CHECKSTYLE:ON
     }
 
+    /**
+     * Undo the last edit to the doc.
+     */
+    public void undo() {
+        if (Thread.currentThread() != getThread()) {
+            runFunction(() -> undo());
+            return;
+        }
+        if (currentDoc != null) {
+            currentDoc.getJournal().flatMap(UndoJournal::undo).ifPresent(this::showStep);
+        }
+    }
+
+    /**
+     * Redo the last undone edit to the doc.
+     */
+    public void redo() {
+        if (Thread.currentThread() != getThread()) {
+            runFunction(() -> redo());
+            return;
+        }
+        if (currentDoc != null) {
+            currentDoc.getJournal().flatMap(UndoJournal::redo).ifPresent(this::showStep);
+        }
+    }
+
+    /**
+     * Drop the current doc's undo history, carrying out the work it held
+     * back.
+     */
+    private void dropHistory() {
+        if (currentDoc != null) {
+            currentDoc.getJournal().ifPresent(UndoJournal::clear);
+        }
+    }
+
+    /**
+     * Show the result of undoing or redoing a step.
+     *
+     * @param step Step.
+     */
+    private void showStep(final UndoJournal.Step step) {
+        if (step.isStructural()) { //Elements or pages came or went; redraw the card.
+            var pages = currentDoc.getPages();
+            updateCardButtons(pages);
+            var current = currentDoc.getCurrentPage().filter(p -> p.getParent() == currentDoc);
+            if (current.isPresent()) {
+                gotoPage(current.get(), false);
+            } else if (!pages.isEmpty()) {
+                gotoPage(0, false);
+            }
+            return;
+        }
+        var changed = Collections.newSetFromMap(new IdentityHashMap<VisualElement, Boolean>());
+        for (var node : step.getTouched()) {
+            Node n = node;
+            while (n != null && !(n instanceof VisualElement)) {
+                n = n.getParent();
+            }
+            if (n != null && n.getDocument() != null) {
+                changed.add((VisualElement) n);
+            }
+        }
+        changed.forEach(VisualElement::hasUpdated); //Sends the changes the replay marked.
+    }
+
     /**
      * Re/draws a Visual element.
      *
@@ -1240,6 +1392,7 @@ public final class Engine extends Threaded {
         if (!pg.equals(currentDoc.getCurrentPage().get())) {
             return;
         }
+        el.takeChanges(); //Everything is sent below.
         if (el instanceof PageElement) {
             this.configCard((PageElement) el);
         } else if (el instanceof ImageElement) {
@@ -1287,6 +1440,79 @@ public final class Engine extends Threaded {
         //CHECKSTYLE:ON
     }
 
+    /**
+     * Send only what has changed on a drawn element. Position changes don't
+     * rebuild shape text or re-run the element's load function.
+     *
+     * @param el Visual Element.
+     * @param changes Changes taken from the element.
+     */
+    public void updateEl(final VisualElement el, final Set<ChangeType> changes) {
+        if (Thread.currentThread() != getThread()) {
+            runFunction(() -> updateEl(el, changes));
+            return;
+        }
+        var pg = el.getPage();
+        if (changes.isEmpty() || pg.isEmpty() || !pg.equals(currentDoc.getCurrentPage())) {
+            return; //Nothing new, or not on screen.
+        }
+        var id = el.getID();
+        if (changes.contains(ChangeType.CONTENT)) { //Rebuilds stroke and text too.
+            if (el instanceof ImageElement) {
+                this.drawImageEl((ImageElement) el);
+            } else if (el instanceof ShapeElement) {
+                this.drawShapeEl((ShapeElement) el);
+            } else if (el instanceof PlayableElement) {
+                this.drawPlayableEl((PlayableElement) el);
+            }
+        } else if (el instanceof ShapeElement) {
+            var shape = (ShapeElement) el;
+            if (changes.contains(ChangeType.STROKE)) {
+                var stroke = shape.getStroke().orElseGet(() -> new StrokeProps());
+                Platform.runLater(() -> controller.updateShapeStroke(id, stroke));
+            }
+            if (changes.contains(ChangeType.TEXT)) {
+                var text = shape.getText().orElseGet(() -> new ArrayList<>());
+                Platform.runLater(() -> controller.updateShapeText(id, text));
+            }
+        }
+        if (changes.contains(ChangeType.VISUAL)) {
+            var propsMap = el.getVisualProps();
+            Platform.runLater(() -> controller.setElVisualProps(id, propsMap));
+        }
+        if (changes.contains(ChangeType.GEOMETRY)) {
+            var maybeSize = el.getSize();
+            var maybeLoc = el.getOrigin();
+            Platform.runLater(() -> {
+                maybeSize.ifPresent(s -> controller.resizeElement(id, s));
+                maybeLoc.ifPresent(l -> controller.moveElement(id, l));
+            });
+        }
+        if (changes.contains(ChangeType.SCRIPT) && el instanceof Scriptable) {
+            try {
+                scriptingEngine.invokeOnElement(el, Scripting.LOAD_FUNCTION);
+            } catch (ScriptException | IOException ex) {
+                Logger.getLogger(Engine.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Writes a doc snapshot somewhere.
+     */
+    @FunctionalInterface
+    private interface DocSaver {
+
+        /**
+         * Save.
+         *
+         * @param io Document IO the snapshot came from.
+         * @param snapshot Snapshot.
+         * @throws IOException Couldn't save.
+         */
+        void save(DocIO io, TreeSnapshot snapshot) throws IOException;
+    }
+
     /**
      * Evaluate a python string.
      *
@@ -1315,8 +1541,8 @@ public final class Engine extends Threaded {
         var maybeEl = currentDoc.getElementByID(id);
         var maybeScr = maybeEl.flatMap(e -> e.getScriptEl())
                 .flatMap(s -> s.getSourceLoc())
-                .flatMap(sl -> docIO.getResource(sl))
-                .map(b -> new String(b, StandardCharsets.UTF_8));
+                .flatMap(sl -> docIO.getResourceBuffer(sl))
+                .map(b -> StandardCharsets.UTF_8.decode(b).toString());
         if (maybeScr.isPresent()) {
             return maybeScr.get();
         } else {
@@ -1324,6 +1550,24 @@ public final class Engine extends Threaded {
         }
     }
 
+    /**
+     * Load the string of an Element's script on the I/O pool. Completes with
+     * an empty string if none available.
+     *
+     * @param id Element ID.
+     * @return Future script string.
+     */
+    public CompletableFuture<String> fetchElScript(final String id) {
+        var maybeLoc = currentDoc.getElementByID(id)
+                .flatMap(e -> e.getScriptEl())
+                .flatMap(s -> s.getSourceLoc());
+        if (maybeLoc.isEmpty()) {
+            return CompletableFuture.completedFuture("");
+        }
+        return docIO.fetchResourceBuffer(maybeLoc.get(), null)
+                .thenApply(mb -> mb.map(b -> StandardCharsets.UTF_8.decode(b).toString()).orElse(""));
+    }
+
     /**
      * Get an element's language.
      *
@@ -1354,7 +1598,14 @@ public final class Engine extends Threaded {
             return;
         }
         var maybeEl = currentDoc.getElementByID(id);
-        maybeEl.flatMap(e -> e.getScriptEl()).flatMap(sel -> sel.getSourceLoc()).ifPresent(loc -> docIO.removeResource(loc)); //Remove existing
+        var journal = currentDoc.getJournal();
+        maybeEl.flatMap(e -> e.getScriptEl()).flatMap(sel -> sel.getSourceLoc()).ifPresent(loc -> {
+            if (journal.isPresent()) { //Remove existing once the change can't be undone.
+                journal.get().record(UndoJournal.onForget(true, () -> docIO.removeResource(loc)));
+            } else {
+                docIO.removeResource(loc); //Remove existing
+            }
+        });
         maybeEl.ifPresent(e -> {
             String suffix = "";
             if (lang.toLowerCase().equals("rhino")) {
@@ -1366,6 +1617,7 @@ public final class Engine extends Threaded {
                 Path file = docIO.getEmptyFile("/scripts", id, suffix);
                 docIO.writeBytes(file.toString(), scr.getBytes());
                 e.addScriptFile(file, lang);
+                journal.ifPresent(j -> j.record(UndoJournal.onForget(false, () -> docIO.removeResource(file.toString()))));
             } catch (IOException ex) {
                 Logger.getLogger(Engine.class.getName()).log(Level.SEVERE, null, ex);
             }
@@ -1392,7 +1644,7 @@ public final class Engine extends Threaded {
             this.putMessage("Unable to load Tools", true);
             return Optional.empty();
         }
-        toolIO = new ToolIO(toolsStream);
+        toolIO = new ToolIO(toolsStream, IO.OpenMode.MEMORY);
         var parsedDoc = toolIO.getDoc();
         var root = parsedDoc
                 .filter(d -> d.getRootElement() instanceof Tools)
@@ -1481,7 +1733,7 @@ public final class Engine extends Threaded {
      */
     public HashMap<String, Object> getElementProperties(final String elID) {
         final HashMap<String, Object> retMap = new HashMap<>();
-        Optional<VisualElement> maybeEl = currentDoc.getElementByID(elID);
+        Optional<VisualElement> maybeEl = readElement(elID);
         maybeEl.ifPresent(el -> {
             //el.getStroke().ifPresent(s -> retMap.putAll(s));
             retMap.putAll(el.getVisualProps().getDefaultProps()); //Insert Defaults
@@ -1594,14 +1846,7 @@ public final class Engine extends Threaded {
             Platform.runLater(() -> controller.showSavePicker());
             return;
         }
-        try {
-            docIO.save();
-        } catch (IOException ex) {
-            Logger.getLogger(Engine.class.getName()).log(Level.SEVERE, null, ex);
-            putMessage("Saving Failed: " + ex, true);
-            return;
-        }
-        putMessage("Saved!", false);
+        saveInBackground((io, snap) -> io.save(snap));
     }
 
     /**
@@ -1610,14 +1855,99 @@ public final class Engine extends Threaded {
      * @param newPath new location to save to.
      */
     public void saveCurrentDocAs(final String newPath) {
-        try {
-            docIO.saveAs(newPath);
-        } catch (IOException ex) {
-            Logger.getLogger(Engine.class.getName()).log(Level.SEVERE, null, ex);
-            putMessage("Saving Failed: " + ex, true);
+        saveInBackground((io, snap) -> io.saveAs(newPath, snap));
+    }
+
+    /**
+     * Snapshot the current doc, then save it off the engine thread so editing
+     * carries on meanwhile.
+     *
+     * @param saver Writes the snapshot.
+     */
+    private void saveInBackground(final DocSaver saver) {
+        if (Thread.currentThread() != getThread()) {
+            runFunction(() -> saveInBackground(saver));
             return;
         }
-        putMessage("Saved!", false);
+        final var io = docIO; //The doc the snapshot is of, even if another is opened before it runs.
+        snapshotDoc().thenAcceptAsync(snap -> {
+            try {
+                saver.save(io, snap);
+            } catch (IOException ex) {
+                Logger.getLogger(Engine.class.getName()).log(Level.SEVERE, null, ex);
+                putMessage("Saving Failed: " + ex, true);
+                return;
+            }
+            putMessage("Saved!", false);
+        }, saveService).exceptionally(ex -> {
+            putMessage("Saving Failed: " + ex.getMessage(), true);
+            return null;
+        });
+    }
+
+    /**
+     * Take a snapshot of the current doc on the engine thread.
+     *
+     * @return Future snapshot.
+     */
+    public CompletableFuture<TreeSnapshot> snapshotDoc() {
+        var future = new CompletableFuture<TreeSnapshot>();
+        Runnable take = () -> {
+            if (currentDoc == null) {
+                future.completeExceptionally(new IllegalStateException("No doc open."));
+            } else {
+                publishSnapshot(); //Reuses the published one if nothing changed.
+                future.complete(publishedDoc);
+            }
+        };
+        if (Thread.currentThread() != getThread()) {
+            runFunction(take);
+        } else {
+            take.run();
+        }
+        return future;
+    }
+
+    /**
+     * Publish a snapshot of the current doc for other threads, if it has
+     * changed since the last one. Only changed pages are copied.
+     */
+    private void publishSnapshot() {
+        if (currentDoc == null) {
+            return;
+        }
+        var last = publishedDoc;
+        if (last == null || publishedFrom != currentDoc || last.getVersion() != currentDoc.getVersion()) {
+            publishedFrom = currentDoc;
+            publishedDoc = currentDoc.snapshot();
+        }
+    }
+
+    /**
+     * Find an element to read. Other threads only ever read snapshots, so
+     * they never see the engine half way through a change. If the element
+     * isn't in the published one yet, they wait briefly for a fresh one.
+     *
+     * @param id Element ID.
+     * @return Maybe element.
+     */
+    private Optional<VisualElement> readElement(final String id) {
+        if (Thread.currentThread() == getThread()) {
+            return (currentDoc == null) ? Optional.empty() : currentDoc.getElementByID(id);
+        }
+        var snap = publishedDoc;
+        var el = (snap == null) ? Optional.<VisualElement>empty() : snap.getElementByID(id);
+        if (el.isPresent()) {
+            return el;
+        }
+        try {
+            return snapshotDoc().get(SNAPSHOT_WAIT_MS, TimeUnit.MILLISECONDS).getElementByID(id);
+        } catch (ExecutionException | TimeoutException ex) {
+            return Optional.empty(); //No doc, or the engine is busy.
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
     }
 
     /**
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.core;
+
+import g3.project.elements.DocElement;
+import g3.project.elements.ImageElement;
+import g3.project.elements.PageElement;
+import g3.project.elements.PlayableElement;
+import g3.project.elements.RefElement;
+import g3.project.elements.ScriptElement;
+import g3.project.graphics.StyledTextSeg;
+import g3.project.xmlIO.IO;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import nu.xom.Element;
+
+/**
+ * Warms caches for the cards a user is likely to visit next. On arrival at a
+ * card the next card by index, the targets of internal links on the card and
+ * the last visited card are predicted, and their resources are fetched in the
+ * background under a byte budget. Each predicted card gets its own fetch tag,
+ * so when the user lands somewhere else the wrong guesses are cancelled while
+ * the right one carries on. Cards not yet parsed are parsed on the I/O pool,
+ * not on the way to the card arrived at.
+ *
+ * Not thread safe: call from the engine thread.
+ *
+ * @author Group 3
+ */
+public final class Prefetcher {
+
+    /**
+     * Prefix of tags used for prefetch requests.
+     */
+    public static final String TAG_PREFIX = "prefetch-";
+
+    /**
+     * Most bytes (uncompressed) fetched for one round of predictions.
+     */
+    private final long budgetBytes;
+
+    /**
+     * Decodes and caches an image, given its path and a fetch tag. May be
+     * null, in which case images only warm the IO cache.
+     */
+    private final BiConsumer<String, String> imageWarmer;
+
+    /**
+     * Runs a task on the engine thread.
+     */
+    private final Consumer<Runnable> owner;
+
+    /**
+     * Tags still outstanding, by predicted page ID.
+     */
+    private final Map<String, String> pending = new HashMap<>();
+
+    /**
+     * Rounds of predictions made, for unique tags.
+     */
+    private long round = 0;
+
+    /**
+     * Bytes requested in the last round.
+     */
+    private long plannedBytes = 0;
+
+    /**
+     * Resources requested in the last round.
+     */
+    private Set<String> seen = new HashSet<>();
+
+    /**
+     * Constructor.
+     *
+     * @param budget Most bytes to fetch per card visited. Zero disables.
+     * @param warmer Image decoder, taking a path and fetch tag. May be null.
+     * @param runner Runs a task on the engine thread.
+     */
+    public Prefetcher(final long budget, final BiConsumer<String, String> warmer, final Consumer<Runnable> runner) {
+        this.budgetBytes = Math.max(0, budget);
+        this.imageWarmer = warmer;
+        this.owner = runner;
+    }
+
+    /**
+     * Predict the cards likely to be visited from the current one, most likely
+     * first. The current card is never included.
+     *
+     * @param doc Document.
+     * @param current Card just arrived at.
+     * @param lastVisited ID of the card "back" would go to, if any.
+     * @return Predicted cards.
+     */
+    public static List<PageElement> predict(final DocElement doc, final PageElement current, final Optional<String> lastVisited) {
+        var predicted = new LinkedHashSet<PageElement>();
+        doc.findPage(current.getIndex() + 1).ifPresent(predicted::add);
+        for (var target : getInternalLinks(current)) {
+            doc.findPageOf(target).ifPresent(predicted::add);
+        }
+        //Not doc.getPage(), which would move the current page.
+        lastVisited.flatMap(doc::findPage).ifPresent(predicted::add);
+        predicted.remove(current);
+        return new ArrayList<>(predicted);
+    }
+
+    /**
+     * Get the targets of internal links below an element.
+     *
+     * @param el Element to search.
+     * @return Target IDs, in document order.
+     */
+    public static List<String> getInternalLinks(final Element el) {
+        var targets = new ArrayList<String>();
+        for (var ch : el.getChildElements()) {
+            if (ch instanceof RefElement) {
+                var ref = (RefElement) ch;
+                if (ref.getType() == StyledTextSeg.REF_TYPE.INTERNAL && ref.getTarget() != null) {
+                    targets.add(ref.getTarget());
+                }
+            } else {
+                targets.addAll(getInternalLinks(ch));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Get the elements below an element that load a resource.
+     *
+     * @param el Element to search.
+     * @return Resource-loading elements, in document order.
+     */
+    public static List<Element> getResourceEls(final Element el) {
+        var found = new ArrayList<Element>();
+        for (var ch : el.getChildElements()) {
+            if (ch instanceof ImageElement || ch instanceof PlayableElement || ch instanceof ScriptElement) {
+                found.add(ch);
+            }
+            found.addAll(getResourceEls(ch));
+        }
+        return found;
+    }
+
+    /**
+     * Handle arrival at a card: cancel predictions that turned out wrong, then
+     * start fetching for the cards predicted from here. Resources of cards not
+     * yet parsed are requested later, once parsed.
+     *
+     * @param io Document IO.
+     * @param doc Document.
+     * @param current Card arrived at.
+     * @param lastVisited ID of the card "back" would go to, if any.
+     * @return Bytes requested so far.
+     */
+    public long arrive(final IO io, final DocElement doc, final PageElement current, final Optional<String> lastVisited) {
+        //A correct guess keeps loading; the rest are dropped.
+        pending.remove(current.getID());
+        cancel(io);
+        plannedBytes = 0;
+        if (budgetBytes == 0) {
+            return 0;
+        }
+        round++;
+        seen = new HashSet<>();
+        for (var page : predict(doc, current, lastVisited)) {
+            var tag = TAG_PREFIX + round + "-" + page.getID();
+            var stub = page.contentParser();
+            if (stub.isPresent()) {
+                //Parse a copy off the click path; the card stays a stub.
+                var thisRound = round;
+                io.submit(tag, stub.get()).thenAccept(content -> owner.accept(() -> {
+                    if (round == thisRound && !plan(io, content, tag)) {
+                        pending.remove(page.getID(), tag);
+                    }
+                }));
+                pending.put(page.getID(), tag);
+            } else if (plan(io, page, tag)) {
+                pending.put(page.getID(), tag);
+            }
+        }
+        return plannedBytes;
+    }
+
+    /**
+     * Fetch the resources of a predicted card, within what's left of the
+     * budget.
+     *
+     * @param io Document IO.
+     * @param page Card, or a copy of its content.
+     * @param tag Fetch tag.
+     * @return True if anything was fetched.
+     */
+    private boolean plan(final IO io, final Element page, final String tag) {
+        var started = false;
+        for (var el : getResourceEls(page)) {
+            var maybePath = sourceOf(el);
+            if (maybePath.isEmpty() || !isKept(io, el)) {
+                continue;
+            }
+            var path = maybePath.get();
+            var size = io.getResourceSize(path); //External resources can't be budgeted, so are left.
+            if (size.isEmpty() || size.get() > budgetBytes - plannedBytes || !seen.add(io.resolveResource(path))) {
+                continue;
+            }
+            plannedBytes += size.get();
+            warm(io, el, path, tag);
+            started = true;
+        }
+        return started;
+    }
+
+    /**
+     * Cancel all outstanding prefetches.
+     *
+     * @param io Document IO they were made through.
+     */
+    public void cancel(final IO io) {
+        round++; //Parses already finished are ignored too.
+        pending.values().forEach(io::cancelFetches);
+        pending.clear();
+    }
+
+    /**
+     * Get the IDs of predicted cards with prefetches outstanding.
+     *
+     * @return Card IDs.
+     */
+    public Set<String> getPendingPages() {
+        return new HashSet<>(pending.keySet());
+    }
+
+    /**
+     * Get the bytes requested in the last round of predictions, including
+     * those of cards parsed since.
+     *
+     * @return Bytes.
+     */
+    public long getPlannedBytes() {
+        return plannedBytes;
+    }
+
+    /**
+     * Get the budget per card visited.
+     *
+     * @return Bytes.
+     */
+    public long getBudget() {
+        return budgetBytes;
+    }
+
+    /**
+     * Get the source of a resource-loading element.
+     *
+     * @param el Element.
+     * @return Maybe path.
+     */
+    private static Optional<String> sourceOf(final Element el) {
+        if (el instanceof ImageElement) {
+            return ((ImageElement) el).getSourceLoc();
+        } else if (el instanceof PlayableElement) {
+            return ((PlayableElement) el).getSourceLoc();
+        } else if (el instanceof ScriptElement) {
+            return ((ScriptElement) el).getSourceLoc();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Is a resource kept once fetched the way the element will use it? Bytes
+     * fetched for nothing to hold them are just thrown away.
+     *
+     * @param io Document IO.
+     * @param el Element using it.
+     * @return True if worth fetching.
+     */
+    private boolean isKept(final IO io, final Element el) {
+        if (el instanceof ImageElement && imageWarmer != null) {
+            return true;
+        }
+        return el instanceof PlayableElement || io.getResourceCache().isPresent();
+    }
+
+    /**
+     * Fetch a resource the way the element will use it.
+     *
+     * @param io Document IO.
+     * @param el Element using it.
+     * @param path Resource path.
+     * @param tag Fetch tag.
+     */
+    private void warm(final IO io, final Element el, final String path, final String tag) {
+        if (el instanceof ImageElement && imageWarmer != null) {
+            imageWarmer.accept(path, tag);
+        } else if (el instanceof PlayableElement) {
+            io.fetchResourceTempPath(path, tag); //Players read from a file.
+        } else {
+            io.fetchResourceBuffer(path, tag); //Only called with a cache to keep it.
+        }
+    }
+}
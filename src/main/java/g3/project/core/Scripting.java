@@ -198,10 +198,10 @@ public final class Scripting {
                 }
                 return locOpt;
             }).flatMap(loc -> { //Get Bytes
-                var bytesOpt = elIo.getResource(loc);
+                var bytesOpt = elIo.getResourceBuffer(loc);
                 return bytesOpt;
             }).ifPresentOrElse(bytes -> { //Eval
-                var str = new String(bytes, StandardCharsets.UTF_8);
+                var str = StandardCharsets.UTF_8.decode(bytes).toString();
                 try {
                     this.evalString(str, scrElOpt.get().getScriptLang(), bindings);
                 } catch (ScriptException ex) {
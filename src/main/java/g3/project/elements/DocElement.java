@@ -36,8 +36,13 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
+import javafx.geometry.Rectangle2D;
 import nu.xom.*;
 
 /**
@@ -57,7 +62,7 @@ public final class DocElement extends Element implements Scriptable {
     /**
      * Doc validation errors.
      */
-    private ArrayList<String> validationErrors = new ArrayList<>();
+    private volatile ArrayList<String> validationErrors = new ArrayList<>();
 
     /**
      * Change callback.
@@ -75,6 +80,69 @@ public final class DocElement extends Element implements Scriptable {
      */
     private RecursiveBindings elementScriptBindings = new RecursiveBindings();
 
+    //CHECKSTYLE:OFF
+    /**
+     * Default most pages kept parsed at once, of those loaded lazily.
+     */
+    private static final int DEFAULT_LIVE_PAGES = 64;
+    //CHECKSTYLE:ON
+
+    /**
+     * Stub pages, by the IDs declared in their unparsed content.
+     */
+    private final Map<String, PageElement> stubIDs = new HashMap<>();
+
+    /**
+     * Lazily loaded pages that are parsed, least recently used first.
+     */
+    private final LinkedHashMap<PageElement, Boolean> livePages = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Most lazily loaded pages kept parsed. Set with -Dg3.livePages.
+     */
+    private int maxLivePages = Integer.getInteger("g3.livePages", DEFAULT_LIVE_PAGES);
+
+    /**
+     * Parsed visual elements by ID. Built on the first lookup, then kept up
+     * to date by the elements' insert, remove and ID changes.
+     */
+    private Map<String, VisualElement> idIndex = null;
+
+    /**
+     * Pages in order; null when they need finding again.
+     */
+    private ArrayList<PageElement> pageList = null;
+
+    /**
+     * Pages by ID, built with the page list.
+     */
+    private Map<String, PageElement> pageIDs = null;
+
+    /**
+     * Last number handed out by getNewUniqueID(), by prefix.
+     */
+    private final Map<String, Long> idCounters = new HashMap<>();
+
+    /**
+     * Don't evict pages while set.
+     */
+    private boolean holdPages = false;
+
+    /**
+     * Count of changes to the doc and everything in it.
+     */
+    private long version = 0;
+
+    /**
+     * Last snapshot taken, whose page ID maps the next one can reuse.
+     */
+    private TreeSnapshot lastSnapshot = null;
+
+    /**
+     * Undo history; null until enableUndo().
+     */
+    private UndoJournal journal = null;
+
 //CHECKSTYLE:OFF
     private static ThreadLocal builders = new ThreadLocal() {
 
@@ -92,6 +160,11 @@ public final class DocElement extends Element implements Scriptable {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new DocElement(getQualifiedName(), getNamespaceURI());
+    }
+
     public DocElement(final Element element) {
         super(element);
     }
@@ -115,6 +188,25 @@ public final class DocElement extends Element implements Scriptable {
         return updateCallback;
     }
 
+    /**
+     * Start recording changes so they can be undone. Call once the doc is
+     * loaded; does nothing if already recording.
+     */
+    public void enableUndo() {
+        if (journal == null) {
+            journal = new UndoJournal();
+        }
+    }
+
+    /**
+     * Get the undo history.
+     *
+     * @return Maybe journal, if enabled.
+     */
+    public Optional<UndoJournal> getJournal() {
+        return Optional.ofNullable(journal);
+    }
+
     /**
      * Set doc validation errors.
      *
@@ -138,17 +230,42 @@ public final class DocElement extends Element implements Scriptable {
      * @return ArrayList containing the Doc's pages
      */
     public ArrayList<PageElement> getPages() {
-        ArrayList<PageElement> pages = new ArrayList<>();
-        Integer pageCnt = 0;
+        refreshPages();
+        return new ArrayList<>(pageList);
+    }
+
+    /**
+     * Get the number of pages.
+     *
+     * @return Count.
+     */
+    public int getPageCount() {
+        refreshPages();
+        return pageList.size();
+    }
+
+    /**
+     * Rebuild the page list and page ID map if pages have been added, removed
+     * or renamed since they were last built.
+     */
+    void refreshPages() {
+        if (pageList != null) {
+            return;
+        }
+        pageList = new ArrayList<>();
+        pageIDs = new HashMap<>();
         for (int i = 0; i < this.getChildCount(); i++) {
             var node = this.getChild(i);
             if (node.getClass() == PageElement.class) {
-                pages.add((PageElement) node);
-                ((PageElement) node).setIndex(pageCnt);
-                pageCnt ++;
+                var page = (PageElement) node;
+                page.setIndex(pageList.size());
+                pageList.add(page);
+                var id = page.getAttributeValue("ID");
+                if (id != null) {
+                    pageIDs.putIfAbsent(id, page);
+                }
             }
         }
-        return pages;
     }
 
     /**
@@ -160,6 +277,50 @@ public final class DocElement extends Element implements Scriptable {
         return Optional.ofNullable(currentPage);
     }
 
+    /**
+     * Get the elements under a point on the current page, topmost first.
+     *
+     * @param x X.
+     * @param y Y.
+     * @return Elements. Empty if no page is open.
+     */
+    public List<VisualElement> elementsAt(final double x, final double y) {
+        return currentPage == null ? List.of() : currentPage.elementsAt(x, y);
+    }
+
+    /**
+     * Get the elements on the current page whose bounds overlap a region,
+     * topmost first.
+     *
+     * @param region Region.
+     * @return Elements. Empty if no page is open.
+     */
+    public List<VisualElement> elementsIn(final Rectangle2D region) {
+        return currentPage == null ? List.of() : currentPage.elementsIn(region);
+    }
+
+    /**
+     * Find a page without opening it.
+     *
+     * @param pageID Target page ID.
+     * @return Maybe page.
+     */
+    public Optional<PageElement> findPage(final String pageID) {
+        refreshPages();
+        return Optional.ofNullable(pageIDs.get(pageID));
+    }
+
+    /**
+     * Find a page without opening it.
+     *
+     * @param pageNum Target page number.
+     * @return Maybe page.
+     */
+    public Optional<PageElement> findPage(final Integer pageNum) {
+        refreshPages();
+        return (pageNum >= 0 && pageNum < pageList.size()) ? Optional.of(pageList.get(pageNum)) : Optional.empty();
+    }
+
     /**
      * Maybe get target page.
      *
@@ -167,20 +328,9 @@ public final class DocElement extends Element implements Scriptable {
      * @return Maybe page.
      */
     public Optional<PageElement> getPage(final String pageID) {
-        var pages = this.getPages();
-        var it = pages.iterator();
-        Integer ind = 0;
-        while (it.hasNext()) {
-            var page = it.next();
-            var pgID = page.getID();
-            if (pgID.equals(pageID)) {
-                currentPage = page;
-                page.setIndex(ind);
-                return Optional.of(page);
-            }
-            ind++;
-        }
-        return Optional.empty();
+        var page = findPage(pageID);
+        page.ifPresent(this::openPage);
+        return page;
     }
 
     /**
@@ -190,15 +340,19 @@ public final class DocElement extends Element implements Scriptable {
      * @return Maybe page.
      */
     public Optional<PageElement> getPage(final Integer pageNum) {
-        var pages = this.getPages();
-        try {
-            PageElement page = pages.get(pageNum);
-            page.setIndex(pageNum);
-            currentPage = page;
-            return Optional.of(page);
-        } catch (IndexOutOfBoundsException ex) {
-            return Optional.empty();
-        }
+        var page = findPage(pageNum);
+        page.ifPresent(this::openPage);
+        return page;
+    }
+
+    /**
+     * Make a page the current one, parsing it if needed.
+     *
+     * @param page Page.
+     */
+    private void openPage(final PageElement page) {
+        currentPage = page;
+        page.materialise();
     }
 
     /**
@@ -219,17 +373,10 @@ public final class DocElement extends Element implements Scriptable {
      * @param el Page.
      */
     public void insertPage(final Integer pageNum, final PageElement el) {
-        Integer pages = 0;
-        for (int i = 0; i < this.getChildCount(); i++) {
-            var node = this.getChild(i);
-            if (node instanceof PageElement) {
-                if (pages == pageNum) {
-                    this.insertChild(el, i);
-                    el.setIndex(pageNum);
-                    return;
-                }
-                pages++;
-            }
+        var before = findPage(pageNum);
+        if (before.isPresent()) {
+            this.insertChild(el, this.indexOf(before.get()));
+            return;
         }
         //Not enough pages in doc.
         this.insertChild(el, this.getChildCount() - 1);
@@ -262,20 +409,53 @@ public final class DocElement extends Element implements Scriptable {
      * @return New UID
      */
     public String getNewUniqueID(final String idForType) {
-        Random rand = new Random();
-        long time = System.currentTimeMillis();
-        var timestr = String.valueOf(time);
-        var idStr = idForType.concat(timestr);
-        while (!validateUniqueID(idStr)) {
-            //CHECKSTYLE:OFF
-            time = System.currentTimeMillis() - rand.nextInt(200000);
-            //CHECKSTYLE:ON
-            timestr = String.valueOf(time);
-            idStr = idForType.concat(timestr);
-        }
+        var counter = idCounters.computeIfAbsent(idForType, this::highestIDNumber);
+        String idStr;
+        do {
+            counter++;
+            idStr = idForType.concat(String.valueOf(counter));
+        } while (isIDTaken(idStr)); //Only if added by hand since seeding.
+        idCounters.put(idForType, counter);
         return idStr;
     }
 
+    /**
+     * Find the highest number already used after a prefix, so counting on
+     * from it can't collide.
+     *
+     * @param prefix ID prefix.
+     * @return Highest number, or 0.
+     */
+    private long highestIDNumber(final String prefix) {
+        if (idIndex == null) {
+            rebuildIndex();
+        }
+        long highest = 0;
+        for (var ids : List.of(idIndex.keySet(), stubIDs.keySet())) {
+            for (var id : ids) {
+                //CHECKSTYLE:OFF
+                if (id.length() > prefix.length() && id.length() - prefix.length() <= 18 && id.startsWith(prefix)) {
+                    //CHECKSTYLE:ON
+                    var num = id.substring(prefix.length());
+                    if (num.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                        highest = Math.max(highest, Long.parseLong(num));
+                    }
+                }
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * Is an ID used, without parsing any stub pages?
+     *
+     * @param id ID.
+     * @return True if used.
+     */
+    private boolean isIDTaken(final String id) {
+        return indexedElement(id).isPresent() || stubIDs.containsKey(id);
+    }
+
     /**
      * Validates if the given ID is unique or not. The element it will be
      * attached to must NOT already be in the doc!
@@ -284,7 +464,7 @@ public final class DocElement extends Element implements Scriptable {
      * @return Validity
      */
     public Boolean validateUniqueID(final String id) {
-        return getElementByID(id).isEmpty();
+        return !isIDTaken(id);
     }
 
     /**
@@ -294,18 +474,342 @@ public final class DocElement extends Element implements Scriptable {
      * @return Optional of Element
      */
     public Optional<VisualElement> getElementByID(final String id) {
-        /*
-        @todo: Make faster
-         */
-        for (var el : this.getChildElements()) {
-            if (el instanceof VisualElement) {
-                var elOp = ((VisualElement) el).getByID(id);
-                if (elOp.isPresent()) {
-                    return elOp; //Found it
+        var el = indexedElement(id);
+        if (el.isPresent()) {
+            return el;
+        }
+        //Maybe in a page that isn't parsed yet.
+        var stub = stubIDs.get(id);
+        if (stub != null) {
+            stub.materialise();
+            return indexedElement(id);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Find the page holding an element, without parsing a page that isn't
+     * parsed yet.
+     *
+     * @param id ID of element.
+     * @return Maybe page.
+     */
+    public Optional<PageElement> findPageOf(final String id) {
+        var el = indexedElement(id);
+        if (el.isPresent()) {
+            return el.get().getPage();
+        }
+        return Optional.ofNullable(stubIDs.get(id));
+    }
+
+    /**
+     * Look up a parsed element in the ID index, building the index if needed.
+     *
+     * @param id ID of element.
+     * @return Optional of Element
+     */
+    private Optional<VisualElement> indexedElement(final String id) {
+        if (idIndex == null) {
+            rebuildIndex();
+        }
+        var el = idIndex.get(id);
+        if (el != null && !(id.equals(el.getAttributeValue("ID")) && contains(el))) {
+            //Changed where the hooks can't see (e.g. under a plain element).
+            rebuildIndex();
+            el = idIndex.get(id);
+        }
+        return Optional.ofNullable(el);
+    }
+
+    /**
+     * Index every visual element reachable through visual elements, as
+     * getByID() would find them. The first of any duplicates wins.
+     */
+    private void rebuildIndex() {
+        idIndex = new HashMap<>();
+        for (int i = 0; i < this.getChildCount(); i++) {
+            indexAdded(this.getChild(i));
+        }
+    }
+
+    /**
+     * Is a node in this doc?
+     *
+     * @param node Node.
+     * @return True if this is an ancestor.
+     */
+    private boolean contains(final Node node) {
+        var parent = node.getParent();
+        while (parent != null && parent != this) {
+            parent = parent.getParent();
+        }
+        return parent == this;
+    }
+
+    /**
+     * Index a node added to the doc, and its descendants.
+     *
+     * @param node Node.
+     */
+    void indexAdded(final Node node) {
+        if (idIndex == null || !(node instanceof VisualElement)) {
+            return;
+        }
+        var el = (VisualElement) node;
+        var id = el.getAttributeValue("ID");
+        if (id != null) {
+            idIndex.putIfAbsent(id, el);
+        }
+        for (int i = 0; i < el.getChildCount(); i++) {
+            indexAdded(el.getChild(i));
+        }
+    }
+
+    /**
+     * Drop a node removed from the doc, and its descendants, from the index.
+     *
+     * @param node Node.
+     */
+    void indexRemoved(final Node node) {
+        if (idIndex == null || !(node instanceof VisualElement)) {
+            return;
+        }
+        var el = (VisualElement) node;
+        var id = el.getAttributeValue("ID");
+        if (id != null) {
+            idIndex.remove(id, el);
+        }
+        for (int i = 0; i < el.getChildCount(); i++) {
+            indexRemoved(el.getChild(i));
+        }
+    }
+
+    /**
+     * Re-index an element whose ID has changed.
+     *
+     * @param el Element.
+     * @param oldID Previous ID, or null.
+     */
+    void indexIDChanged(final VisualElement el, final String oldID) {
+        if (el.getParent() == this) {
+            pageList = null; //Page renamed.
+        }
+        if (idIndex == null) {
+            return;
+        }
+        if (oldID != null) {
+            idIndex.remove(oldID, el);
+        }
+        var id = el.getAttributeValue("ID");
+        if (id != null && contains(el)) {
+            idIndex.putIfAbsent(id, el);
+        }
+    }
+
+    @Override
+    public void insertChild(final Node child, final int position) {
+        super.insertChild(child, position);
+        version++;
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.childInserted(this, child, position);
+        }
+        if (child instanceof PageElement) {
+            pageList = null;
+        }
+        indexAdded(child);
+    }
+
+    @Override
+    public Node removeChild(final int position) {
+        var removed = super.removeChild(position);
+        version++;
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.childRemoved(this, removed, position);
+        }
+        if (removed instanceof PageElement) {
+            pageList = null;
+        }
+        indexRemoved(removed);
+        return removed;
+    }
+
+    @Override
+    public Nodes removeChildren() {
+        var removed = super.removeChildren();
+        version++;
+        pageList = null;
+        var undo = UndoJournal.of(this);
+        for (int i = 0; i < removed.size(); i++) {
+            indexRemoved(removed.get(i));
+            if (undo != null) {
+                undo.childRemoved(this, removed.get(i), 0);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void addAttribute(final Attribute attribute) {
+        var oldValue = getAttributeValue(attribute.getLocalName(), attribute.getNamespaceURI());
+        super.addAttribute(attribute);
+        version++;
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.attributeChanged(this, attribute, oldValue, attribute.getValue());
+        }
+    }
+
+    @Override
+    public Attribute removeAttribute(final Attribute attribute) {
+        var removed = super.removeAttribute(attribute);
+        version++;
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.attributeChanged(this, removed, removed.getValue(), null);
+        }
+        return removed;
+    }
+
+    /**
+     * Note that a page or something on it has changed.
+     */
+    void contentChanged() {
+        version++;
+    }
+
+    /**
+     * Get a number that changes whenever the doc or anything in it does.
+     *
+     * @return Version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Take a copy of the doc that other threads can read, and save, while this
+     * one keeps changing. Pages unchanged since the last snapshot share their
+     * copy with it, so only changed pages are copied; stubs are never parsed.
+     * Call from the thread that changes the doc.
+     *
+     * @return Snapshot.
+     */
+    public TreeSnapshot snapshot() {
+        var head = new DocElement(getQualifiedName(), getNamespaceURI());
+        for (int i = 0; i < getNamespaceDeclarationCount(); i++) {
+            var prefix = getNamespacePrefix(i);
+            head.addNamespaceDeclaration(prefix, getNamespaceURI(prefix));
+        }
+        for (int i = 0; i < getAttributeCount(); i++) {
+            head.addAttribute(getAttribute(i).copy());
+        }
+        var contents = new IdentityHashMap<PageElement, PageElement>();
+        var pages = new ArrayList<PageElement>();
+        for (int i = 0; i < getChildCount(); i++) {
+            var child = getChild(i);
+            if (child instanceof PageElement) {
+                var page = (PageElement) child;
+                var tag = page.tagCopy();
+                head.appendChild(tag);
+                if (page.isMaterialised()) {
+                    var content = page.frozenCopy();
+                    contents.put(tag, content);
+                    pages.add(content);
+                } else {
+                    pages.add(tag);
                 }
+            } else {
+                head.appendChild(child.copy());
             }
         }
-        return Optional.empty();
+        lastSnapshot = new TreeSnapshot(new Document(head), contents, pages, version, lastSnapshot);
+        return lastSnapshot;
+    }
+
+    /**
+     * Make a page a stub, to be parsed when first used.
+     *
+     * @param page Page, in this doc.
+     * @param src Unparsed content.
+     * @param ids IDs declared in the content.
+     */
+    public void addPageStub(final PageElement page, final PageSource src, final List<String> ids) {
+        page.setSource(src, ids);
+        ids.forEach(id -> stubIDs.put(id, page));
+    }
+
+    /**
+     * Parse every stub page, e.g. before a whole-doc query. Pages stay parsed
+     * until trimPages() is called.
+     */
+    public void materialiseAll() {
+        holdPages = true;
+        try {
+            getPages().forEach(PageElement::materialise);
+        } finally {
+            holdPages = false;
+        }
+    }
+
+    /**
+     * Turn the least recently used lazily loaded pages back into stubs, until
+     * no more than the limit are parsed. The current page is kept.
+     */
+    public void trimPages() {
+        livePages.keySet().removeIf(p -> p.getParent() != this); //Deleted pages.
+        var it = livePages.keySet().iterator();
+        while (livePages.size() > maxLivePages && it.hasNext()) {
+            var page = it.next();
+            if (page == currentPage || (journal != null && journal.isPinned(page))) {
+                continue; //Undo history holds nodes of pinned pages.
+            }
+            it.remove();
+            page.evict();
+            page.getStubIDs().forEach(id -> stubIDs.put(id, page));
+        }
+    }
+
+    /**
+     * Set how many lazily loaded pages are kept parsed.
+     *
+     * @param max Most pages.
+     */
+    public void setMaxLivePages(final int max) {
+        maxLivePages = Math.max(1, max);
+        trimPages();
+    }
+
+    /**
+     * Get the number of lazily loaded pages that are parsed.
+     *
+     * @return Count.
+     */
+    public int getLivePageCount() {
+        return livePages.size();
+    }
+
+    /**
+     * Note that a stub page has been parsed.
+     *
+     * @param page Page.
+     */
+    void pageMaterialised(final PageElement page) {
+        page.getStubIDs().forEach(id -> stubIDs.remove(id, page));
+        livePages.put(page, Boolean.TRUE);
+        if (!holdPages) {
+            trimPages();
+        }
+    }
+
+    /**
+     * Note that a lazily loaded page has been used.
+     *
+     * @param page Page.
+     */
+    void touchPage(final PageElement page) {
+        livePages.get(page);
     }
 
     /**
@@ -326,7 +830,34 @@ public final class DocElement extends Element implements Scriptable {
      * @param resIO Resource IO to cleanup resources.
      */
     public void deleteElement(final VisualElement el, final DocIO resIO) {
-        el.delete(resIO);
+        var undo = UndoJournal.of(el);
+        if (undo == null) {
+            el.delete(resIO);
+            return;
+        }
+        //Keep the resources until the delete can no longer be undone.
+        var doc = el.getDocument();
+        el.detach();
+        undo.record(UndoJournal.onForget(true, () -> releaseResources(el, resIO, doc)));
+    }
+
+    /**
+     * Release the resources used by a deleted element and everything in it.
+     *
+     * @param el Deleted element.
+     * @param resIO Resource IO to cleanup resources.
+     * @param doc Document it was in.
+     */
+    private static void releaseResources(final Element el, final DocIO resIO, final Document doc) {
+        if (el instanceof PageElement) {
+            ((PageElement) el).materialise();
+        }
+        if (el instanceof VisualElement && el instanceof Includable) {
+            ((Includable) el).getSourceLoc().ifPresent(s -> resIO.releaseResource(s, doc));
+        }
+        for (var ch : el.getChildElements()) {
+            releaseResources(ch, resIO, doc);
+        }
     }
 
     @Override
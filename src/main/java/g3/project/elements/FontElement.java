@@ -59,6 +59,25 @@ public final class FontElement extends Element {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new FontElement(getQualifiedName(), getNamespaceURI());
+    }
+
+    @Override
+    public void addAttribute(final Attribute attribute) {
+        var oldValue = getAttributeValue(attribute.getLocalName(), attribute.getNamespaceURI());
+        super.addAttribute(attribute);
+        VisualElement.partChanged(this, ChangeType.TEXT, attribute, oldValue, attribute.getValue());
+    }
+
+    @Override
+    public Attribute removeAttribute(final Attribute attribute) {
+        var removed = super.removeAttribute(attribute);
+        VisualElement.partChanged(this, ChangeType.TEXT, removed, removed.getValue(), null);
+        return removed;
+    }
+
     public FontElement(final Element element) {
         super(element);
     }
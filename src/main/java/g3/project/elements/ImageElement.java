@@ -70,6 +70,11 @@ public class ImageElement extends VisualElement implements Includable {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new ImageElement(getQualifiedName(), getNamespaceURI());
+    }
+
     /**
      * Constructor.
      *
@@ -94,10 +99,11 @@ public class ImageElement extends VisualElement implements Includable {
 
     @Override
     public void delete(final DocIO resIO) {
-        this.getSourceLoc().ifPresent(s -> { //Try deleting the resource.
-            resIO.removeResource(s);
-        });
+        var doc = this.getDocument();
         this.detach();
+        this.getSourceLoc().ifPresent(s -> { //Release the resource, if nothing else uses it.
+            resIO.releaseResource(s, doc);
+        });
     }
 
     /**
@@ -29,7 +29,15 @@
 package g3.project.elements;
 
 import g3.project.xmlIO.DocIO;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.geometry.Rectangle2D;
 import nu.xom.*;
 
 /**
@@ -38,11 +46,41 @@ import nu.xom.*;
  */
 public class PageElement extends VisualElement {
 
+    /**
+     * Elements by position; null until first queried.
+     */
+    private SpatialIndex spatial = null;
+
     /**
      * My Index.
      */
     private Integer index = 0;
 
+    /**
+     * Unparsed content, while this page is a stub. Null once materialised.
+     */
+    private PageSource source = null;
+
+    /**
+     * IDs declared in the unparsed content.
+     */
+    private List<String> stubIDs = List.of();
+
+    /**
+     * Count of changes to the page and everything on it.
+     */
+    private long version = 0;
+
+    /**
+     * Copy of the page for snapshots; null until one is taken.
+     */
+    private PageElement frozen = null;
+
+    /**
+     * Version the frozen copy was taken at.
+     */
+    private long frozenVersion = -1;
+
     /**
      * Creates builder thread for the element
      */
@@ -73,6 +111,13 @@ public class PageElement extends VisualElement {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        var copy = new PageElement(getQualifiedName(), getNamespaceURI());
+        copy.setSource(source, stubIDs); //A stub's copy is a stub of the same content.
+        return copy;
+    }
+
     /**
      * Constructor
      *
@@ -84,6 +129,7 @@ public class PageElement extends VisualElement {
 
     @Override
     public final void delete(final DocIO resIO) {
+        materialise(); //Release the resources of the content too.
         for (var ch : this.getChildElements()) {
             if (ch instanceof VisualElement) {
                 ((VisualElement) ch).delete(resIO);
@@ -130,12 +176,310 @@ public class PageElement extends VisualElement {
     }
 
     /**
-     * Get the page index. This should be set before use in the engine.
+     * Get the page index, kept up to date by the doc.
      *
      * @return Index.
      */
     public Integer getIndex() {
+        if (getParent() instanceof DocElement) {
+            ((DocElement) getParent()).refreshPages();
+        }
         return index;
     }
 
+    /**
+     * Get the elements under a point on the page, topmost first. Elements are
+     * boxes at their origin, rotated about their centre; those without an
+     * origin are never found.
+     *
+     * @param x X.
+     * @param y Y.
+     * @return Elements.
+     */
+    public List<VisualElement> elementsAt(final double x, final double y) {
+        return spatialIndex().at(x, y);
+    }
+
+    /**
+     * Get the elements on the page whose bounds overlap a region, topmost
+     * first.
+     *
+     * @param region Region.
+     * @return Elements.
+     */
+    public List<VisualElement> elementsIn(final Rectangle2D region) {
+        return spatialIndex().in(region);
+    }
+
+    /**
+     * Get the spatial index, building it on first use.
+     *
+     * @return Index.
+     */
+    private SpatialIndex spatialIndex() {
+        materialise();
+        if (spatial == null) {
+            spatial = new SpatialIndex();
+            for (int i = 0; i < getChildCount(); i++) {
+                spatialAdded(getChild(i));
+            }
+        }
+        return spatial;
+    }
+
+    /**
+     * Is an element found by spatial queries? Only visual elements reached
+     * through visual elements are.
+     *
+     * @param el Element.
+     * @return True if it is.
+     */
+    private boolean isSpatial(final VisualElement el) {
+        var parent = el.getParent();
+        while (parent instanceof VisualElement && parent != this) {
+            parent = parent.getParent();
+        }
+        return parent == this;
+    }
+
+    /**
+     * Index a node added to the page, and its descendants.
+     *
+     * @param node Node.
+     */
+    void spatialAdded(final Node node) {
+        if (spatial == null || !(node instanceof VisualElement) || !isSpatial((VisualElement) node)) {
+            return;
+        }
+        var el = (VisualElement) node;
+        spatial.put(el);
+        for (int i = 0; i < el.getChildCount(); i++) {
+            spatialAdded(el.getChild(i));
+        }
+    }
+
+    /**
+     * Drop a node removed from the page, and its descendants.
+     *
+     * @param node Node.
+     */
+    void spatialRemoved(final Node node) {
+        if (spatial == null || !(node instanceof VisualElement)) {
+            return;
+        }
+        var el = (VisualElement) node;
+        spatial.remove(el);
+        for (int i = 0; i < el.getChildCount(); i++) {
+            spatialRemoved(el.getChild(i));
+        }
+    }
+
+    /**
+     * Re-index an element that has moved, been resized or rotated.
+     *
+     * @param el Element.
+     */
+    void spatialMoved(final VisualElement el) {
+        if (spatial != null && isSpatial(el)) {
+            spatial.put(el);
+        }
+    }
+
+    /**
+     * Make this page a stub, with unparsed content.
+     *
+     * @param src Content.
+     * @param ids IDs declared in the content.
+     */
+    void setSource(final PageSource src, final List<String> ids) {
+        source = src;
+        stubIDs = ids;
+    }
+
+    /**
+     * Get the unparsed content, if this page is a stub.
+     *
+     * @return Maybe content.
+     */
+    public Optional<PageSource> getSource() {
+        return Optional.ofNullable(source);
+    }
+
+    /**
+     * Get the IDs declared in the unparsed content.
+     *
+     * @return IDs. Empty once materialised.
+     */
+    public List<String> getStubIDs() {
+        return stubIDs;
+    }
+
+    /**
+     * Is the page's content parsed?
+     *
+     * @return True unless a stub.
+     */
+    public boolean isMaterialised() {
+        return source == null;
+    }
+
+    /**
+     * Parse the page's content, if it's a stub. Does nothing otherwise.
+     */
+    public void materialise() {
+        if (source == null) {
+            if (getParent() instanceof DocElement) {
+                ((DocElement) getParent()).touchPage(this);
+            }
+            return;
+        }
+        var src = source;
+        source = null;
+        var undo = UndoJournal.of(this); //Parsing isn't an edit.
+        if (undo != null) {
+            undo.pause();
+        }
+        try {
+            for (var node : src.parse(this)) {
+                this.appendChild(node);
+            }
+        } catch (ParsingException | IOException ex) {
+            Logger.getLogger(PageElement.class.getName()).log(Level.SEVERE, getID(), ex);
+        } finally {
+            if (undo != null) {
+                undo.resume();
+            }
+        }
+        if (getParent() instanceof DocElement) {
+            ((DocElement) getParent()).pageMaterialised(this);
+        }
+        stubIDs = List.of();
+    }
+
+    /**
+     * Get a task that parses a copy of a stub's content, leaving the page a
+     * stub. Namespaces are looked up now, so call this on the thread that owns
+     * the tree; the task itself only reads the unparsed content and may run on
+     * any thread.
+     *
+     * @return Task giving the content under a detached element, or empty if
+     * the page is already materialised.
+     */
+    public Optional<Supplier<Element>> contentParser() {
+        if (source == null) {
+            return Optional.empty();
+        }
+        var src = source;
+        var namespaces = PageSource.inScopeNamespaces(this);
+        var id = getID();
+        return Optional.of(() -> {
+            var holder = new Element(getQualifiedName(), getNamespaceURI());
+            try {
+                for (var node : src.parse(namespaces)) {
+                    holder.appendChild(node);
+                }
+            } catch (ParsingException | IOException ex) {
+                Logger.getLogger(PageElement.class.getName()).log(Level.SEVERE, id, ex);
+            }
+            return holder;
+        });
+    }
+
+    /**
+     * Note that the page or something on it has changed.
+     */
+    void contentChanged() {
+        version++;
+        if (getParent() instanceof DocElement) {
+            ((DocElement) getParent()).contentChanged();
+        }
+    }
+
+    /**
+     * Get a copy of the parsed page to go in a snapshot. The copy is only
+     * made again once the page has changed; it must never be changed itself.
+     *
+     * @return Copy, with the doc's namespace declarations.
+     */
+    PageElement frozenCopy() {
+        if (frozen == null || frozenVersion != version) {
+            var copy = (PageElement) this.copy();
+            var doc = getParent();
+            if (doc instanceof Element) { //Declare the doc's prefixes once, here, not on every child.
+                var docEl = (Element) doc;
+                for (int i = 0; i < docEl.getNamespaceDeclarationCount(); i++) {
+                    var prefix = docEl.getNamespacePrefix(i);
+                    if (copy.getNamespaceURI(prefix) == null) {
+                        copy.addNamespaceDeclaration(prefix, docEl.getNamespaceURI(prefix));
+                    }
+                }
+            }
+            frozen = copy;
+            frozenVersion = version;
+        }
+        return frozen;
+    }
+
+    /**
+     * Copy the page without its content. A stub stays a stub.
+     *
+     * @return Copy of the tag.
+     */
+    PageElement tagCopy() {
+        var copy = (PageElement) shallowCopy();
+        for (int i = 0; i < getNamespaceDeclarationCount(); i++) {
+            var prefix = getNamespacePrefix(i);
+            copy.addNamespaceDeclaration(prefix, getNamespaceURI(prefix));
+        }
+        for (int i = 0; i < getAttributeCount(); i++) {
+            copy.addAttribute(getAttribute(i).copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Turn the page back into a stub, keeping its content as XML.
+     */
+    void evict() {
+        frozen = null;
+        if (source != null) {
+            return;
+        }
+        var ids = new ArrayList<String>();
+        collectIDs(this, ids);
+        var xml = new StringBuilder();
+        for (int i = 0; i < getChildCount(); i++) {
+            xml.append(getChild(i).toXML());
+        }
+        var bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.pause();
+        }
+        try {
+            removeChildren();
+        } finally {
+            if (undo != null) {
+                undo.resume();
+            }
+        }
+        setSource(new PageSource(bytes, 0, bytes.length, StandardCharsets.UTF_8.name()), ids);
+    }
+
+    /**
+     * Collect the IDs declared below an element.
+     *
+     * @param el Element.
+     * @param ids Found IDs.
+     */
+    private static void collectIDs(final Element el, final List<String> ids) {
+        for (var ch : el.getChildElements()) {
+            var id = ch.getAttributeValue("ID");
+            if (id != null) {
+                ids.add(id);
+            }
+            collectIDs(ch, ids);
+        }
+    }
+
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.elements;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import nu.xom.Builder;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.ParsingException;
+
+/**
+ * Unparsed content of a page: a range of bytes of the document it came from.
+ * Parsed on demand in the namespace context of the page.
+ *
+ * @author Group 3
+ */
+public final class PageSource {
+
+    /**
+     * Name of the element wrapping the content while parsing.
+     */
+    private static final String WRAPPER = "page-content";
+
+    /**
+     * Character or predefined entity reference.
+     */
+    private static final Pattern ENTITY = Pattern.compile("&(#[0-9]+|#[xX][0-9a-fA-F]+|[a-z]+);");
+
+    /**
+     * Predefined XML entities.
+     */
+    private static final Map<String, String> NAMED_ENTITIES = Map.of(
+            "amp", "&", "lt", "<", "gt", ">", "quot", "\"", "apos", "'");
+
+    /**
+     * Bytes holding the content. Shared, never modified.
+     */
+    private final byte[] data;
+
+    /**
+     * Offset of the content.
+     */
+    private final int offset;
+
+    /**
+     * Length of the content.
+     */
+    private final int length;
+
+    /**
+     * Encoding of the content.
+     */
+    private final String encoding;
+
+    /**
+     * Constructor.
+     *
+     * @param bytes Bytes holding the content. Not copied.
+     * @param off Offset of the content.
+     * @param len Length of the content.
+     * @param enc Encoding.
+     */
+    public PageSource(final byte[] bytes, final int off, final int len, final String enc) {
+        data = bytes;
+        offset = off;
+        length = len;
+        encoding = enc;
+    }
+
+    /**
+     * @return Length of the content in bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Encoding of the content.
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Stream the raw content bytes.
+     *
+     * @return Stream.
+     */
+    public InputStream openRaw() {
+        return new ByteArrayInputStream(data, offset, length);
+    }
+
+    /**
+     * Find the values of an unprefixed attribute in the content, without
+     * parsing it. The text is only scanned, so a match inside a comment or
+     * character data is found too; callers must only use this where finding
+     * too much is safe.
+     *
+     * @param name Attribute name.
+     * @return Values, unescaped, in document order.
+     */
+    public List<String> findAttributeValues(final String name) {
+        var text = new String(data, offset, length, Charset.forName(encoding));
+        var matcher = Pattern.compile("(?<=\\s)" + Pattern.quote(name) + "\\s*=\\s*([\"'])(.*?)\\1", Pattern.DOTALL).matcher(text);
+        var values = new ArrayList<String>();
+        while (matcher.find()) {
+            values.add(unescape(matcher.group(2)));
+        }
+        return values;
+    }
+
+    /**
+     * Parse the content into nodes.
+     *
+     * @param context Element the content belongs in, for namespaces.
+     * @return Parsed nodes, detached.
+     * @throws ParsingException Content isn't well formed.
+     * @throws IOException Couldn't read.
+     */
+    List<Node> parse(final Element context) throws ParsingException, IOException {
+        return parse(inScopeNamespaces(context));
+    }
+
+    /**
+     * Parse the content into nodes, given the namespaces in scope. Only reads
+     * the content, so may be called from any thread.
+     *
+     * @param namespaces Prefix to URI.
+     * @return Parsed nodes, detached.
+     * @throws ParsingException Content isn't well formed.
+     * @throws IOException Couldn't read.
+     */
+    List<Node> parse(final Map<String, String> namespaces) throws ParsingException, IOException {
+        var cs = Charset.forName(encoding);
+        var head = new StringBuilder("<?xml version=\"1.0\" encoding=\"").append(encoding).append("\"?><").append(WRAPPER);
+        namespaces.forEach((prefix, uri) -> {
+            head.append(prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix).append("=\"").append(escape(uri)).append('"');
+        });
+        head.append('>');
+        var in = new SequenceInputStream(new SequenceInputStream(
+                new ByteArrayInputStream(head.toString().getBytes(cs)), openRaw()),
+                new ByteArrayInputStream(("</" + WRAPPER + ">").getBytes(cs)));
+        var wrapper = new Builder(new ElementFactory()).build(in).getRootElement();
+        var nodes = new ArrayList<Node>();
+        while (wrapper.getChildCount() > 0) {
+            nodes.add(wrapper.removeChild(0));
+        }
+        return nodes;
+    }
+
+    /**
+     * Get the namespaces in scope at an element.
+     *
+     * @param el Element.
+     * @return Prefix to URI.
+     */
+    static Map<String, String> inScopeNamespaces(final Element el) {
+        var found = new LinkedHashMap<String, String>();
+        for (var node = el; node != null; node = node.getParent() instanceof Element ? (Element) node.getParent() : null) {
+            for (int i = 0; i < node.getNamespaceDeclarationCount(); i++) {
+                var prefix = node.getNamespacePrefix(i);
+                var uri = node.getNamespaceURI(prefix);
+                if (!"xml".equals(prefix) && uri != null && !found.containsKey(prefix)) {
+                    found.put(prefix, uri);
+                }
+            }
+        }
+        found.remove("", ""); //Undeclared default namespace.
+        return found;
+    }
+
+    /**
+     * Unescape an attribute value as written in the content.
+     *
+     * @param value Value.
+     * @return Unescaped.
+     */
+    private static String unescape(final String value) {
+        var matcher = ENTITY.matcher(value);
+        var out = new StringBuilder();
+        while (matcher.find()) {
+            var ref = matcher.group(1);
+            String text;
+            if (ref.startsWith("#x") || ref.startsWith("#X")) {
+                //CHECKSTYLE:OFF
+                text = new String(Character.toChars(Integer.parseInt(ref.substring(2), 16)));
+                //CHECKSTYLE:ON
+            } else if (ref.startsWith("#")) {
+                text = new String(Character.toChars(Integer.parseInt(ref.substring(1))));
+            } else {
+                text = NAMED_ENTITIES.getOrDefault(ref, matcher.group());
+            }
+            matcher.appendReplacement(out, Matcher.quoteReplacement(text));
+        }
+        matcher.appendTail(out);
+        return out.toString();
+    }
+
+    /**
+     * Escape an attribute value.
+     *
+     * @param value Value.
+     * @return Escaped.
+     */
+    private static String escape(final String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+}
@@ -77,6 +77,11 @@ public final class PlayableElement extends VisualElement implements Includable {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new PlayableElement(getQualifiedName(), getNamespaceURI());
+    }
+
     /**
      * Constructor
      *
@@ -88,8 +93,9 @@ public final class PlayableElement extends VisualElement implements Includable {
 
     @Override
     public void delete(final DocIO resIO) {
-        this.getSourceLoc().ifPresent(s -> resIO.removeResource(s));
+        var doc = this.getDocument();
         this.detach();
+        this.getSourceLoc().ifPresent(s -> resIO.releaseResource(s, doc));
     }
 
     /**
@@ -54,6 +54,11 @@ public class RefElement extends Element {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new RefElement(getQualifiedName(), getNamespaceURI());
+    }
+
     public RefElement(Element element) {
         super(element);
     }
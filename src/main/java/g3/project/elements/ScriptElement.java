@@ -88,6 +88,25 @@ public final class ScriptElement extends Element implements Includable {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new ScriptElement(getQualifiedName(), getNamespaceURI());
+    }
+
+    @Override
+    public void addAttribute(final Attribute attribute) {
+        var oldValue = getAttributeValue(attribute.getLocalName(), attribute.getNamespaceURI());
+        super.addAttribute(attribute);
+        VisualElement.partChanged(this, ChangeType.SCRIPT, attribute, oldValue, attribute.getValue());
+    }
+
+    @Override
+    public Attribute removeAttribute(final Attribute attribute) {
+        var removed = super.removeAttribute(attribute);
+        VisualElement.partChanged(this, ChangeType.SCRIPT, removed, removed.getValue(), null);
+        return removed;
+    }
+
     public ScriptElement(Element element) {
         super(element);
     }
@@ -78,6 +78,11 @@ public class ShapeElement extends VisualElement {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new ShapeElement(getQualifiedName(), getNamespaceURI());
+    }
+
     /**
      * Constructor
      *
@@ -310,6 +315,7 @@ public class ShapeElement extends VisualElement {
             }
             return null;
         }).ifPresent(fe -> ((FontElement) fe).setProperties(props));
+        markChanged(ChangeType.TEXT);
     }
 
     /**
@@ -341,6 +347,7 @@ public class ShapeElement extends VisualElement {
                 fe.setProperties(props);
             });
         });
+        markChanged(ChangeType.TEXT);
     }
 
     /**
@@ -371,6 +378,7 @@ public class ShapeElement extends VisualElement {
                 fe.setProperties(props);
             });
         });
+        markChanged(ChangeType.TEXT);
     }
 
     /**
@@ -416,6 +424,7 @@ public class ShapeElement extends VisualElement {
                 t.addAttribute(VisualElement.makeAttrWithNS(FontProps.VALIGNMENT, vAlign));
             }
         });
+        markChanged(ChangeType.TEXT);
     }
 
     /**
@@ -439,6 +448,7 @@ public class ShapeElement extends VisualElement {
             props.put(FontProps.IT, italic);
             props.put(FontProps.BOLD, bold);
         });
+        markChanged(ChangeType.TEXT);
     }
 
 }
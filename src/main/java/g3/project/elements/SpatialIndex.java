@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.elements;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import javafx.geometry.Rectangle2D;
+
+/**
+ * Uniform grid over a page's elements, for finding what is under a point or
+ * in a region without checking every element. Each element is put in every
+ * cell its bounds touch; an element is a box at its origin, rotated about its
+ * centre, as it is drawn.
+ *
+ * @author Group 3
+ */
+final class SpatialIndex {
+
+    /**
+     * Width and height of a grid cell, in px.
+     */
+    //CHECKSTYLE:OFF
+    private static final double CELL_PX = 128;
+    //CHECKSTYLE:ON
+
+    /**
+     * Elements covering more cells than this are kept in a list of their own,
+     * checked on every query.
+     */
+    //CHECKSTYLE:OFF
+    private static final long MAX_CELLS = 1024;
+    //CHECKSTYLE:ON
+
+    /**
+     * Indexed element's shape.
+     */
+    private static final class Entry {
+
+        /**
+         * Element.
+         */
+        private final VisualElement element;
+        /**
+         * Order added, to break z ties the way they're drawn.
+         */
+        private final long seq;
+        /**
+         * Centre X.
+         */
+        private final double cx;
+        /**
+         * Centre Y.
+         */
+        private final double cy;
+        /**
+         * Half width, before rotation.
+         */
+        private final double hw;
+        /**
+         * Half height, before rotation.
+         */
+        private final double hh;
+        /**
+         * Rotation, in radians.
+         */
+        private final double rot;
+        /**
+         * Bounds after rotation.
+         */
+        private final Rectangle2D bounds;
+
+        /**
+         * Constructor.
+         *
+         * @param el Element.
+         * @param order Order added.
+         */
+        Entry(final VisualElement el, final long order) {
+            element = el;
+            seq = order;
+            var origin = el.getOrigin().get().getLoc();
+            var size = el.getSize();
+            var w = size.map(s -> Math.abs(s.getX())).orElse(0d);
+            var h = size.map(s -> Math.abs(s.getY())).orElse(0d);
+            hw = w / 2;
+            hh = h / 2;
+            cx = origin.getX() + hw;
+            cy = origin.getY() + hh;
+            rot = Math.toRadians(size.map(s -> s.getRot()).orElse(0d));
+            var ex = Math.abs(hw * Math.cos(rot)) + Math.abs(hh * Math.sin(rot));
+            var ey = Math.abs(hw * Math.sin(rot)) + Math.abs(hh * Math.cos(rot));
+            bounds = new Rectangle2D(cx - ex, cy - ey, 2 * ex, 2 * ey);
+        }
+
+        /**
+         * Is a point on the element?
+         *
+         * @param x X.
+         * @param y Y.
+         * @return True if it is.
+         */
+        boolean contains(final double x, final double y) {
+            var dx = x - cx;
+            var dy = y - cy;
+            //Undo the rotation, then test against the upright box.
+            var ux = dx * Math.cos(-rot) - dy * Math.sin(-rot);
+            var uy = dx * Math.sin(-rot) + dy * Math.cos(-rot);
+            return Math.abs(ux) <= hw && Math.abs(uy) <= hh;
+        }
+    }
+
+    /**
+     * Entries by grid cell.
+     */
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+
+    /**
+     * Entries too big for the grid.
+     */
+    private final List<Entry> oversized = new ArrayList<>();
+
+    /**
+     * Entries by element.
+     */
+    private final Map<VisualElement, Entry> entries = new IdentityHashMap<>();
+
+    /**
+     * Next entry's order.
+     */
+    private long nextSeq = 0;
+
+    /**
+     * Topmost first: lowest z (the view order), then latest added.
+     */
+    private static final Comparator<Entry> TOP_FIRST = Comparator
+            .comparingDouble((Entry e) -> e.element.getZInd())
+            .thenComparing(Comparator.comparingLong((Entry e) -> e.seq).reversed());
+
+    /**
+     * Add or move an element. Elements without an origin aren't indexed.
+     *
+     * @param el Element.
+     */
+    void put(final VisualElement el) {
+        var old = entries.get(el);
+        remove(el);
+        if (el.getOrigin().isEmpty()) {
+            return;
+        }
+        var entry = new Entry(el, old != null ? old.seq : nextSeq++);
+        entries.put(el, entry);
+        if (cellCount(entry.bounds) > MAX_CELLS) {
+            oversized.add(entry);
+        } else {
+            forCells(entry.bounds, cell -> cells.computeIfAbsent(cell, k -> new ArrayList<>()).add(entry));
+        }
+    }
+
+    /**
+     * Remove an element.
+     *
+     * @param el Element.
+     */
+    void remove(final VisualElement el) {
+        var old = entries.remove(el);
+        if (old == null) {
+            return;
+        } else if (cellCount(old.bounds) > MAX_CELLS) {
+            oversized.remove(old);
+        } else {
+            forCells(old.bounds, cell -> cells.computeIfPresent(cell, (k, list) -> {
+                list.remove(old);
+                return list.isEmpty() ? null : list;
+            }));
+        }
+    }
+
+    /**
+     * Is an element indexed?
+     *
+     * @param el Element.
+     * @return True if it is.
+     */
+    boolean contains(final VisualElement el) {
+        return entries.containsKey(el);
+    }
+
+    /**
+     * Get the elements under a point.
+     *
+     * @param x X.
+     * @param y Y.
+     * @return Elements, topmost first.
+     */
+    List<VisualElement> at(final double x, final double y) {
+        var cell = cells.getOrDefault(key(cellOf(x), cellOf(y)), List.of());
+        var hits = new ArrayList<Entry>();
+        for (var list : List.of(cell, oversized)) {
+            for (var entry : list) {
+                if (entry.contains(x, y)) {
+                    hits.add(entry);
+                }
+            }
+        }
+        return sorted(hits);
+    }
+
+    /**
+     * Get the elements whose bounds overlap a region.
+     *
+     * @param region Region.
+     * @return Elements, topmost first.
+     */
+    List<VisualElement> in(final Rectangle2D region) {
+        var hits = new ArrayList<Entry>();
+        var seen = new IdentityHashMap<Entry, Boolean>();
+        LongConsumer visit = cell -> {
+            for (var entry : cells.getOrDefault(cell, List.of())) {
+                if (seen.put(entry, Boolean.TRUE) == null && overlaps(entry.bounds, region)) {
+                    hits.add(entry);
+                }
+            }
+        };
+        if (cellCount(region) > cells.size()) {
+            //Big region: cheaper to visit only the cells in use.
+            cells.keySet().stream().filter(k -> overlaps(cellBounds(k), region)).forEach(visit::accept);
+        } else {
+            forCells(region, visit);
+        }
+        for (var entry : oversized) {
+            if (overlaps(entry.bounds, region)) {
+                hits.add(entry);
+            }
+        }
+        return sorted(hits);
+    }
+
+    /**
+     * Do two rectangles overlap or touch? Unlike Rectangle2D.intersects(),
+     * zero-sized ones count.
+     *
+     * @param a Rectangle.
+     * @param b Rectangle.
+     * @return True if they do.
+     */
+    private static boolean overlaps(final Rectangle2D a, final Rectangle2D b) {
+        return a.getMinX() <= b.getMaxX() && b.getMinX() <= a.getMaxX()
+                && a.getMinY() <= b.getMaxY() && b.getMinY() <= a.getMaxY();
+    }
+
+    /**
+     * Sort hits topmost first.
+     *
+     * @param hits Hits.
+     * @return Elements.
+     */
+    private static List<VisualElement> sorted(final List<Entry> hits) {
+        hits.sort(TOP_FIRST);
+        var els = new ArrayList<VisualElement>(hits.size());
+        hits.forEach(e -> els.add(e.element));
+        return els;
+    }
+
+    /**
+     * Count the cells a rectangle touches.
+     *
+     * @param rect Rectangle.
+     * @return Count.
+     */
+    private static long cellCount(final Rectangle2D rect) {
+        return (cellOf(rect.getMaxX()) - (long) cellOf(rect.getMinX()) + 1)
+                * (cellOf(rect.getMaxY()) - (long) cellOf(rect.getMinY()) + 1);
+    }
+
+    /**
+     * Visit every cell a rectangle touches.
+     *
+     * @param rect Rectangle.
+     * @param visitor Called with each cell's key.
+     */
+    private static void forCells(final Rectangle2D rect, final LongConsumer visitor) {
+        for (int cx = cellOf(rect.getMinX()); cx <= cellOf(rect.getMaxX()); cx++) {
+            for (int cy = cellOf(rect.getMinY()); cy <= cellOf(rect.getMaxY()); cy++) {
+                visitor.accept(key(cx, cy));
+            }
+        }
+    }
+
+    /**
+     * Get the cell a coordinate is in.
+     *
+     * @param v Coordinate.
+     * @return Cell.
+     */
+    private static int cellOf(final double v) {
+        return (int) Math.floor(v / CELL_PX);
+    }
+
+    /**
+     * Get the area a cell covers.
+     *
+     * @param key Cell key.
+     * @return Area.
+     */
+    private static Rectangle2D cellBounds(final long key) {
+        var cx = (int) (key >> Integer.SIZE);
+        var cy = (int) key;
+        return new Rectangle2D(cx * CELL_PX, cy * CELL_PX, CELL_PX, CELL_PX);
+    }
+
+    /**
+     * Get a cell's key.
+     *
+     * @param cx Cell column.
+     * @param cy Cell row.
+     * @return Key.
+     */
+    private static long key(final int cx, final int cy) {
+        //CHECKSTYLE:OFF
+        return ((long) cx << Integer.SIZE) | (cy & 0xFFFFFFFFL);
+        //CHECKSTYLE:ON
+    }
+}
@@ -69,6 +69,25 @@ public class StrokeElement extends Element {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new StrokeElement(getQualifiedName(), getNamespaceURI());
+    }
+
+    @Override
+    public void addAttribute(final Attribute attribute) {
+        var oldValue = getAttributeValue(attribute.getLocalName(), attribute.getNamespaceURI());
+        super.addAttribute(attribute);
+        VisualElement.partChanged(this, ChangeType.STROKE, attribute, oldValue, attribute.getValue());
+    }
+
+    @Override
+    public Attribute removeAttribute(final Attribute attribute) {
+        var removed = super.removeAttribute(attribute);
+        VisualElement.partChanged(this, ChangeType.STROKE, removed, removed.getValue(), null);
+        return removed;
+    }
+
     /**
      * Constructor.
      *
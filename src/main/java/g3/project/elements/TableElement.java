@@ -67,6 +67,11 @@ public class TableElement extends VisualElement {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new TableElement(getQualifiedName(), getNamespaceURI());
+    }
+
     /**
      * Constructor
      *
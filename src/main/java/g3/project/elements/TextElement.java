@@ -58,6 +58,25 @@ public class TextElement extends Element implements Includable {
         super(name, uri);
     }
 
+    @Override
+    protected Element shallowCopy() {
+        return new TextElement(getQualifiedName(), getNamespaceURI());
+    }
+
+    @Override
+    public void addAttribute(final Attribute attribute) {
+        var oldValue = getAttributeValue(attribute.getLocalName(), attribute.getNamespaceURI());
+        super.addAttribute(attribute);
+        VisualElement.partChanged(this, ChangeType.TEXT, attribute, oldValue, attribute.getValue());
+    }
+
+    @Override
+    public Attribute removeAttribute(final Attribute attribute) {
+        var removed = super.removeAttribute(attribute);
+        VisualElement.partChanged(this, ChangeType.TEXT, removed, removed.getValue(), null);
+        return removed;
+    }
+
     public TextElement(Element element) {
         super(element);
     }
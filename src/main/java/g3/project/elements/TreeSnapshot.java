@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.elements;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import nu.xom.Document;
+import nu.xom.Element;
+
+/**
+ * A copy of a doc, taken by DocElement.snapshot(), for reading or saving on
+ * other threads while the doc keeps changing. Nothing in it may be changed.
+ *
+ * @author Group 3
+ */
+public final class TreeSnapshot {
+
+    /**
+     * Doc element and everything that isn't page content.
+     */
+    private final Document document;
+
+    /**
+     * Content of each parsed page, by its tag in the document.
+     */
+    private final Map<PageElement, PageElement> contents;
+
+    /**
+     * Pages in order: copies of parsed pages, or unparsed stubs.
+     */
+    private final List<PageElement> pages;
+
+    /**
+     * Doc version when taken.
+     */
+    private final long version;
+
+    /**
+     * Visual elements by ID, for each page searched so far.
+     */
+    private final Map<PageElement, Map<String, VisualElement>> pageIDs = new IdentityHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param doc Doc, with empty tags for parsed pages.
+     * @param pageContents Content of each parsed page, by tag.
+     * @param pageList Pages in order.
+     * @param docVersion Doc version.
+     * @param previous Last snapshot of the same doc, or null.
+     */
+    TreeSnapshot(final Document doc, final Map<PageElement, PageElement> pageContents,
+            final List<PageElement> pageList, final long docVersion, final TreeSnapshot previous) {
+        document = doc;
+        contents = pageContents;
+        pages = Collections.unmodifiableList(pageList);
+        version = docVersion;
+        if (previous != null) { //Unchanged pages are the same copies; keep their IDs.
+            synchronized (previous.pageIDs) {
+                for (var page : pages) {
+                    var ids = previous.pageIDs.get(page);
+                    if (ids != null) {
+                        pageIDs.put(page, ids);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the doc. Parsed pages in it are empty tags; their content comes from
+     * getContent().
+     *
+     * @return Document.
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Get the content of a page tag in the document.
+     *
+     * @param tag Page tag.
+     * @return Maybe content. Empty for stubs, which hold their own content.
+     */
+    public Optional<PageElement> getContent(final PageElement tag) {
+        return Optional.ofNullable(contents.get(tag));
+    }
+
+    /**
+     * Get the pages in order. Parsed pages come with their content; stubs are
+     * left unparsed.
+     *
+     * @return Pages.
+     */
+    public List<PageElement> getPages() {
+        return pages;
+    }
+
+    /**
+     * Get the version of the doc this was taken at.
+     *
+     * @return Version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Find an element by ID. Elements on stub pages aren't found.
+     *
+     * @param id ID.
+     * @return Maybe element.
+     */
+    public Optional<VisualElement> getElementByID(final String id) {
+        synchronized (pageIDs) {
+            for (var page : pages) {
+                if (page.isMaterialised()) {
+                    var el = pageIDs.computeIfAbsent(page, TreeSnapshot::collectIDs).get(id);
+                    if (el != null) {
+                        return Optional.of(el);
+                    }
+                } else if (id.equals(page.getAttributeValue("ID"))) {
+                    return Optional.of(page);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Map the visual elements on a page, and the page itself, by ID.
+     *
+     * @param page Page.
+     * @return Elements by ID.
+     */
+    private static Map<String, VisualElement> collectIDs(final PageElement page) {
+        var ids = new HashMap<String, VisualElement>();
+        collectIDs(page, ids);
+        return ids;
+    }
+
+    /**
+     * Add an element and those below it to an ID map. The first of a
+     * duplicated ID is kept.
+     *
+     * @param el Element.
+     * @param ids Elements by ID.
+     */
+    private static void collectIDs(final Element el, final Map<String, VisualElement> ids) {
+        if (el instanceof VisualElement) {
+            var id = el.getAttributeValue("ID");
+            if (id != null) {
+                ids.putIfAbsent(id, (VisualElement) el);
+            }
+        }
+        for (var ch : el.getChildElements()) {
+            collectIDs(ch, ids);
+        }
+    }
+}
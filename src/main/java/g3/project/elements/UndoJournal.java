@@ -0,0 +1,854 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.elements;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.ParentNode;
+
+/**
+ * Undo/redo history of a doc. Element and doc hooks record each change as a
+ * small operation that can be reversed; a step is closed by checkpoint(),
+ * which the engine calls after each burst of work. A step that only sets
+ * attributes the previous step set, such as the moves of a drag, merges into
+ * it. The oldest steps are dropped beyond a step count or an estimate of the
+ * memory they hold. Use from the thread that changes the doc.
+ *
+ * @author Group 3
+ */
+public final class UndoJournal {
+
+    //CHECKSTYLE:OFF
+    /**
+     * Default most steps kept. Set with -Dg3.undoSteps.
+     */
+    private static final int DEFAULT_STEPS = 256;
+
+    /**
+     * Default most bytes held by steps. Set with -Dg3.undoBytes.
+     */
+    private static final long DEFAULT_BYTES = 8L * 1024 * 1024;
+
+    /**
+     * Steps closer together than this may merge.
+     */
+    private static final long MERGE_MS = 1000;
+
+    /**
+     * Rough cost of an operation, and of each node it holds.
+     */
+    private static final long OP_BYTES = 64;
+    private static final long NODE_BYTES = 160;
+    //CHECKSTYLE:ON
+
+    /**
+     * Most steps kept.
+     */
+    private final int maxSteps;
+
+    /**
+     * Most bytes held by steps.
+     */
+    private final long maxBytes;
+
+    /**
+     * Done steps, oldest first.
+     */
+    private final ArrayDeque<Step> undoSteps = new ArrayDeque<>();
+
+    /**
+     * Undone steps, most recently undone last.
+     */
+    private final ArrayDeque<Step> redoSteps = new ArrayDeque<>();
+
+    /**
+     * Step being recorded; null between steps.
+     */
+    private Step open = null;
+
+    /**
+     * Bytes held by all steps.
+     */
+    private long bytes = 0;
+
+    /**
+     * Steps holding nodes of each page. Pinned pages are kept parsed, so
+     * the nodes stay those in the doc.
+     */
+    private final Map<PageElement, Integer> pinned = new IdentityHashMap<>();
+
+    /**
+     * Recording is off while above zero.
+     */
+    private int paused = 0;
+
+    /**
+     * Open beginStep() calls.
+     */
+    private int grouped = 0;
+
+    /**
+     * Constructor, with limits from system properties.
+     */
+    public UndoJournal() {
+        this(Integer.getInteger("g3.undoSteps", DEFAULT_STEPS), Long.getLong("g3.undoBytes", DEFAULT_BYTES));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param steps Most steps kept.
+     * @param maxHeld Most bytes held by steps.
+     */
+    public UndoJournal(final int steps, final long maxHeld) {
+        maxSteps = Math.max(1, steps);
+        maxBytes = maxHeld;
+    }
+
+    /**
+     * A reversible change.
+     */
+    public interface Op {
+
+        /**
+         * Reverse the change.
+         */
+        void undo();
+
+        /**
+         * Make the change again.
+         */
+        void redo();
+
+        /**
+         * Get the node changed.
+         *
+         * @return Node, or null.
+         */
+        default Node getTarget() {
+            return null;
+        }
+
+        /**
+         * The change has left the journal and can't be undone or redone.
+         *
+         * @param done True if it was left made, false if left undone.
+         */
+        default void forget(final boolean done) {
+        }
+
+        /**
+         * Estimate the memory held.
+         *
+         * @return Bytes.
+         */
+        default long getBytes() {
+            return OP_BYTES;
+        }
+    }
+
+    /**
+     * Make an operation that does nothing until it leaves the journal, e.g.
+     * to free a resource once a delete can no longer be undone.
+     *
+     * @param ifDone Run the action if the step was left made, else if undone.
+     * @param action Action.
+     * @return Operation.
+     */
+    public static Op onForget(final boolean ifDone, final Runnable action) {
+        return new Op() {
+            @Override
+            public void undo() {
+            }
+
+            @Override
+            public void redo() {
+            }
+
+            @Override
+            public void forget(final boolean done) {
+                if (done == ifDone) {
+                    action.run();
+                }
+            }
+        };
+    }
+
+    /**
+     * Find the journal recording changes to a node, if any.
+     *
+     * @param node Node in a doc.
+     * @return Journal, or null if not recording.
+     */
+    static UndoJournal of(final Node node) {
+        Node n = node;
+        while (n != null && !(n instanceof DocElement)) {
+            var parent = n.getParent();
+            n = (parent instanceof Element) ? parent : null;
+        }
+        if (n == null) {
+            return null;
+        }
+        return ((DocElement) n).getJournal().filter(UndoJournal::isRecording).orElse(null);
+    }
+
+    /**
+     * Is the journal taking changes?
+     *
+     * @return True unless paused.
+     */
+    public boolean isRecording() {
+        return paused == 0;
+    }
+
+    /**
+     * Stop taking changes, e.g. while parsing a page. Calls nest.
+     */
+    void pause() {
+        paused++;
+    }
+
+    /**
+     * Undo a pause().
+     */
+    void resume() {
+        paused--;
+    }
+
+    /**
+     * Record an operation in the open step. Any undone steps are dropped.
+     *
+     * @param op Operation, already carried out.
+     */
+    public void record(final Op op) {
+        if (!isRecording()) {
+            return;
+        }
+        while (!redoSteps.isEmpty()) {
+            drop(redoSteps.pollLast(), false);
+        }
+        if (open == null) {
+            open = new Step();
+        }
+        open.add(op);
+        bytes += op.getBytes();
+        var page = pageOf(op instanceof ChildOp ? ((ChildOp) op).parent : op.getTarget());
+        if (page != null && open.pages.add(page)) {
+            pinned.merge(page, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Does the history hold nodes of a page?
+     *
+     * @param page Page.
+     * @return True if so; the page shouldn't be turned back into a stub.
+     */
+    public boolean isPinned(final PageElement page) {
+        return pinned.containsKey(page);
+    }
+
+    /**
+     * Release a step's hold on its pages.
+     *
+     * @param step Step.
+     */
+    private void unpin(final Step step) {
+        for (var page : step.pages) {
+            pinned.computeIfPresent(page, (p, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    /**
+     * Find the page a node is on.
+     *
+     * @param node Node.
+     * @return Page, or null if not on one.
+     */
+    private static PageElement pageOf(final Node node) {
+        Node n = node;
+        while (n != null && !(n instanceof PageElement)) {
+            n = n.getParent();
+        }
+        return (PageElement) n;
+    }
+
+    /**
+     * Record an attribute change.
+     *
+     * @param el Element.
+     * @param attribute Attribute set or removed.
+     * @param oldValue Value before, or null if there was none.
+     * @param newValue Value after, or null if removed.
+     */
+    void attributeChanged(final Element el, final Attribute attribute, final String oldValue, final String newValue) {
+        if (oldValue == null ? newValue == null : oldValue.equals(newValue)) {
+            return;
+        }
+        var name = attribute.getQualifiedName();
+        var uri = attribute.getNamespaceURI();
+        var known = (open == null || !redoSteps.isEmpty()) ? null : open.attrs.get(new AttrKey(el, name, uri));
+        if (known != null) { //Changed again in this step; keep the first old value.
+            known.newValue = newValue;
+            return;
+        }
+        record(new AttrOp(el, name, uri, oldValue, newValue));
+    }
+
+    /**
+     * Record a child being inserted.
+     *
+     * @param parent Parent.
+     * @param child Child.
+     * @param position Index it was inserted at.
+     */
+    void childInserted(final ParentNode parent, final Node child, final int position) {
+        record(new ChildOp(parent, child, position, true));
+    }
+
+    /**
+     * Record a child being removed.
+     *
+     * @param parent Parent.
+     * @param child Child.
+     * @param position Index it was removed from.
+     */
+    void childRemoved(final ParentNode parent, final Node child, final int position) {
+        record(new ChildOp(parent, child, position, false));
+    }
+
+    /**
+     * Group the changes until the matching endStep() into one step, however
+     * many times checkpoint() is called meanwhile. Calls nest.
+     */
+    public void beginStep() {
+        grouped++;
+    }
+
+    /**
+     * End a beginStep() group, closing the step.
+     */
+    public void endStep() {
+        grouped = Math.max(0, grouped - 1);
+        checkpoint();
+    }
+
+    /**
+     * Close the open step, merging it into the last one if it only set
+     * attributes the last one did, soon after.
+     */
+    public void checkpoint() {
+        if (grouped > 0 || open == null) {
+            return;
+        }
+        var step = open;
+        open = null;
+        var last = undoSteps.peekLast();
+        if (last != null && last.canAbsorb(step)) {
+            last.absorb(step);
+            bytes -= step.getBytes();
+            unpin(step);
+        } else {
+            undoSteps.addLast(step);
+        }
+        trim();
+    }
+
+    /**
+     * Undo the last step.
+     *
+     * @return Maybe step undone.
+     */
+    public Optional<Step> undo() {
+        checkpoint();
+        var step = undoSteps.pollLast();
+        if (step == null) {
+            return Optional.empty();
+        }
+        pause();
+        try {
+            for (int i = step.ops.size() - 1; i >= 0; i--) {
+                step.ops.get(i).undo();
+            }
+        } finally {
+            resume();
+        }
+        redoSteps.addLast(step);
+        return Optional.of(step);
+    }
+
+    /**
+     * Redo the last undone step.
+     *
+     * @return Maybe step redone.
+     */
+    public Optional<Step> redo() {
+        checkpoint();
+        var step = redoSteps.pollLast();
+        if (step == null) {
+            return Optional.empty();
+        }
+        pause();
+        try {
+            for (var op : step.ops) {
+                op.redo();
+            }
+        } finally {
+            resume();
+        }
+        undoSteps.addLast(step);
+        step.lastMillis = 0; //Don't merge later edits into a redone step.
+        return Optional.of(step);
+    }
+
+    /**
+     * Is there anything to undo?
+     *
+     * @return True if so.
+     */
+    public boolean canUndo() {
+        return !undoSteps.isEmpty() || (open != null && grouped == 0);
+    }
+
+    /**
+     * Is there anything to redo?
+     *
+     * @return True if so.
+     */
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * Get the number of steps that can be undone.
+     *
+     * @return Steps.
+     */
+    public int getUndoCount() {
+        return undoSteps.size();
+    }
+
+    /**
+     * Get the estimated memory held by the journal.
+     *
+     * @return Bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Drop everything.
+     */
+    public void clear() {
+        checkpoint();
+        while (!redoSteps.isEmpty()) {
+            drop(redoSteps.pollLast(), false);
+        }
+        while (!undoSteps.isEmpty()) {
+            drop(undoSteps.pollFirst(), true);
+        }
+    }
+
+    /**
+     * Drop the oldest steps until within the limits. The last step is kept.
+     */
+    private void trim() {
+        while (undoSteps.size() > 1 && (undoSteps.size() + redoSteps.size() > maxSteps || bytes > maxBytes)) {
+            drop(undoSteps.pollFirst(), true);
+        }
+    }
+
+    /**
+     * Forget a step.
+     *
+     * @param step Step.
+     * @param done Was it left made?
+     */
+    private void drop(final Step step, final boolean done) {
+        bytes -= step.getBytes();
+        unpin(step);
+        for (var op : step.ops) {
+            op.forget(done);
+        }
+    }
+
+    /**
+     * Estimate the memory held by a subtree.
+     *
+     * @param node Root.
+     * @return Bytes.
+     */
+    private static long subtreeBytes(final Node node) {
+        long total = NODE_BYTES;
+        if (node instanceof Element) {
+            var el = (Element) node;
+            total += el.getAttributeCount() * NODE_BYTES;
+            for (int i = 0; i < el.getChildCount(); i++) {
+                total += subtreeBytes(el.getChild(i));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * A group of changes undone and redone together.
+     */
+    public static final class Step {
+
+        /**
+         * Operations, in the order made.
+         */
+        private final List<Op> ops = new ArrayList<>();
+
+        /**
+         * Attribute operations, by element and attribute.
+         */
+        private final Map<AttrKey, AttrOp> attrs = new HashMap<>();
+
+        /**
+         * Pages with nodes held by the step.
+         */
+        private final Set<PageElement> pages = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /**
+         * Were all operations attribute changes?
+         */
+        private boolean attrsOnly = true;
+
+        /**
+         * Bytes held.
+         */
+        private long held = 0;
+
+        /**
+         * When last changed.
+         */
+        private long lastMillis = System.currentTimeMillis();
+
+        /**
+         * Add an operation.
+         *
+         * @param op Operation.
+         */
+        private void add(final Op op) {
+            ops.add(op);
+            held += op.getBytes();
+            lastMillis = System.currentTimeMillis();
+            if (op instanceof AttrOp) {
+                var a = (AttrOp) op;
+                attrs.put(new AttrKey(a.el, a.name, a.uri), a);
+            } else {
+                attrsOnly = false;
+            }
+        }
+
+        /**
+         * Can a following step merge into this one?
+         *
+         * @param next Following step.
+         * @return True if both only set attributes, the following step none
+         * this one didn't, and they came close together.
+         */
+        private boolean canAbsorb(final Step next) {
+            return attrsOnly && next.attrsOnly && next.lastMillis - lastMillis <= MERGE_MS
+                    && attrs.keySet().containsAll(next.attrs.keySet());
+        }
+
+        /**
+         * Merge a following step into this one.
+         *
+         * @param next Following step.
+         */
+        private void absorb(final Step next) {
+            next.attrs.forEach((k, op) -> attrs.get(k).newValue = op.newValue);
+            lastMillis = next.lastMillis;
+        }
+
+        /**
+         * Get the bytes held.
+         *
+         * @return Bytes.
+         */
+        private long getBytes() {
+            return held;
+        }
+
+        /**
+         * Get the nodes changed.
+         *
+         * @return Nodes.
+         */
+        public List<Node> getTouched() {
+            var touched = new ArrayList<Node>();
+            for (var op : ops) {
+                var target = op.getTarget();
+                if (target != null) {
+                    touched.add(target);
+                }
+            }
+            return Collections.unmodifiableList(touched);
+        }
+
+        /**
+         * Did the step add, remove or move nodes?
+         *
+         * @return True if so.
+         */
+        public boolean isStructural() {
+            for (var op : ops) {
+                if (op instanceof ChildOp) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Key of an attribute on a particular element.
+     */
+    private static final class AttrKey {
+
+        /**
+         * Element.
+         */
+        private final Element el;
+
+        /**
+         * Qualified name.
+         */
+        private final String name;
+
+        /**
+         * Namespace URI.
+         */
+        private final String uri;
+
+        /**
+         * Constructor.
+         *
+         * @param element Element.
+         * @param qName Qualified name.
+         * @param nsUri Namespace URI.
+         */
+        AttrKey(final Element element, final String qName, final String nsUri) {
+            el = element;
+            name = qName;
+            uri = nsUri;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof AttrKey)) {
+                return false;
+            }
+            var k = (AttrKey) o;
+            return el == k.el && name.equals(k.name) && uri.equals(k.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            //CHECKSTYLE:OFF
+            return System.identityHashCode(el) * 31 + name.hashCode();
+            //CHECKSTYLE:ON
+        }
+    }
+
+    /**
+     * An attribute set, changed or removed.
+     */
+    private static final class AttrOp implements Op {
+
+        /**
+         * Element.
+         */
+        private final Element el;
+
+        /**
+         * Qualified name.
+         */
+        private final String name;
+
+        /**
+         * Namespace URI.
+         */
+        private final String uri;
+
+        /**
+         * Value before, or null.
+         */
+        private final String oldValue;
+
+        /**
+         * Value after, or null.
+         */
+        private String newValue;
+
+        /**
+         * Constructor.
+         *
+         * @param element Element.
+         * @param qName Qualified name.
+         * @param nsUri Namespace URI.
+         * @param before Value before, or null.
+         * @param after Value after, or null.
+         */
+        AttrOp(final Element element, final String qName, final String nsUri, final String before, final String after) {
+            el = element;
+            name = qName;
+            uri = nsUri;
+            oldValue = before;
+            newValue = after;
+        }
+
+        /**
+         * Set the attribute to a value.
+         *
+         * @param value Value, or null to remove.
+         */
+        private void apply(final String value) {
+            if (value != null) {
+                el.addAttribute(new Attribute(name, uri, value));
+                return;
+            }
+            var colon = name.indexOf(':');
+            var attr = el.getAttribute(colon < 0 ? name : name.substring(colon + 1), uri);
+            if (attr != null) {
+                el.removeAttribute(attr);
+            }
+        }
+
+        @Override
+        public void undo() {
+            apply(oldValue);
+        }
+
+        @Override
+        public void redo() {
+            apply(newValue);
+        }
+
+        @Override
+        public Node getTarget() {
+            return el;
+        }
+    }
+
+    /**
+     * A child inserted or removed.
+     */
+    private static final class ChildOp implements Op {
+
+        /**
+         * Parent.
+         */
+        private final ParentNode parent;
+
+        /**
+         * Child.
+         */
+        private final Node child;
+
+        /**
+         * Index in the parent.
+         */
+        private final int position;
+
+        /**
+         * Inserted, or removed?
+         */
+        private final boolean inserted;
+
+        /**
+         * Bytes held.
+         */
+        private final long held;
+
+        /**
+         * Constructor.
+         *
+         * @param par Parent.
+         * @param ch Child.
+         * @param pos Index in the parent.
+         * @param insert Inserted, or removed?
+         */
+        ChildOp(final ParentNode par, final Node ch, final int pos, final boolean insert) {
+            parent = par;
+            child = ch;
+            position = pos;
+            inserted = insert;
+            held = OP_BYTES + subtreeBytes(ch);
+        }
+
+        /**
+         * Put the child in, or take it out.
+         *
+         * @param in Put in?
+         */
+        private void apply(final boolean in) {
+            if (in) {
+                child.detach();
+                parent.insertChild(child, Math.min(position, parent.getChildCount()));
+            } else if (child.getParent() == parent) {
+                parent.removeChild(child);
+            }
+        }
+
+        @Override
+        public void undo() {
+            apply(!inserted);
+        }
+
+        @Override
+        public void redo() {
+            apply(inserted);
+        }
+
+        @Override
+        public Node getTarget() {
+            return child;
+        }
+
+        @Override
+        public long getBytes() {
+            return held;
+        }
+    }
+}
@@ -37,13 +37,19 @@ import g3.project.graphics.VisualProps;
 import g3.project.xmlIO.DocIO;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.Set;
 import javafx.geometry.Point2D;
 import javafx.scene.paint.Color;
 import javax.script.Bindings;
 import nu.xom.Attribute;
+import nu.xom.Document;
 import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.Nodes;
+import nu.xom.ParentNode;
 
 /**
  *
@@ -60,6 +66,12 @@ public abstract class VisualElement extends Element implements Scriptable {
      */
     static final String EXT_URI = "http://PWS_Exts";
 
+    /**
+     * Attributes that change where an element is on its page.
+     */
+    private static final Set<String> GEOMETRY_ATTRS = Set.of(VisualProps.X_ORIG, VisualProps.Y_ORIG,
+            VisualProps.X_SIZE, VisualProps.Y_SIZE, VisualProps.ROT);
+
     /**
      * Script bindings for the element.
      */
@@ -70,6 +82,16 @@ public abstract class VisualElement extends Element implements Scriptable {
      */
     private Boolean evalRequired = true;
 
+    /**
+     * Parsed attribute values.
+     */
+    private ParsedAttributes parsedAttrs = null;
+
+    /**
+     * Changes made since the engine last took them.
+     */
+    private final EnumSet<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
+
     /**
      * Constructor.
      *
@@ -163,6 +185,19 @@ public abstract class VisualElement extends Element implements Scriptable {
      * @return Optional Location
      */
     public final Optional<LocObj> getOrigin() {
+        var cache = parsed();
+        if (cache.origin == null) {
+            cache.origin = parseOrigin();
+        }
+        return cache.origin;
+    }
+
+    /**
+     * Read the object's location from its attributes.
+     *
+     * @return Maybe location.
+     */
+    private Optional<LocObj> parseOrigin() {
         var x = Optional.ofNullable(this.getAttribute("x_orig"))
                 .map(f -> f.getValue())
                 .map(f -> Double.valueOf(f));
@@ -235,8 +270,12 @@ public abstract class VisualElement extends Element implements Scriptable {
      * @return Z-index
      */
     public final Double getZInd() {
-        var ind = this.getAttribute("z_ind");
-        return (ind != null) ? Double.valueOf(ind.getValue()) : 0;
+        var cache = parsed();
+        if (cache.zInd == null) {
+            var ind = this.getAttribute("z_ind");
+            cache.zInd = (ind != null) ? Double.valueOf(ind.getValue()) : 0;
+        }
+        return cache.zInd;
     }
 
     /**
@@ -257,6 +296,19 @@ public abstract class VisualElement extends Element implements Scriptable {
      * @return Optional size
      */
     public final Optional<SizeObj> getSize() {
+        var cache = parsed();
+        if (cache.size == null) {
+            cache.size = parseSize();
+        }
+        return cache.size;
+    }
+
+    /**
+     * Read the object's size from its attributes.
+     *
+     * @return Maybe size.
+     */
+    private Optional<SizeObj> parseSize() {
         var xOpt = Optional.ofNullable(this.getAttribute("x_size_px"))
                 .map(f -> f.getValue())
                 .map(f -> Double.valueOf(f));
@@ -342,12 +394,12 @@ public abstract class VisualElement extends Element implements Scriptable {
      * @return Delay in seconds.
      */
     public final Optional<Double> getDelaySecs() {
-        Attribute delAttr = this.getAttribute("show_after_s");
-        if (delAttr != null) {
-            var delStr = delAttr.getValue();
-            return Optional.ofNullable(Double.valueOf(delStr));
+        var cache = parsed();
+        if (cache.delay == null) {
+            Attribute delAttr = this.getAttribute("show_after_s");
+            cache.delay = (delAttr != null) ? Optional.ofNullable(Double.valueOf(delAttr.getValue())) : Optional.empty();
         }
-        return Optional.empty();
+        return cache.delay;
     }
 
     /**
@@ -356,12 +408,12 @@ public abstract class VisualElement extends Element implements Scriptable {
      * @return Duration in seconds.
      */
     public final Optional<Double> getDurationSecs() {
-        Attribute durAttr = this.getAttribute("disp_duration_s");
-        if (durAttr != null) {
-            var durStr = durAttr.getValue();
-            return Optional.ofNullable(Double.valueOf(durStr));
+        var cache = parsed();
+        if (cache.duration == null) {
+            Attribute durAttr = this.getAttribute("disp_duration_s");
+            cache.duration = (durAttr != null) ? Optional.ofNullable(Double.valueOf(durAttr.getValue())) : Optional.empty();
         }
-        return Optional.empty();
+        return cache.duration;
     }
 
     /**
@@ -380,6 +432,19 @@ public abstract class VisualElement extends Element implements Scriptable {
      * @return Optional colour.
      */
     public final Optional<Color> getFillColour() {
+        var cache = parsed();
+        if (cache.fill == null) {
+            cache.fill = parseFillColour();
+        }
+        return cache.fill;
+    }
+
+    /**
+     * Read the object's fill colour from its attributes.
+     *
+     * @return Maybe colour.
+     */
+    private Optional<Color> parseFillColour() {
         var colAttr = this.getAttribute("fill");
         var alAttr = this.getAttribute("alpha");
         // @todo: Find a nicer looking way of making this work Probably
@@ -477,6 +542,272 @@ public abstract class VisualElement extends Element implements Scriptable {
         return vis;
     }
 
+    @Override
+    public void insertChild(final Node child, final int position) {
+        super.insertChild(child, position);
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.childInserted(this, child, position);
+        }
+        childChanged(child);
+        pageChanged();
+        indexingDoc().ifPresent(d -> d.indexAdded(child));
+        indexingPage().ifPresent(p -> p.spatialAdded(child));
+    }
+
+    @Override
+    public Node removeChild(final int position) {
+        var removed = super.removeChild(position);
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.childRemoved(this, removed, position);
+        }
+        childChanged(removed);
+        pageChanged();
+        indexingDoc().ifPresent(d -> d.indexRemoved(removed));
+        indexingPage().ifPresent(p -> p.spatialRemoved(removed));
+        return removed;
+    }
+
+    @Override
+    public Nodes removeChildren() {
+        var removed = super.removeChildren();
+        var doc = indexingDoc();
+        var page = indexingPage();
+        var undo = UndoJournal.of(this);
+        for (int i = 0; i < removed.size(); i++) {
+            var node = removed.get(i);
+            if (undo != null) {
+                undo.childRemoved(this, node, 0);
+            }
+            childChanged(node);
+            doc.ifPresent(d -> d.indexRemoved(node));
+            page.ifPresent(p -> p.spatialRemoved(node));
+        }
+        page.ifPresent(p -> p.contentChanged());
+        return removed;
+    }
+
+    @Override
+    public void addAttribute(final Attribute attribute) {
+        var oldID = this.getAttributeValue("ID");
+        var oldValue = this.getAttributeValue(attribute.getLocalName(), attribute.getNamespaceURI());
+        super.addAttribute(attribute);
+        parsedAttrs = null;
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.attributeChanged(this, attribute, oldValue, attribute.getValue());
+        }
+        attributeChanged(attribute, oldID);
+    }
+
+    @Override
+    public Attribute removeAttribute(final Attribute attribute) {
+        var oldID = this.getAttributeValue("ID");
+        var removed = super.removeAttribute(attribute);
+        parsedAttrs = null;
+        var undo = UndoJournal.of(this);
+        if (undo != null) {
+            undo.attributeChanged(this, removed, removed.getValue(), null);
+        }
+        attributeChanged(attribute, oldID);
+        return removed;
+    }
+
+    /**
+     * Note an attribute change on a part of a visual element, such as its
+     * stroke or text, for undo and for the next hasUpdated().
+     *
+     * @param part Part changed.
+     * @param type Kind of change to the owning element.
+     * @param attribute Attribute set or removed.
+     * @param oldValue Value before, or null if there was none.
+     * @param newValue Value after, or null if removed.
+     */
+    static void partChanged(final Element part, final ChangeType type, final Attribute attribute,
+            final String oldValue, final String newValue) {
+        var undo = UndoJournal.of(part);
+        if (undo != null) {
+            undo.attributeChanged(part, attribute, oldValue, newValue);
+        }
+        ParentNode owner = part.getParent();
+        while (owner instanceof Element && !(owner instanceof VisualElement)) {
+            owner = owner.getParent();
+        }
+        if (owner instanceof VisualElement) {
+            ((VisualElement) owner).markChanged(type);
+        }
+    }
+
+    /**
+     * Get the cache of parsed attribute values.
+     *
+     * @return Cache.
+     */
+    private ParsedAttributes parsed() {
+        var cache = parsedAttrs;
+        if (cache == null) {
+            cache = new ParsedAttributes();
+            parsedAttrs = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Attribute values as parsed by the getters; null until first read.
+     * Everything is dropped whenever an attribute is added or removed, so
+     * attributes must not be changed through Attribute.setValue(). Fields are
+     * volatile as snapshot copies are read from several threads.
+     */
+    private static final class ParsedAttributes {
+
+        /**
+         * Origin.
+         */
+        private volatile Optional<LocObj> origin = null;
+        /**
+         * Size.
+         */
+        private volatile Optional<SizeObj> size = null;
+        /**
+         * Z index.
+         */
+        private volatile Double zInd = null;
+        /**
+         * Delay.
+         */
+        private volatile Optional<Double> delay = null;
+        /**
+         * Display duration.
+         */
+        private volatile Optional<Double> duration = null;
+        /**
+         * Fill colour.
+         */
+        private volatile Optional<Color> fill = null;
+        /**
+         * Visual properties.
+         */
+        private volatile VisualProps visual = null;
+    }
+
+    /**
+     * Keep the doc's ID index and the page's spatial index up to date.
+     *
+     * @param attribute Attribute added or removed.
+     * @param oldID ID before the change.
+     */
+    private void attributeChanged(final Attribute attribute, final String oldID) {
+        pageChanged();
+        var name = attribute.getQualifiedName();
+        if (GEOMETRY_ATTRS.contains(name) || VisualProps.Z_IND.equals(name)) {
+            markChanged(ChangeType.GEOMETRY);
+        } else if (VisualProps.isVisualProp(name)) {
+            if (!isIDAttribute(attribute)) {
+                markChanged(ChangeType.VISUAL);
+            }
+        } else {
+            markChanged(ChangeType.CONTENT);
+        }
+        if (!attribute.getNamespaceURI().isEmpty()) {
+            return;
+        } else if (isIDAttribute(attribute)) {
+            indexingDoc().ifPresent(d -> d.indexIDChanged(this, oldID));
+        } else if (GEOMETRY_ATTRS.contains(attribute.getLocalName()) && !(this instanceof PageElement)) {
+            indexingPage().ifPresent(p -> p.spatialMoved(this));
+        }
+    }
+
+    /**
+     * Record the change made by adding or removing a child node.
+     *
+     * @param child Child node.
+     */
+    private void childChanged(final Node child) {
+        if (child instanceof StrokeElement) {
+            markChanged(ChangeType.STROKE);
+        } else if (child instanceof TextElement) {
+            markChanged(ChangeType.TEXT);
+        } else if (child instanceof ScriptElement) {
+            markChanged(ChangeType.SCRIPT);
+        } else if (child instanceof Element && !(child instanceof VisualElement)) {
+            markChanged(ChangeType.CONTENT); //Child visual elements draw themselves.
+        }
+    }
+
+    /**
+     * Record a change, to be sent on the next hasUpdated().
+     *
+     * @param change Kind of change.
+     */
+    protected final void markChanged(final ChangeType change) {
+        synchronized (changes) {
+            changes.add(change);
+        }
+        pageChanged();
+    }
+
+    /**
+     * Note a change on the page this element is on, so the next snapshot
+     * copies it again.
+     */
+    private void pageChanged() {
+        indexingPage().ifPresent(p -> p.contentChanged());
+    }
+
+    /**
+     * Take the changes made since the last call, leaving none recorded.
+     *
+     * @return Changes. Empty if nothing has changed.
+     */
+    public final Set<ChangeType> takeChanges() {
+        synchronized (changes) {
+            var taken = EnumSet.copyOf(changes);
+            changes.clear();
+            return taken;
+        }
+    }
+
+    /**
+     * Is this the ID attribute?
+     *
+     * @param attribute Attribute.
+     * @return True if it is.
+     */
+    private static boolean isIDAttribute(final Attribute attribute) {
+        return "ID".equals(attribute.getLocalName()) && attribute.getNamespaceURI().isEmpty();
+    }
+
+    /**
+     * Get the page this element is on, or is.
+     *
+     * @return Maybe page.
+     */
+    private Optional<PageElement> indexingPage() {
+        Node node = this;
+        while (node != null && !(node instanceof PageElement)) {
+            node = node.getParent();
+        }
+        return Optional.ofNullable((PageElement) node);
+    }
+
+    /**
+     * Get the doc this element is in, found by walking up (not through
+     * getDocument(), as the doc root need not be in a Document).
+     *
+     * @return Maybe doc.
+     */
+    private Optional<DocElement> indexingDoc() {
+        Node node = this;
+        while (node.getParent() != null) {
+            node = node.getParent();
+        }
+        if (node instanceof Document) {
+            node = ((Document) node).getRootElement();
+        }
+        return node instanceof DocElement ? Optional.of((DocElement) node) : Optional.empty();
+    }
+
     /**
      * Returns the referred element, if this is it or it is a child of this.
      *
@@ -519,6 +850,19 @@ public abstract class VisualElement extends Element implements Scriptable {
      * @return visual props. map.
      */
     public final VisualProps getVisualProps() {
+        var cache = parsed();
+        if (cache.visual == null) {
+            cache.visual = parseVisualProps();
+        }
+        return new VisualProps(cache.visual); //Callers may change their copy.
+    }
+
+    /**
+     * Read the visual properties from the attributes.
+     *
+     * @return Properties.
+     */
+    private VisualProps parseVisualProps() {
         var propsMap = new VisualProps();
         for (String prop : propsMap.getPropsTypes().keySet()) {
             switch (prop) {
@@ -581,9 +925,11 @@ public abstract class VisualElement extends Element implements Scriptable {
     }
 
     /**
-     * Element has changed/updated. Notify the engine.
+     * Element has changed/updated. Notify the engine, which sends the
+     * changes recorded since it last called takeChanges().
      */
     public final void hasUpdated() {
+        pageChanged(); //In case something below me was changed directly.
         var root = this.getDocument().getRootElement();
         if (root instanceof DocElement) {
             ((DocElement) root).getChangeCallback().accept(this);
@@ -128,6 +128,16 @@ public class VisualProps extends HashMap<String, Object> implements Props {
         super();
     }
 
+    /**
+     * Is this the name of a known visual property?
+     *
+     * @param prop Property (qualified attribute) name.
+     * @return True if known.
+     */
+    public static boolean isVisualProp(final String prop) {
+        return PROPS_MAP.containsKey(prop);
+    }
+
     /**
      * Return value of specified property.
      *
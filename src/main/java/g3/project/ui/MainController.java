@@ -50,11 +50,14 @@ import g3.project.playable.PlayerFactory;
 import g3.project.xmlIO.DocIO;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -116,10 +119,21 @@ public final class MainController {
     private ConcurrentHashMap<String, javafx.scene.Node> drawnElements = new ConcurrentHashMap<>();
 
     /**
-     * Cache image bytes by location.
+     * Cache images by resolved location.
      */
     private ConcurrentHashMap<String, Image> loadedImages = new ConcurrentHashMap<>();
 
+    /**
+     * Tag for resource fetches made for the card on screen. Changed whenever
+     * the card is cleared, so stale fetches can be dropped.
+     */
+    private volatile String cardTag = "card-0";
+
+    /**
+     * Number of cards shown.
+     */
+    private int cardCount = 0;
+
     /**
      * Loading image.
      */
@@ -207,6 +221,10 @@ public final class MainController {
      * Duration message fade.
      */
     private static final Double NBMESSAGE_FADE_MS = 500d;
+    /**
+     * Wait before trying an image load again, when the I/O pool is full.
+     */
+    private static final Long IMAGE_RETRY_MS = 100L;
 
     /**
      * Handle action related to "About" menu item.
@@ -279,6 +297,26 @@ public final class MainController {
         engine.saveCurrentDoc();
     }
 
+    /**
+     * Handle click on undo menu item.
+     *
+     * @param event undo-click event.
+     */
+    @FXML
+    private void handleUndoAction(final ActionEvent event) {
+        engine.undo();
+    }
+
+    /**
+     * Handle click on redo menu item.
+     *
+     * @param event redo-click event.
+     */
+    @FXML
+    private void handleRedoAction(final ActionEvent event) {
+        engine.redo();
+    }
+
     /**
      * Handle click on save as menu item.
      *
@@ -579,6 +617,13 @@ public final class MainController {
      * @param id page to clear
      */
     public void clearCard(final String id) {
+        //Drop resource loads for the old card.
+        var docIO = engine.getDocIO();
+        if (docIO != null) {
+            docIO.cancelFetches(cardTag);
+        }
+        cardCount++;
+        cardTag = "card-" + cardCount;
         pagePane.getChildren().clear();
         pagePane.setStyle("-fx-background-color: #FFFFFF");
         //Some elements require cleanup - ffs.
@@ -746,15 +791,17 @@ public final class MainController {
 
         Button editScrButton = new Button("Edit Script");
         editScrButton.setOnMouseClicked(e -> {
-            //Launch a new editor for the element.
-            var ed = new Editor((Stage) pagePane.getScene().getWindow(),
-                    engine.getElScript(nodeID),
-                    engine.getElScriptLang(nodeID),
-                    nodeID,
-                    (String lang, String text) -> {
-                        engine.setElScript(nodeID, lang, text);
-                    });
-
+            //Launch a new editor for the element, once its script is loaded.
+            var lang = engine.getElScriptLang(nodeID);
+            engine.fetchElScript(nodeID).thenAccept(script -> Platform.runLater(() -> {
+                var ed = new Editor((Stage) pagePane.getScene().getWindow(),
+                        script,
+                        lang,
+                        nodeID,
+                        (String newLang, String text) -> {
+                            engine.setElScript(nodeID, newLang, text);
+                        });
+            }));
         });
 
         Button deleteButton = new Button("Delete");
@@ -782,25 +829,22 @@ public final class MainController {
         if (player == null) {
             final var newplayer = playerFact.newPlayer();
             drawnElements.put(id, newplayer);
-            String loadPath = path;
+            newplayer.setId(id);
+            pagePane.getChildren().add(newplayer);
+            playerSetControls(id, showPlayer);
             //Get a resource from the archive. This is typically slower, as the resource system will copy the resource out.
             if (DocIO.isUriInternal(path)) {
-                var resMaybe = engine.getDocIO().getResourceTempPath(path);
-                if (resMaybe.isPresent()) {
-                    loadPath = resMaybe.get();
-                } else {
-                    return;
-                }
-            }
-            if (loadPath.startsWith("file:")) {
-                loadPath = loadPath.replace("file:", "");
-                //Not quite correct resolution of '~' - most shells only accept it at the very start.
-                loadPath = loadPath.replaceFirst("~", System.getProperty("user.home"));
+                engine.getDocIO().fetchResourceTempPath(path, cardTag)
+                        .thenAccept(res -> Platform.runLater(() -> {
+                    /* Check the player is still on screen */
+                    if (res.isPresent() && drawnElements.get(id) == newplayer) {
+                        loadPlayer(newplayer, res.get(), seekOffset, loopPlay, autoPlay);
+                    }
+                }));
+            } else {
+                loadPlayer(newplayer, path, seekOffset, loopPlay, autoPlay);
             }
-            newplayer.load(loadPath, seekOffset);
-
-            pagePane.getChildren().add(newplayer);
-            player = newplayer;
+            return;
         }
         playerSetControls(id, showPlayer);
         player.setLoop(loopPlay);
@@ -808,6 +852,31 @@ public final class MainController {
         player.setId(id);
     }
 
+    /**
+     * Load media into a player, then start it if required.
+     *
+     * @param player Player.
+     * @param path Path to media.
+     * @param seekOffset Start seek offset.
+     * @param loopPlay Loop the media.
+     * @param autoPlay Auto-play the media.
+     */
+    private void loadPlayer(final Player player, final String path, final Double seekOffset, final Boolean loopPlay, final Boolean autoPlay) {
+        String loadPath = path;
+        if (loadPath.startsWith("file:")) {
+            loadPath = loadPath.replace("file:", "");
+            //Not quite correct resolution of '~' - most shells only accept it at the very start.
+            loadPath = loadPath.replaceFirst("~", System.getProperty("user.home"));
+        }
+        player.load(loadPath, seekOffset);
+        player.setLoop(loopPlay);
+        if (autoPlay) {
+            player.play();
+        } else {
+            player.pause();
+        }
+    }
+
     /**
      * Set play/pause on player.
      *
@@ -882,37 +951,78 @@ public final class MainController {
      * @param refreshCache Should I refresh the cache?
      */
     public void drawImage(final String id, final String path, final Boolean refreshCache) {
+        /* Paths sharing content share one cached image */
+        var key = engine.getDocIO().resolveResource(path);
         /* Check if image is cached already. */
-        if (loadedImages.containsKey(path) && !refreshCache) {
+        if (loadedImages.containsKey(key) && !refreshCache) {
             /* In Cache */
-            var im = loadedImages.get(path);
+            var im = loadedImages.get(key);
             drawImage(id, im);
 
         } else {
             /* Not cached */
             drawImage(id, loadingGif); //Show loading GIF
-            //Runnable to background-load then show image
-            Runnable imageLoaderRunnable = () -> {
-                Image im;
-                var resOpt = engine.getDocIO().getResource(path);
-                if (resOpt.isPresent()) {
-                    im = new Image(new ByteArrayInputStream(resOpt.get()));
-                } else {
-                    //Image was not found
-                    im = notFoundIm;
+            var docIO = engine.getDocIO();
+            var tag = cardTag;
+            //Background-load on the I/O pool, then show image. Dropped if the card changes first.
+            docIO.submit(tag, () -> loadImage(docIO, path)).whenComplete((im, ex) -> {
+                if (ex instanceof CancellationException) {
+                    return; //Card changed; nothing to show.
+                } else if (ex instanceof RejectedExecutionException) { //Pool full: keep the GIF, try again.
+                    executorSvc.schedule(() -> Platform.runLater(() -> {
+                        if (tag.equals(cardTag) && drawnElements.containsKey(id)) {
+                            drawImage(id, path, refreshCache);
+                        }
+                    }), IMAGE_RETRY_MS, TimeUnit.MILLISECONDS);
+                    return;
+                } else if (im != null) {
+                    loadedImages.put(key, im);
                 }
-                loadedImages.put(path, im);
+                final var shown = im != null ? im : notFoundIm; //Failed: don't cache.
                 Platform.runLater(() -> {
                     /* Check if image should stll be visible */
                     if (drawnElements.containsKey(id)) {
-                        drawImage(id, path, false);
+                        drawImage(id, shown);
                     }
                 });
-            };
-            //Create and start thread for download
-            Thread imLoadThread = new Thread(imageLoaderRunnable);
-            imLoadThread.start();
+            });
+        }
+    }
+
+    /**
+     * Decode an image in the background and cache it, ready for when it is
+     * drawn. Does nothing if it is already cached.
+     *
+     * @param path Image Path/URL/URI.
+     * @param tag Fetch tag, for cancellation.
+     */
+    public void prefetchImage(final String path, final String tag) {
+        var docIO = engine.getDocIO();
+        var key = docIO.resolveResource(path);
+        if (loadedImages.containsKey(key)) {
+            return;
+        }
+        docIO.submit(tag, () -> loadImage(docIO, path)).thenAccept(im -> loadedImages.putIfAbsent(key, im));
+    }
+
+    /**
+     * Decode an image.
+     *
+     * @param docIO IO to read it from.
+     * @param path Image Path/URL/URI.
+     * @return Image, or the not-found image.
+     */
+    private Image loadImage(final DocIO docIO, final String path) {
+        Image im = notFoundIm; //Unless found
+        var resOpt = docIO.getResourceStream(path);
+        if (resOpt.isPresent()) {
+            try (var is = resOpt.get()) {
+                im = new Image(is);
+            } catch (IOException ex) {
+                Logger.getLogger(MainController.class.getName()).log(Level.WARNING, null, ex);
+            }
         }
+        return im;
     }
 
     /**
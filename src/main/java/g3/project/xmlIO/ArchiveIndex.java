@@ -0,0 +1,810 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only index of a Zip archive's central directory. Built once when the
+ * archive is opened, it serves stored entries as slices of a memory-mapped
+ * file, and deflated entries as streams that inflate straight from the mapped
+ * bytes. Small archives can instead be indexed straight from memory, without
+ * touching the filesystem.
+ *
+ * @author Group 3
+ */
+public final class ArchiveIndex implements Closeable {
+
+    /**
+     * Stored (uncompressed) method.
+     */
+    public static final int STORED = 0;
+
+    /**
+     * Deflated method.
+     */
+    public static final int DEFLATED = 8;
+
+    //CHECKSTYLE:OFF
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_LEN = 22;
+    private static final int ZIP64_LOC_SIG = 0x07064b50;
+    private static final int ZIP64_LOC_LEN = 20;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_LEN = 46;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_LEN = 30;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_EXTRA = 0x0001;
+    //CHECKSTYLE:ON
+
+    /**
+     * Channel to the archive. Null if held in memory.
+     */
+    private final FileChannel channel;
+
+    /**
+     * In-memory archive. Null if read from a file.
+     */
+    private final ByteBuffer memory;
+
+    /**
+     * Entries by normalised name, in central directory order.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * A single entry in the archive.
+     */
+    public static final class Entry {
+
+        /**
+         * Entry name.
+         */
+        private final String name;
+        /**
+         * Compression method.
+         */
+        private final int method;
+        /**
+         * CRC-32 of the uncompressed data.
+         */
+        private final long crc;
+        /**
+         * Compressed size.
+         */
+        private final long compressedSize;
+        /**
+         * Uncompressed size.
+         */
+        private final long size;
+        /**
+         * Offset of the local header.
+         */
+        private final long localOffset;
+        /**
+         * Modification time and date, in MS-DOS format.
+         */
+        private final int dosTime;
+        /**
+         * Offset of the entry data, resolved on first use.
+         */
+        private volatile long dataOffset = -1;
+        /**
+         * Mapped compressed data, resolved on first use.
+         */
+        private volatile ByteBuffer mapped = null;
+
+        /**
+         * Constructor.
+         *
+         * @param entryName Name.
+         * @param entryMethod Method.
+         * @param entryCrc CRC.
+         * @param cSize Compressed size.
+         * @param uSize Uncompressed size.
+         * @param locOffset Local header offset.
+         * @param time DOS time and date.
+         */
+        //CHECKSTYLE:OFF
+        private Entry(final String entryName, final int entryMethod, final long entryCrc,
+                final long cSize, final long uSize, final long locOffset, final int time) {
+            //CHECKSTYLE:ON
+            name = entryName;
+            method = entryMethod;
+            crc = entryCrc;
+            compressedSize = cSize;
+            size = uSize;
+            localOffset = locOffset;
+            dosTime = time;
+        }
+
+        /**
+         * @return Entry name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Compression method.
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * @return CRC-32.
+         */
+        public long getCrc() {
+            return crc;
+        }
+
+        /**
+         * @return Compressed size.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return Uncompressed size.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return Modification time and date, in MS-DOS format.
+         */
+        public int getDosTime() {
+            return dosTime;
+        }
+
+        /**
+         * @return Is this a directory entry?
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    /**
+     * Constructor. Use open().
+     *
+     * @param ch Archive channel, or null.
+     * @param mem In-memory archive, or null.
+     */
+    private ArchiveIndex(final FileChannel ch, final ByteBuffer mem) {
+        channel = ch;
+        memory = mem;
+    }
+
+    /**
+     * Open and index an archive.
+     *
+     * @param archive Path to archive.
+     * @return New index.
+     * @throws IOException Couldn't read archive, or it's not a Zip.
+     */
+    public static ArchiveIndex open(final Path archive) throws IOException {
+        var ch = FileChannel.open(archive, StandardOpenOption.READ);
+        var index = new ArchiveIndex(ch, null);
+        try {
+            index.readCentralDirectory();
+        } catch (IOException | RuntimeException ex) {
+            ch.close();
+            throw ex;
+        }
+        return index;
+    }
+
+    /**
+     * Index an archive held in memory.
+     *
+     * @param archive Archive bytes.
+     * @return New index.
+     * @throws IOException Not a Zip.
+     */
+    public static ArchiveIndex open(final ByteBuffer archive) throws IOException {
+        var index = new ArchiveIndex(null, archive.slice().asReadOnlyBuffer());
+        try {
+            index.readCentralDirectory();
+        } catch (RuntimeException ex) {
+            throw new ZipException("Bad archive: " + ex);
+        }
+        return index;
+    }
+
+    /**
+     * Is the archive held in memory?
+     *
+     * @return True if in memory.
+     */
+    public boolean isInMemory() {
+        return memory != null;
+    }
+
+    /**
+     * Turn a resource path into an entry name.
+     *
+     * @param path Resource path.
+     * @return Entry name.
+     */
+    public static String normalise(final String path) {
+        var name = path.replace('\\', '/');
+        while (name.startsWith("/") || name.startsWith("./")) {
+            name = name.startsWith("/") ? name.substring(1) : name.substring(2);
+        }
+        return name.replaceAll("/+", "/");
+    }
+
+    /**
+     * Look up an entry.
+     *
+     * @param path Resource path.
+     * @return Maybe entry.
+     */
+    public Optional<Entry> getEntry(final String path) {
+        return Optional.ofNullable(entries.get(normalise(path)));
+    }
+
+    /**
+     * Get all entries, in archive order.
+     *
+     * @return Entries.
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Get an entry's bytes. Stored entries are returned as a read-only slice
+     * of the mapped archive; deflated entries are inflated onto the heap.
+     *
+     * @param entry Entry.
+     * @return Entry contents.
+     * @throws IOException Couldn't read entry.
+     */
+    public ByteBuffer getBuffer(final Entry entry) throws IOException {
+        var raw = getRawData(entry);
+        if (entry.method == STORED) {
+            return raw;
+        } else if (entry.method != DEFLATED) {
+            throw new ZipException("Unsupported method " + entry.method + " for " + entry.name);
+        }
+        var out = ByteBuffer.allocate(toIntSize(entry.size));
+        var inflater = new Inflater(true);
+        var padded = false;
+        try {
+            inflater.setInput(raw);
+            while (out.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    if (padded || inflater.needsDictionary()) {
+                        throw new ZipException("Truncated entry " + entry.name);
+                    }
+                    inflater.setInput(new byte[1]); //"nowrap" may want a dummy byte.
+                    padded = true;
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException("Bad entry " + entry.name + ": " + ex.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return out.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Open a stream over an entry. Deflated entries are inflated as they are
+     * read, so the whole entry is never held on the heap. Entries too large
+     * to map in one go are read from the file as they are streamed.
+     *
+     * @param entry Entry.
+     * @return Stream of entry contents.
+     * @throws IOException Couldn't read entry.
+     */
+    public InputStream getStream(final Entry entry) throws IOException {
+        if (entry.method != STORED && entry.method != DEFLATED) {
+            throw new ZipException("Unsupported method " + entry.method + " for " + entry.name);
+        }
+        if (memory == null && entry.compressedSize > Integer.MAX_VALUE) {
+            var raw = new ChannelStream(channel, getDataOffset(entry), entry.compressedSize);
+            return entry.method == STORED ? raw : new InflatingStream(raw, entry.name);
+        }
+        var raw = getRawData(entry);
+        return entry.method == STORED ? new BufferStream(raw) : new InflatingStream(raw, entry.name);
+    }
+
+    /**
+     * Get the (possibly compressed) data of an entry, as stored in the
+     * archive.
+     *
+     * @param entry Entry.
+     * @return Read-only mapped data.
+     * @throws IOException Couldn't map entry, or it's 2 GiB or more.
+     */
+    public ByteBuffer getRawData(final Entry entry) throws IOException {
+        var buf = entry.mapped;
+        if (buf == null) {
+            var size = toIntSize(entry.compressedSize); //A buffer can't hold more.
+            if (memory != null) {
+                buf = slice(getDataOffset(entry), size);
+            } else {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, getDataOffset(entry), size);
+            }
+            entry.mapped = buf;
+        }
+        return buf.duplicate();
+    }
+
+    /**
+     * Copy an entry's (possibly compressed) data to a channel, without
+     * passing it through the heap.
+     *
+     * @param entry Entry.
+     * @param target Destination.
+     * @throws IOException Couldn't copy.
+     */
+    public void transferRaw(final Entry entry, final WritableByteChannel target) throws IOException {
+        var start = getDataOffset(entry);
+        if (memory != null) {
+            var buf = getRawData(entry);
+            while (buf.hasRemaining()) {
+                target.write(buf);
+            }
+            return;
+        }
+        var done = 0L;
+        while (done < entry.compressedSize) {
+            var n = channel.transferTo(start + done, entry.compressedSize - done, target);
+            if (n <= 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+            done += n;
+        }
+    }
+
+    /**
+     * Get the offset of an entry's data, by reading its local header.
+     *
+     * @param entry Entry.
+     * @return Data offset.
+     * @throws IOException Bad header.
+     */
+    long getDataOffset(final Entry entry) throws IOException {
+        if (entry.dataOffset < 0) {
+            var loc = readAt(entry.localOffset, LOC_LEN);
+            if (loc.getInt(0) != LOC_SIG) {
+                throw new ZipException("Bad local header for " + entry.name);
+            }
+            //CHECKSTYLE:OFF
+            int nameLen = Short.toUnsignedInt(loc.getShort(26));
+            int extraLen = Short.toUnsignedInt(loc.getShort(28));
+            //CHECKSTYLE:ON
+            entry.dataOffset = entry.localOffset + LOC_LEN + nameLen + extraLen;
+        }
+        return entry.dataOffset;
+    }
+
+    /**
+     * Read the central directory into the entry map.
+     *
+     * @throws IOException Bad archive.
+     */
+    //CHECKSTYLE:OFF
+    private void readCentralDirectory() throws IOException {
+        long fileSize = memory != null ? memory.limit() : channel.size();
+        int tailLen = (int) Math.min(fileSize, EOCD_LEN + MAX_COMMENT);
+        var tail = readAt(fileSize - tailLen, tailLen);
+        int eocd = -1;
+        for (int i = tailLen - EOCD_LEN; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIG) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("Not a Zip archive");
+        }
+        long count = Short.toUnsignedInt(tail.getShort(eocd + 10));
+        long cenSize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        long cenOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+        if (count == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) {
+            long eocdPos = fileSize - tailLen + eocd;
+            var locator = readAt(eocdPos - ZIP64_LOC_LEN, ZIP64_LOC_LEN);
+            if (locator.getInt(0) != ZIP64_LOC_SIG) {
+                throw new ZipException("Bad Zip64 locator");
+            }
+            var z64 = readAt(locator.getLong(8), 56);
+            if (z64.getInt(0) != ZIP64_EOCD_SIG) {
+                throw new ZipException("Bad Zip64 end record");
+            }
+            count = z64.getLong(32);
+            cenSize = z64.getLong(40);
+            cenOffset = z64.getLong(48);
+        }
+        var cen = readAt(cenOffset, toIntSize(cenSize));
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (cen.getInt(pos) != CEN_SIG) {
+                throw new ZipException("Bad central directory");
+            }
+            int method = Short.toUnsignedInt(cen.getShort(pos + 10));
+            int time = cen.getInt(pos + 12);
+            long crc = Integer.toUnsignedLong(cen.getInt(pos + 16));
+            long cSize = Integer.toUnsignedLong(cen.getInt(pos + 20));
+            long uSize = Integer.toUnsignedLong(cen.getInt(pos + 24));
+            int nameLen = Short.toUnsignedInt(cen.getShort(pos + 28));
+            int extraLen = Short.toUnsignedInt(cen.getShort(pos + 30));
+            int commentLen = Short.toUnsignedInt(cen.getShort(pos + 32));
+            long locOffset = Integer.toUnsignedLong(cen.getInt(pos + 42));
+            var nameBytes = new byte[nameLen];
+            cen.position(pos + CEN_LEN);
+            cen.get(nameBytes);
+            var name = new String(nameBytes, StandardCharsets.UTF_8);
+            //Zip64 extra holds the real values of any field set to the magic.
+            int extra = pos + CEN_LEN + nameLen;
+            int extraEnd = extra + extraLen;
+            while (extra + 4 <= extraEnd) {
+                int tag = Short.toUnsignedInt(cen.getShort(extra));
+                int len = Short.toUnsignedInt(cen.getShort(extra + 2));
+                if (tag == ZIP64_EXTRA) {
+                    int f = extra + 4;
+                    if (uSize == ZIP64_MAGIC) {
+                        uSize = cen.getLong(f);
+                        f += 8;
+                    }
+                    if (cSize == ZIP64_MAGIC) {
+                        cSize = cen.getLong(f);
+                        f += 8;
+                    }
+                    if (locOffset == ZIP64_MAGIC) {
+                        locOffset = cen.getLong(f);
+                    }
+                }
+                extra += 4 + len;
+            }
+            entries.put(name, new Entry(name, method, crc, cSize, uSize, locOffset, time));
+            pos += CEN_LEN + nameLen + extraLen + commentLen;
+        }
+    }
+    //CHECKSTYLE:ON
+
+    /**
+     * Read a region of the archive onto the heap.
+     *
+     * @param offset Start.
+     * @param len Length.
+     * @return Little-endian buffer.
+     * @throws IOException Couldn't read.
+     */
+    private ByteBuffer readAt(final long offset, final int len) throws IOException {
+        if (memory != null) {
+            return slice(offset, len).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        var buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+        }
+        return buf.flip();
+    }
+
+    /**
+     * Get a region of the in-memory archive.
+     *
+     * @param offset Start.
+     * @param len Length.
+     * @return Read-only slice.
+     * @throws IOException Region outside the archive.
+     */
+    private ByteBuffer slice(final long offset, final int len) throws IOException {
+        if (offset < 0 || offset + len > memory.limit()) {
+            throw new ZipException("Unexpected end of archive");
+        }
+        var buf = memory.duplicate();
+        buf.position((int) offset);
+        buf.limit((int) offset + len);
+        return buf.slice();
+    }
+
+    /**
+     * Check a size fits in a single buffer.
+     *
+     * @param size Size.
+     * @return Size as int.
+     * @throws IOException Too big.
+     */
+    private static int toIntSize(final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Entry too large to buffer: " + size);
+        }
+        return (int) size;
+    }
+
+    /**
+     * Close the archive and drop the index's mappings of it, so it can be
+     * replaced once buffers already handed out are gone.
+     *
+     * @throws IOException Couldn't close.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            for (var entry : entries.values()) {
+                entry.mapped = null;
+            }
+        }
+    }
+
+    /**
+     * Stream over a byte buffer.
+     */
+    static final class BufferStream extends InputStream {
+
+        /**
+         * Source.
+         */
+        private final ByteBuffer buf;
+
+        /**
+         * Constructor.
+         *
+         * @param src Source buffer.
+         */
+        BufferStream(final ByteBuffer src) {
+            buf = src;
+        }
+
+        @Override
+        public int read() {
+            //CHECKSTYLE:OFF
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+            //CHECKSTYLE:ON
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+
+        @Override
+        public long skip(final long n) {
+            int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+            buf.position(buf.position() + k);
+            return k;
+        }
+    }
+
+    /**
+     * Stream over part of a file, read as it is consumed rather than mapped.
+     */
+    private static final class ChannelStream extends InputStream {
+
+        /**
+         * File.
+         */
+        private final FileChannel channel;
+        /**
+         * Position of the next byte.
+         */
+        private long pos;
+        /**
+         * Position after the last byte.
+         */
+        private final long end;
+        /**
+         * Single byte buffer.
+         */
+        private final byte[] single = new byte[1];
+
+        /**
+         * Constructor.
+         *
+         * @param file File.
+         * @param start Position of the first byte.
+         * @param length Number of bytes.
+         */
+        ChannelStream(final FileChannel file, final long start, final long length) {
+            channel = file;
+            pos = start;
+            end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            //CHECKSTYLE:OFF
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            //CHECKSTYLE:ON
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (pos >= end) {
+                return -1;
+            }
+            var n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+            if (n < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+            pos += n;
+            return n;
+        }
+    }
+
+    /**
+     * Stream that inflates from a mapped buffer, or from a stream.
+     */
+    private static final class InflatingStream extends InputStream {
+
+        //CHECKSTYLE:OFF
+        /**
+         * Compressed bytes read from a stream at a time.
+         */
+        private static final int CHUNK = 64 * 1024;
+        //CHECKSTYLE:ON
+
+        /**
+         * Inflater.
+         */
+        private final Inflater inflater = new Inflater(true);
+        /**
+         * Compressed data still to be read, or null if all given at once.
+         */
+        private final InputStream source;
+        /**
+         * Buffer for compressed data read from the source.
+         */
+        private final byte[] chunk;
+        /**
+         * Entry name, for errors.
+         */
+        private final String name;
+        /**
+         * Single byte buffer.
+         */
+        private final byte[] single = new byte[1];
+        /**
+         * Has the trailing dummy byte been given?
+         */
+        private boolean padded = false;
+
+        /**
+         * Constructor.
+         *
+         * @param src Compressed data.
+         * @param entryName Entry name.
+         */
+        InflatingStream(final ByteBuffer src, final String entryName) {
+            inflater.setInput(src);
+            name = entryName;
+            source = null;
+            chunk = null;
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param src Compressed data.
+         * @param entryName Entry name.
+         */
+        InflatingStream(final InputStream src, final String entryName) {
+            name = entryName;
+            source = src;
+            chunk = new byte[CHUNK];
+        }
+
+        @Override
+        public int read() throws IOException {
+            //CHECKSTYLE:OFF
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            //CHECKSTYLE:ON
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                int n = 0;
+                while (n == 0) {
+                    if (inflater.finished()) {
+                        return -1;
+                    } else if (inflater.needsInput() && source != null && fill()) {
+                        continue;
+                    } else if (inflater.needsInput() && !padded) {
+                        inflater.setInput(new byte[1]); //"nowrap" may want a dummy byte.
+                        padded = true;
+                    } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new ZipException("Truncated entry " + name);
+                    }
+                    n = inflater.inflate(b, off, len);
+                }
+                return n;
+            } catch (DataFormatException ex) {
+                throw new ZipException("Bad entry " + name + ": " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Give the inflater the next chunk from the source.
+         *
+         * @return False at the end of the source.
+         * @throws IOException Couldn't read.
+         */
+        private boolean fill() throws IOException {
+            var n = source.read(chunk);
+            if (n < 0) {
+                return false;
+            }
+            inflater.setInput(chunk, 0, n);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,630 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a new Zip archive next to its destination, then moves it into place
+ * atomically on commit. Unchanged entries are copied from an existing archive
+ * as raw compressed bytes, so only new or changed entries are compressed.
+ *
+ * @author Group 3
+ */
+public final class ArchiveWriter implements Closeable {
+
+    //CHECKSTYLE:OFF
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_LEN = 30;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_LEN = 46;
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_LEN = 22;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_EOCD_LEN = 56;
+    private static final int ZIP64_LOC_SIG = 0x07064b50;
+    private static final int ZIP64_LOC_LEN = 20;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int BUF_SIZE = 8192;
+    //CHECKSTYLE:ON
+
+    /**
+     * Final destination.
+     */
+    private final Path target;
+
+    /**
+     * Archive being written.
+     */
+    private final Path temp;
+
+    /**
+     * Channel to the temp archive.
+     */
+    private final FileChannel out;
+
+    /**
+     * Entries written so far, in order.
+     */
+    private final ArrayList<Written> written = new ArrayList<>();
+
+    /**
+     * Names written so far.
+     */
+    private final HashSet<String> names = new HashSet<>();
+
+    /**
+     * Entry currently open for writing, if any.
+     */
+    private EntryStream current = null;
+
+    /**
+     * Has the archive been completed?
+     */
+    private boolean finished = false;
+
+    /**
+     * Has the archive been moved into place?
+     */
+    private boolean committed = false;
+
+    /**
+     * Record of an entry written to the archive.
+     */
+    private static final class Written {
+
+        /**
+         * Encoded name.
+         */
+        private final byte[] name;
+        /**
+         * Compression method.
+         */
+        private final int method;
+        /**
+         * DOS time and date.
+         */
+        private final int dosTime;
+        /**
+         * Offset of the local header.
+         */
+        private final long localOffset;
+        /**
+         * CRC-32.
+         */
+        private long crc;
+        /**
+         * Compressed size.
+         */
+        private long compressedSize;
+        /**
+         * Uncompressed size.
+         */
+        private long size;
+
+        /**
+         * Constructor.
+         *
+         * @param entryName Name.
+         * @param entryMethod Method.
+         * @param time DOS time.
+         * @param offset Local header offset.
+         */
+        Written(final String entryName, final int entryMethod, final int time, final long offset) {
+            name = entryName.getBytes(StandardCharsets.UTF_8);
+            method = entryMethod;
+            dosTime = time;
+            localOffset = offset;
+        }
+
+        /**
+         * @return Do the sizes or offset need Zip64 fields?
+         */
+        boolean needsZip64() {
+            return size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC || localOffset >= ZIP64_MAGIC;
+        }
+    }
+
+    /**
+     * Constructor. Use create().
+     *
+     * @param dest Destination.
+     * @param tempFile Temp archive.
+     * @param ch Channel to temp archive.
+     */
+    private ArchiveWriter(final Path dest, final Path tempFile, final FileChannel ch) {
+        target = dest;
+        temp = tempFile;
+        out = ch;
+    }
+
+    /**
+     * Start writing a new archive. It is written to a temp file in the same
+     * directory as the destination, and only replaces it on commit().
+     *
+     * @param dest Destination archive.
+     * @return New writer.
+     * @throws IOException Couldn't create temp file.
+     */
+    public static ArchiveWriter create(final Path dest) throws IOException {
+        var abs = dest.toAbsolutePath();
+        var tempFile = createTempFile(abs.getParent());
+        if (Files.exists(abs)) { //The move keeps the temp file's permissions; keep the old archive's.
+            try {
+                Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(abs));
+            } catch (UnsupportedOperationException ex) {
+                Logger.getLogger(ArchiveWriter.class.getName()).log(Level.FINE, "No POSIX permissions", ex);
+            }
+        }
+        var ch = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new ArchiveWriter(abs, tempFile, ch);
+    }
+
+    /**
+     * Create an empty temp file. Unlike Files.createTempFile(), it gets the
+     * default permissions for new files, as a new archive would.
+     *
+     * @param dir Directory.
+     * @return New file.
+     * @throws IOException Couldn't create it.
+     */
+    private static Path createTempFile(final Path dir) throws IOException {
+        while (true) {
+            var name = IO.tempFilePrefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), Character.MAX_RADIX) + ".tmp";
+            try {
+                return Files.createFile(dir.resolve(name));
+            } catch (FileAlreadyExistsException ex) {
+                continue; //Try another name.
+            }
+        }
+    }
+
+    /**
+     * Copy an entry from an existing archive, without recompressing it.
+     *
+     * @param index Source archive.
+     * @param entry Entry to copy.
+     * @throws IOException Couldn't copy.
+     */
+    public void copyEntry(final ArchiveIndex index, final ArchiveIndex.Entry entry) throws IOException {
+        var w = begin(entry.getName(), entry.getMethod(), entry.getDosTime());
+        w.crc = entry.getCrc();
+        w.compressedSize = entry.getCompressedSize();
+        w.size = entry.getSize();
+        writeLocalHeader(w);
+        index.transferRaw(entry, out);
+        written.add(w);
+    }
+
+    /**
+     * Open a new entry for writing. It must be closed before the next entry
+     * is started.
+     *
+     * @param name Entry name.
+     * @param method ArchiveIndex.STORED or ArchiveIndex.DEFLATED.
+     * @return Stream to write entry contents to.
+     * @throws IOException Couldn't start entry.
+     */
+    public OutputStream newEntry(final String name, final int method) throws IOException {
+        if (method != ArchiveIndex.STORED && method != ArchiveIndex.DEFLATED) {
+            throw new ZipException("Unsupported method " + method);
+        }
+        var w = begin(name, method, toDosTime(LocalDateTime.now()));
+        writeLocalHeader(w); //Sizes and CRC are filled in when the entry is closed.
+        current = new EntryStream(w);
+        return current;
+    }
+
+    /**
+     * Write a new entry from a stream.
+     *
+     * @param name Entry name.
+     * @param in Entry contents.
+     * @param method ArchiveIndex.STORED or ArchiveIndex.DEFLATED.
+     * @throws IOException Couldn't write entry.
+     */
+    public void putEntry(final String name, final InputStream in, final int method) throws IOException {
+        try (var os = newEntry(name, method)) {
+            in.transferTo(os);
+        }
+    }
+
+    /**
+     * Finish the archive without moving it into place yet, e.g. so it can
+     * be opened before the destination is replaced.
+     *
+     * @return Path of the finished temp archive.
+     * @throws IOException Couldn't finish the archive.
+     */
+    public Path finish() throws IOException {
+        checkWritable();
+        writeCentralDirectory();
+        out.force(true);
+        out.close();
+        finished = true;
+        return temp;
+    }
+
+    /**
+     * Finish the archive, if not already done, and move it over the
+     * destination.
+     *
+     * @throws IOException Couldn't finish or move the archive.
+     */
+    public void commit() throws IOException {
+        if (!finished) {
+            finish();
+        } else if (committed) {
+            throw new IOException("Archive already committed");
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+    }
+
+    /**
+     * Close the writer. If commit() hasn't succeeded the partial archive is
+     * discarded and the destination is left untouched.
+     *
+     * @throws IOException Couldn't clean up.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Start a new entry record.
+     *
+     * @param name Entry name.
+     * @param method Method.
+     * @param dosTime DOS time.
+     * @return Record.
+     * @throws IOException Duplicate, or another entry is open.
+     */
+    private Written begin(final String name, final int method, final int dosTime) throws IOException {
+        checkWritable();
+        var entryName = ArchiveIndex.normalise(name);
+        if (!names.add(entryName)) {
+            throw new ZipException("Duplicate entry " + entryName);
+        }
+        return new Written(entryName, method, dosTime, out.position());
+    }
+
+    /**
+     * Check the archive can still be written to.
+     *
+     * @throws IOException Committed, or an entry is open.
+     */
+    private void checkWritable() throws IOException {
+        if (finished) {
+            throw new IOException("Archive already finished");
+        } else if (current != null) {
+            throw new IOException("Previous entry not closed");
+        }
+    }
+
+    /**
+     * Write a local header at the current position.
+     *
+     * @param w Entry.
+     * @throws IOException Couldn't write.
+     */
+    //CHECKSTYLE:OFF
+    private void writeLocalHeader(final Written w) throws IOException {
+        var zip64 = w.size >= ZIP64_MAGIC || w.compressedSize >= ZIP64_MAGIC;
+        var extraLen = zip64 ? 20 : 0;
+        var buf = newBuffer(LOC_LEN + w.name.length + extraLen);
+        buf.putInt(LOC_SIG);
+        buf.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+        buf.putShort((short) FLAG_UTF8);
+        buf.putShort((short) w.method);
+        buf.putInt(w.dosTime);
+        buf.putInt((int) w.crc);
+        buf.putInt((int) (zip64 ? ZIP64_MAGIC : w.compressedSize));
+        buf.putInt((int) (zip64 ? ZIP64_MAGIC : w.size));
+        buf.putShort((short) w.name.length);
+        buf.putShort((short) extraLen);
+        buf.put(w.name);
+        if (zip64) {
+            buf.putShort((short) ZIP64_EXTRA);
+            buf.putShort((short) 16);
+            buf.putLong(w.size);
+            buf.putLong(w.compressedSize);
+        }
+        writeFully(buf.flip());
+    }
+
+    /**
+     * Write the central directory and end records.
+     *
+     * @throws IOException Couldn't write.
+     */
+    private void writeCentralDirectory() throws IOException {
+        long cenOffset = out.position();
+        for (var w : written) {
+            var zip64 = w.needsZip64();
+            int extraLen = 0;
+            if (zip64) {
+                extraLen = 4 + (w.size >= ZIP64_MAGIC ? 8 : 0)
+                        + (w.compressedSize >= ZIP64_MAGIC ? 8 : 0)
+                        + (w.localOffset >= ZIP64_MAGIC ? 8 : 0);
+            }
+            var buf = newBuffer(CEN_LEN + w.name.length + extraLen);
+            buf.putInt(CEN_SIG);
+            buf.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+            buf.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+            buf.putShort((short) FLAG_UTF8);
+            buf.putShort((short) w.method);
+            buf.putInt(w.dosTime);
+            buf.putInt((int) w.crc);
+            buf.putInt((int) Math.min(w.compressedSize, ZIP64_MAGIC));
+            buf.putInt((int) Math.min(w.size, ZIP64_MAGIC));
+            buf.putShort((short) w.name.length);
+            buf.putShort((short) extraLen);
+            buf.putShort((short) 0); //Comment
+            buf.putShort((short) 0); //Disk
+            buf.putShort((short) 0); //Internal attrs
+            buf.putInt(0); //External attrs
+            buf.putInt((int) Math.min(w.localOffset, ZIP64_MAGIC));
+            buf.put(w.name);
+            if (zip64) {
+                buf.putShort((short) ZIP64_EXTRA);
+                buf.putShort((short) (extraLen - 4));
+                if (w.size >= ZIP64_MAGIC) {
+                    buf.putLong(w.size);
+                }
+                if (w.compressedSize >= ZIP64_MAGIC) {
+                    buf.putLong(w.compressedSize);
+                }
+                if (w.localOffset >= ZIP64_MAGIC) {
+                    buf.putLong(w.localOffset);
+                }
+            }
+            writeFully(buf.flip());
+        }
+        long cenSize = out.position() - cenOffset;
+        long count = written.size();
+        var zip64 = count >= 0xFFFF || cenSize >= ZIP64_MAGIC || cenOffset >= ZIP64_MAGIC;
+        if (zip64) {
+            long z64Offset = out.position();
+            var z64 = newBuffer(ZIP64_EOCD_LEN + ZIP64_LOC_LEN);
+            z64.putInt(ZIP64_EOCD_SIG);
+            z64.putLong(ZIP64_EOCD_LEN - 12);
+            z64.putShort((short) VERSION_ZIP64);
+            z64.putShort((short) VERSION_ZIP64);
+            z64.putInt(0); //This disk
+            z64.putInt(0); //CEN disk
+            z64.putLong(count);
+            z64.putLong(count);
+            z64.putLong(cenSize);
+            z64.putLong(cenOffset);
+            z64.putInt(ZIP64_LOC_SIG);
+            z64.putInt(0);
+            z64.putLong(z64Offset);
+            z64.putInt(1); //Total disks
+            writeFully(z64.flip());
+        }
+        var eocd = newBuffer(EOCD_LEN);
+        eocd.putInt(EOCD_SIG);
+        eocd.putShort((short) 0);
+        eocd.putShort((short) 0);
+        eocd.putShort((short) Math.min(count, 0xFFFF));
+        eocd.putShort((short) Math.min(count, 0xFFFF));
+        eocd.putInt((int) Math.min(cenSize, ZIP64_MAGIC));
+        eocd.putInt((int) Math.min(cenOffset, ZIP64_MAGIC));
+        eocd.putShort((short) 0); //Comment
+        writeFully(eocd.flip());
+    }
+
+    /**
+     * Convert a time to MS-DOS format.
+     *
+     * @param t Time.
+     * @return DOS time (low half) and date (high half).
+     */
+    static int toDosTime(final LocalDateTime t) {
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16); //1980-01-01 00:00
+        }
+        return ((t.getYear() - 1980) << 25) | (t.getMonthValue() << 21) | (t.getDayOfMonth() << 16)
+                | (t.getHour() << 11) | (t.getMinute() << 5) | (t.getSecond() >> 1);
+    }
+    //CHECKSTYLE:ON
+
+    /**
+     * Make a little-endian buffer.
+     *
+     * @param len Size.
+     * @return Buffer.
+     */
+    private static ByteBuffer newBuffer(final int len) {
+        return ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Write a whole buffer at the current position.
+     *
+     * @param buf Buffer.
+     * @throws IOException Couldn't write.
+     */
+    private void writeFully(final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /**
+     * Stream for a new entry. Compresses as it goes, then fills in the local
+     * header once the sizes are known.
+     */
+    private final class EntryStream extends OutputStream {
+
+        /**
+         * Entry being written.
+         */
+        private final Written entry;
+        /**
+         * Running CRC.
+         */
+        private final CRC32 crc = new CRC32();
+        /**
+         * Compressor, if deflating.
+         */
+        private final Deflater deflater;
+        /**
+         * Compressed output buffer.
+         */
+        private final byte[] buf = new byte[BUF_SIZE];
+        /**
+         * Where the entry data starts.
+         */
+        private final long dataStart;
+        /**
+         * Closed?
+         */
+        private boolean closed = false;
+
+        /**
+         * Constructor.
+         *
+         * @param w Entry.
+         * @throws IOException Couldn't get position.
+         */
+        EntryStream(final Written w) throws IOException {
+            entry = w;
+            deflater = w.method == ArchiveIndex.DEFLATED ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+            dataStart = out.position();
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Entry closed");
+            }
+            crc.update(b, off, len);
+            entry.size += len;
+            if (deflater == null) {
+                writeFully(ByteBuffer.wrap(b, off, len));
+            } else {
+                deflater.setInput(b, off, len);
+                while (!deflater.needsInput()) {
+                    drain();
+                }
+            }
+        }
+
+        /**
+         * Write out whatever the deflater has ready.
+         *
+         * @throws IOException Couldn't write.
+         */
+        private void drain() throws IOException {
+            var n = deflater.deflate(buf);
+            if (n > 0) {
+                writeFully(ByteBuffer.wrap(buf, 0, n));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (deflater != null) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        drain();
+                    }
+                }
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+            entry.crc = crc.getValue();
+            entry.compressedSize = out.position() - dataStart;
+            if (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC) {
+                throw new ZipException("Entry too large: " + new String(entry.name, StandardCharsets.UTF_8));
+            }
+            //CHECKSTYLE:OFF
+            var sizes = newBuffer(12);
+            sizes.putInt((int) entry.crc);
+            sizes.putInt((int) entry.compressedSize);
+            sizes.putInt((int) entry.size);
+            sizes.flip();
+            var at = entry.localOffset + 14;
+            //CHECKSTYLE:ON
+            while (sizes.hasRemaining()) {
+                at += out.write(sizes, at);
+            }
+            written.add(entry);
+            current = null;
+        }
+    }
+}
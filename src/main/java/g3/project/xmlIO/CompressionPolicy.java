@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides whether an archive entry is stored or deflated. Media that is
+ * already compressed (JPEG, PNG, MP4...) gains nothing from deflating, and
+ * stored entries can be memory-mapped and read without inflating. Very small
+ * entries are stored too, as deflating them saves next to nothing.
+ *
+ * @author Group 3
+ */
+public final class CompressionPolicy {
+
+    //CHECKSTYLE:OFF
+    /**
+     * Default smallest entry worth deflating.
+     */
+    private static final long DEFAULT_MIN_DEFLATE = 256;
+    //CHECKSTYLE:ON
+
+    /**
+     * Extensions that are already compressed, by default.
+     */
+    private static final Set<String> DEFAULT_STORED = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "avif", "heic",
+            "mp4", "m4v", "mov", "mkv", "webm", "avi", "ogv",
+            "mp3", "m4a", "aac", "ogg", "oga", "opus", "flac",
+            "zip", "gz", "bz2", "xz", "7z", "jar", "spres",
+            "woff", "woff2", "pdf");
+
+    /**
+     * Extensions that always deflate, by default, whatever their media type.
+     */
+    private static final Set<String> DEFAULT_DEFLATED = Set.of(
+            "xml", "py", "js", "txt", "css", "svg", "json", "html", "htm", "csv", "alias");
+
+    /**
+     * Extensions to store.
+     */
+    private final Set<String> storedExts;
+
+    /**
+     * Extensions to deflate.
+     */
+    private final Set<String> deflatedExts;
+
+    /**
+     * Smallest entry worth deflating.
+     */
+    private final long minDeflateSize;
+
+    /**
+     * Constructor.
+     *
+     * @param stored Extensions to store (lower case, no dot).
+     * @param deflated Extensions to deflate (lower case, no dot).
+     * @param minDeflate Entries smaller than this are stored.
+     */
+    public CompressionPolicy(final Set<String> stored, final Set<String> deflated, final long minDeflate) {
+        storedExts = Set.copyOf(stored);
+        deflatedExts = Set.copyOf(deflated);
+        minDeflateSize = minDeflate;
+    }
+
+    /**
+     * Get the default policy.
+     *
+     * @return Default policy.
+     */
+    public static CompressionPolicy defaults() {
+        return new CompressionPolicy(DEFAULT_STORED, DEFAULT_DEFLATED, DEFAULT_MIN_DEFLATE);
+    }
+
+    /**
+     * Choose the method for an entry. Unknown extensions are stored if their
+     * media type is an image, audio or video type, and deflated otherwise.
+     *
+     * @param name Entry name.
+     * @param size Uncompressed size, or -1 if not known.
+     * @return ArchiveIndex.STORED or ArchiveIndex.DEFLATED.
+     */
+    public int methodFor(final String name, final long size) {
+        if (size >= 0 && size < minDeflateSize) {
+            return ArchiveIndex.STORED;
+        }
+        var ext = extension(name);
+        if (storedExts.contains(ext)) {
+            return ArchiveIndex.STORED;
+        } else if (deflatedExts.contains(ext)) {
+            return ArchiveIndex.DEFLATED;
+        }
+        var type = URLConnection.guessContentTypeFromName(name);
+        if (type != null
+                && (type.startsWith("video/") || type.startsWith("audio/")
+                || (type.startsWith("image/") && !type.contains("bmp") && !type.contains("tiff") && !type.contains("svg")))) {
+            return ArchiveIndex.STORED;
+        }
+        return ArchiveIndex.DEFLATED;
+    }
+
+    /**
+     * Get a name's extension.
+     *
+     * @param name Entry name.
+     * @return Lower-case extension, or "" if none.
+     */
+    private static String extension(final String name) {
+        var slash = name.lastIndexOf('/');
+        var dot = name.lastIndexOf('.');
+        return dot > slash + 1 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Cache of files on disk that persists between runs. Files are named by a
+ * hash of their key, kept under a size quota, and evicted least recently
+ * used first (by modification time, which is refreshed on every hit).
+ *
+ * @author Group 3
+ */
+public final class DiskCache {
+
+    //CHECKSTYLE:OFF
+    /**
+     * Default quota: 2 GiB.
+     */
+    private static final long DEFAULT_QUOTA = 2L << 30;
+
+    /**
+     * Partly-written files older than this were left by a crash. Newer ones
+     * may belong to another running instance.
+     */
+    private static final long STALE_PART_MS = 24L * 60 * 60 * 1000;
+    //CHECKSTYLE:ON
+
+    /**
+     * Prefix of partly-written files.
+     */
+    private static final String PART_PREFIX = ".part-";
+
+    /**
+     * Shared cache, created on first use.
+     */
+    private static DiskCache shared = null;
+
+    /**
+     * Cache directory.
+     */
+    private final Path root;
+
+    /**
+     * Maximum total size of cached files.
+     */
+    private final long quota;
+
+    /**
+     * Current total size of cached files.
+     */
+    private long total;
+
+    /**
+     * Files in use, with their count of users. Never evicted.
+     */
+    private final Map<Path, Integer> pinned = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param dir Cache directory. Created if missing.
+     * @param quotaBytes Maximum total size.
+     * @throws IOException Couldn't create or scan the directory.
+     */
+    public DiskCache(final Path dir, final long quotaBytes) throws IOException {
+        root = dir;
+        quota = quotaBytes;
+        Files.createDirectories(root);
+        try (var files = Files.list(root)) {
+            for (var f : files.collect(Collectors.toList())) {
+                if (f.getFileName().toString().startsWith(PART_PREFIX)) {
+                    if (System.currentTimeMillis() - lastUsed(f) > STALE_PART_MS) {
+                        Files.deleteIfExists(f); //Left by a crash.
+                    }
+                } else if (Files.isRegularFile(f)) {
+                    total += Files.size(f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the cache shared by the application. Its location and quota can be
+     * set with -Dg3.diskCacheDir and -Dg3.diskCacheBytes; by default it lives
+     * in the system temp directory. A different cache is made if the location
+     * is changed.
+     *
+     * @return Maybe the shared cache, if it could be created.
+     */
+    public static synchronized Optional<DiskCache> getShared() {
+        var dir = Paths.get(System.getProperty("g3.diskCacheDir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "spres-cache").toString()));
+        if (shared == null || !shared.root.equals(dir)) {
+            shared = null;
+            try {
+                shared = new DiskCache(dir, Long.getLong("g3.diskCacheBytes", DEFAULT_QUOTA));
+            } catch (IOException ex) {
+                Logger.getLogger(DiskCache.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+        return Optional.ofNullable(shared);
+    }
+
+    /**
+     * Look up a file.
+     *
+     * @param key Key.
+     * @return Maybe the cached file.
+     */
+    public Optional<Path> get(final String key) {
+        var file = root.resolve(fileName(key));
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); //Mark as recently used.
+        } catch (IOException ex) {
+            return Optional.empty(); //Evicted under us.
+        }
+        return Optional.of(file);
+    }
+
+    /**
+     * Add a file, evicting the least recently used ones if over quota. The
+     * file only appears under its key once it has been completely written.
+     *
+     * @param key Key.
+     * @param content File content.
+     * @return Cached file.
+     * @throws IOException Couldn't write file.
+     */
+    public Path put(final String key, final InputStream content) throws IOException {
+        var file = root.resolve(fileName(key));
+        var part = Files.createTempFile(root, PART_PREFIX, "");
+        try {
+            var size = Files.copy(content, part, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) { //Replacing a file only adds the difference.
+                var old = Files.isRegularFile(file) ? Files.size(file) : 0;
+                try {
+                    Files.move(part, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                total += size - old;
+                evict(file);
+            }
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        return file;
+    }
+
+    /**
+     * Keep a key's file from being evicted until unpinned, whether or not it
+     * is cached yet. Pins are counted, so each needs its own unpin.
+     *
+     * @param key Key.
+     * @return File the key is cached in.
+     */
+    public synchronized Path pin(final String key) {
+        var file = root.resolve(fileName(key));
+        pinned.merge(file, 1, Integer::sum);
+        return file;
+    }
+
+    /**
+     * Let a pinned file be evicted again, once no one else has it pinned.
+     *
+     * @param file File returned by {@link #pin(String)}.
+     */
+    public synchronized void unpin(final Path file) {
+        pinned.computeIfPresent(file, (f, n) -> n > 1 ? n - 1 : null);
+    }
+
+    /**
+     * Remove a file, if cached.
+     *
+     * @param key Key.
+     */
+    public synchronized void remove(final String key) {
+        var file = root.resolve(fileName(key));
+        try {
+            var size = Files.isRegularFile(file) ? Files.size(file) : 0;
+            if (Files.deleteIfExists(file)) {
+                total -= size;
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(DiskCache.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * @return Cache directory.
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return Maximum total size.
+     */
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * @return Current total size.
+     */
+    public synchronized long getTotalBytes() {
+        return total;
+    }
+
+    /**
+     * Delete least recently used files until under quota. Pinned files are
+     * left, even if that leaves the cache over quota.
+     *
+     * @param keep File to keep, even if over quota.
+     */
+    private void evict(final Path keep) {
+        if (total <= quota) {
+            return;
+        }
+        var files = new ArrayList<Path>();
+        try (var list = Files.list(root)) {
+            list.filter(f -> !f.equals(keep) && !pinned.containsKey(f) && !f.getFileName().toString().startsWith(PART_PREFIX))
+                    .forEach(files::add);
+        } catch (IOException ex) {
+            Logger.getLogger(DiskCache.class.getName()).log(Level.WARNING, null, ex);
+            return;
+        }
+        files.sort(Comparator.comparingLong(DiskCache::lastUsed));
+        for (var f : files) {
+            if (total <= quota) {
+                break;
+            }
+            try {
+                var size = Files.size(f);
+                if (Files.deleteIfExists(f)) {
+                    total -= size;
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(DiskCache.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Get when a file was last used.
+     *
+     * @param f File.
+     * @return Time in ms, or 0 if gone.
+     */
+    private static long lastUsed(final Path f) {
+        try {
+            return Files.getLastModifiedTime(f).toMillis();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Turn a key into a file name.
+     *
+     * @param key Key.
+     * @return Hex SHA-256 of key.
+     */
+    private static String fileName(final String key) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            var hex = new StringBuilder();
+            for (var b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); //Every JVM has SHA-256.
+        }
+    }
+}
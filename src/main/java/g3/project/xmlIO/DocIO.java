@@ -28,14 +28,30 @@
  */
 package g3.project.xmlIO;
 
+import g3.project.elements.DocElement;
+import g3.project.elements.TreeSnapshot;
 import java.util.Optional;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.FileSystem;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import nu.xom.*;
@@ -51,6 +67,65 @@ public class DocIO extends IO {
      */
     protected static final String XML_FILE_NAME = "doc.xml";
 
+    /**
+     * Directory for content-addressed resources.
+     */
+    protected static final String BLOB_DIR = "res/";
+
+    /**
+     * XPath finding every resource reference in a doc.
+     */
+    private static final String INCLUDE_XPATH = "//@include_source";
+
+    /**
+     * Attribute holding a resource reference.
+     */
+    private static final String INCLUDE_ATTR = "include_source";
+
+    /**
+     * Docs at least this big (in bytes) have their pages parsed lazily. Set
+     * with -Dg3.lazyPagesMinBytes.
+     */
+    //CHECKSTYLE:OFF
+    private static final long LAZY_PAGES_MIN_BYTES = Long.getLong("g3.lazyPagesMinBytes", 256L * 1024);
+    //CHECKSTYLE:ON
+
+    /**
+     * Are parsed docs cached as snapshots? Set with -Dg3.docSnapshots.
+     */
+    private static final boolean SNAPSHOTS = Boolean.parseBoolean(System.getProperty("g3.docSnapshots", "true"));
+
+    /**
+     * Tag for writing snapshots.
+     */
+    private static final String SNAPSHOT_TAG = "doc-snapshot";
+
+    /**
+     * Tag for background validation.
+     */
+    private static final String VALIDATION_TAG = "doc-validation";
+
+    /**
+     * Background validation, if opened fast.
+     */
+    private volatile CompletableFuture<ArrayList<String>> validation = null;
+
+    /**
+     * Stats of the last save.
+     */
+    private volatile SaveStats saveStats = null;
+
+    /**
+     * Held for the whole of a save, so saves run one at a time and the
+     * archive isn't closed under one. Edits don't take it.
+     */
+    private final ReentrantLock saveLock = new ReentrantLock();
+
+    /**
+     * Chooses stored or deflated for each entry on save.
+     */
+    private volatile CompressionPolicy compressionPolicy = CompressionPolicy.defaults();
+
     /**
      * Constructor.
      *
@@ -60,6 +135,19 @@ public class DocIO extends IO {
         super(presFilePath);
     }
 
+    /**
+     * Constructor for a fast open. The doc is parsed without validation, then
+     * checked against the schema in the background; when done, the errors are
+     * set on the doc and passed to the callback (on a pool thread).
+     *
+     * @param presFilePath Path to pres file.
+     * @param onValidated Called with the validity errors. May be null.
+     */
+    public DocIO(final String presFilePath, final Consumer<ArrayList<String>> onValidated) {
+        super(presFilePath, false);
+        startValidation(onValidated);
+    }
+
     /**
      * Constructor.
      *
@@ -69,16 +157,98 @@ public class DocIO extends IO {
         super(presStream);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param presStream Stream of pres zip.
+     * @param mode SPOOL or MEMORY.
+     */
+    public DocIO(final InputStream presStream, final OpenMode mode) {
+        super(presStream, mode);
+    }
+
+    /**
+     * Constructor for a fast open; see DocIO(String, Consumer).
+     *
+     * @param presStream Stream of pres zip.
+     * @param mode SPOOL or MEMORY.
+     * @param onValidated Called with the validity errors. May be null.
+     */
+    public DocIO(final InputStream presStream, final OpenMode mode, final Consumer<ArrayList<String>> onValidated) {
+        super(presStream, mode, false);
+        startValidation(onValidated);
+    }
+
+    /**
+     * Get the background validation started by a fast open.
+     *
+     * @return Maybe the validity errors, once done.
+     */
+    public Optional<CompletableFuture<ArrayList<String>>> getValidation() {
+        return Optional.ofNullable(validation);
+    }
+
+    /**
+     * Check the doc against the schema in the background.
+     *
+     * @param onValidated Called with the validity errors. May be null.
+     */
+    private void startValidation(final Consumer<ArrayList<String>> onValidated) {
+        var root = getDoc().map(Document::getRootElement);
+        if (root.isEmpty() || !(root.get() instanceof DocElement)) {
+            return;
+        }
+        var docEl = (DocElement) root.get();
+        validation = submit(VALIDATION_TAG, () -> {
+            var errs = getResource(XML_FILE_NAME)
+                    .map(xml -> validate(xml, snapshotCache().map(c -> DocSnapshot.hash(xml))))
+                    .orElseGet(ArrayList::new);
+            docEl.setValidationErrors(errs);
+            if (onValidated != null) {
+                onValidated.accept(errs);
+            }
+            return errs;
+        });
+    }
+
+    /**
+     * Get the compression policy used on save.
+     *
+     * @return Policy.
+     */
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Set the compression policy used on save.
+     *
+     * @param policy Policy.
+     */
+    public void setCompressionPolicy(final CompressionPolicy policy) {
+        compressionPolicy = policy;
+    }
+
     /**
      * Save document to current location.
      *
      * @throws IOException bad file.
      */
     public void save() throws IOException {
+        save(null);
+    }
+
+    /**
+     * Save a snapshot of the document to its current location.
+     *
+     * @param snapshot Snapshot to write, or null for the live document.
+     * @throws IOException bad file.
+     */
+    public void save(final TreeSnapshot snapshot) throws IOException {
         //CHECKSTYLE:OFF
         if (allowSave == true && origZip != null) {
             //CHECKSTYLE:ON
-            saveAs(origZip.getAbsolutePath());
+            saveAs(origZip.getAbsolutePath(), snapshot);
         } else {
             throw new IOException("Can't save.");
         }
@@ -91,33 +261,241 @@ public class DocIO extends IO {
      * @throws IOException bad file.
      */
     public void saveAs(final String newPath) throws IOException {
-        if (zipFs == null || myDoc.isEmpty()) {
+        saveAs(newPath, null);
+    }
+
+    /**
+     * Save a snapshot of the document to a new location. With a snapshot,
+     * this can run on any thread while the document is being changed. The
+     * resources are captured as they are when the save starts; the write
+     * lock is only held for that and for switching to the saved archive.
+     *
+     * @param newPath Path to save to.
+     * @param snapshot Snapshot to write, or null for the live document.
+     * @throws IOException bad file.
+     */
+    public void saveAs(final String newPath, final TreeSnapshot snapshot) throws IOException {
+        if (isClosed()) {
+            throw new IOException("Document closed.");
+        } else if (archiveIndex == null || myDoc.isEmpty()) {
             throw new IOException("Can't save.");
         } else if (!newPath.matches("^.*\\.(zip|ZIP|spres|SPRES)$")) {
             throw new IOException("Bad File Name!");
         }
-        Path docPath = zipFs.getPath(XML_FILE_NAME);
-        Path tmpDocPath = Files.createTempFile("_tmpdoc", "");
-        Files.deleteIfExists(docPath);
-        var fileOutStream = Files.newOutputStream(tmpDocPath);
-        Serializer serializer = new Serializer(fileOutStream, "ISO-8859-1");
-        serializer.write(myDoc.get());
-        Files.move(tmpDocPath, docPath, StandardCopyOption.REPLACE_EXISTING);
-        //Close and reopen (sync). This is undocumented!!!
-        zipFs.close();
-        makeFs(tempPath).ifPresent(fs -> zipFs = fs);
-        var newPathPath = Paths.get(newPath);
-        Files.deleteIfExists(newPathPath);
-        //Copy the temp file to the expected place
-        Files.copy(tempPath,
-                newPathPath,
-                StandardCopyOption.REPLACE_EXISTING);
-        origZip = newPathPath.toFile();
-        allowSave = true;
-    }
-
-    /**
-     * Remove a resource from the Zip.
+        var start = System.nanoTime();
+        long docBytes;
+        long docNanos;
+        var newPathPath = Paths.get(newPath).toAbsolutePath();
+        saveLock.lock();
+        try {
+            ArchiveIndex base;
+            Set<String> deleted;
+            var table = new Properties();
+            var modified = new LinkedHashMap<String, InputStream>();
+            var sizes = new HashMap<String, Long>();
+            writeLock.lock();
+            try { //Capture the resources as they are now.
+                if (isClosed()) { //Closed while waiting for the lock.
+                    throw new IOException("Document closed.");
+                }
+                base = archiveIndex;
+                deleted = Set.copyOf(deletedEntries);
+                table.putAll(aliases);
+                for (var name : modifiedEntries) {
+                    if (!name.equals(XML_FILE_NAME)) { //Working entries aren't changed in place, so the streams stay as captured.
+                        var working = zipFs.getPath(name);
+                        sizes.put(name, Files.size(working));
+                        modified.put(name, Files.newInputStream(working));
+                    }
+                }
+                startNotingChanges();
+            } catch (IOException ex) {
+                stopNotingChanges();
+                closeAll(modified.values());
+                throw ex;
+            } finally {
+                writeLock.unlock();
+            }
+            try (var writer = ArchiveWriter.create(newPathPath)) {
+                //Unchanged entries are copied compressed; only changed ones are written.
+                var policy = compressionPolicy;
+                for (var entry : base.getEntries()) {
+                    var name = entry.getName();
+                    if (name.equals(XML_FILE_NAME) || name.equals(ALIAS_FILE_NAME)
+                            || modified.containsKey(name) || deleted.contains(name)) {
+                        continue;
+                    }
+                    var method = policy.methodFor(name, entry.getSize());
+                    if (entry.isDirectory() || method == entry.getMethod()) {
+                        writer.copyEntry(base, entry);
+                    } else { //Stored under another policy; convert once.
+                        try (var in = base.getStream(entry)) {
+                            writer.putEntry(name, in, method);
+                        }
+                    }
+                }
+                for (var res : modified.entrySet()) {
+                    var name = res.getKey();
+                    writer.putEntry(name, res.getValue(), policy.methodFor(name, sizes.get(name)));
+                }
+                if (!table.isEmpty()) {
+                    try (var aliasOut = new OutputStreamWriter(
+                            writer.newEntry(ALIAS_FILE_NAME, policy.methodFor(ALIAS_FILE_NAME, -1)), StandardCharsets.UTF_8)) {
+                        table.store(aliasOut, "Resource aliases");
+                    }
+                }
+                var docStart = System.nanoTime();
+                try (var docOut = writer.newEntry(XML_FILE_NAME, policy.methodFor(XML_FILE_NAME, -1))) {
+                    var serializer = new DocSerializer(docOut); //Stub pages are copied unparsed.
+                    if (snapshot != null) {
+                        serializer.write(snapshot);
+                    } else {
+                        serializer.write(myDoc.get());
+                    }
+                    docBytes = serializer.getBytes();
+                }
+                docNanos = System.nanoTime() - docStart;
+                writeLock.lock();
+                try { //Only switch to the saved archive once it's in place.
+                    commitOverBase(writer, newPathPath);
+                    rebase(newPathPath, stopNotingChanges());
+                    origZip = newPathPath.toFile();
+                    allowSave = true;
+                } finally {
+                    writeLock.unlock();
+                }
+            } catch (IOException | RuntimeException ex) {
+                writeLock.lock();
+                try {
+                    stopNotingChanges();
+                } finally {
+                    writeLock.unlock();
+                }
+                throw ex;
+            } finally {
+                closeAll(modified.values());
+            }
+        } finally {
+            saveLock.unlock();
+        }
+        saveStats = new SaveStats(docBytes, docNanos, System.nanoTime() - start);
+        Logger.getLogger(DocIO.class.getName()).log(Level.FINE, "{0}", saveStats);
+    }
+
+    /**
+     * Make a saved archive the new base, dropping the working copy. Entries
+     * changed while the save ran aren't in it, so they are carried over.
+     * Call with the write lock held.
+     *
+     * @param saved Saved archive.
+     * @param changed Entries changed since the save captured the archive.
+     * @throws IOException Couldn't carry a change over.
+     */
+    private void rebase(final Path saved, final Set<String> changed) throws IOException {
+        var carried = new HashMap<String, byte[]>();
+        var removed = new ArrayList<String>();
+        for (var name : changed) {
+            if (isModified(name)) {
+                carried.put(name, Files.readAllBytes(zipFs.getPath(name)));
+            } else if (deletedEntries.contains(name)) {
+                removed.add(name);
+            }
+        }
+        var liveAliases = new HashMap<>(aliases);
+        if (!openBase(saved)) {
+            return;
+        }
+        aliases.clear(); //The saved table is as of the capture; keep the live one.
+        aliases.putAll(liveAliases);
+        for (var res : carried.entrySet()) {
+            var working = getWorkingFs().getPath(res.getKey());
+            if (working.getParent() != null) {
+                Files.createDirectories(working.getParent());
+            }
+            Files.write(working, res.getValue());
+            markModified(res.getKey());
+        }
+        for (var name : removed) {
+            if (archiveIndex.getEntry(name).isPresent()) {
+                markDeleted(name);
+            }
+        }
+    }
+
+    /**
+     * Move a finished archive into place. Some systems won't replace a file
+     * that is open or mapped, so if replacing the base fails, the base is
+     * closed and the move tried again; should that fail too, the base is
+     * opened again, unchanged. Call with the write lock held.
+     *
+     * @param writer Finished archive.
+     * @param dest Where it goes.
+     * @throws IOException Couldn't move it; the base is as it was.
+     */
+    private void commitOverBase(final ArchiveWriter writer, final Path dest) throws IOException {
+        try {
+            writer.commit();
+        } catch (IOException ex) {
+            var base = archiveIndex;
+            var path = basePath;
+            if (base == null || path == null || !dest.equals(path.toAbsolutePath())) {
+                throw ex;
+            }
+            base.close();
+            try {
+                writer.commit();
+            } catch (IOException retry) {
+                retry.addSuppressed(ex);
+                try {
+                    archiveIndex = ArchiveIndex.open(path); //Still the old file.
+                } catch (IOException reopen) {
+                    retry.addSuppressed(reopen);
+                }
+                throw retry;
+            }
+        }
+    }
+
+    /**
+     * Close streams, logging any failures.
+     *
+     * @param streams Streams.
+     */
+    private static void closeAll(final Collection<InputStream> streams) {
+        for (var in : streams) {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                Logger.getLogger(DocIO.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Close the archive, once any save in progress has finished.
+     */
+    @Override
+    public void close() {
+        saveLock.lock();
+        try {
+            super.close();
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /**
+     * Get the size of and time taken by the last save.
+     *
+     * @return Maybe stats, if saved.
+     */
+    public Optional<SaveStats> getSaveStats() {
+        return Optional.ofNullable(saveStats);
+    }
+
+    /**
+     * Remove a resource from the Zip. If the path is an alias, the entry it
+     * points to is only removed once no other alias uses it.
      *
      * @param loc Location.
      */
@@ -125,12 +503,81 @@ public class DocIO extends IO {
         if (!isUriInternal(loc)) {
             return; //Can't remove an external resource.
         }
-        var internalPath = zipFs.getPath(loc);
+        writeLock.lock();
         try {
-            Files.delete(internalPath);
+            var name = ArchiveIndex.normalise(loc);
+            var target = aliases.remove(name);
+            if (target == null) {
+                deleteEntry(name);
+            } else if (!aliases.containsValue(target)) {
+                deleteEntry(target);
+            }
         } catch (IOException ex) {
             Logger.getLogger(DocIO.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Release a resource that an element no longer uses. It is only removed if
+     * nothing left in the doc refers to the same content.
+     *
+     * @param loc Location.
+     * @param doc Doc to check for other references, or null.
+     */
+    public void releaseResource(final String loc, final Document doc) {
+        if (!isUriInternal(loc)) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            var name = ArchiveIndex.normalise(loc);
+            var target = resolve(name);
+            var contentUsed = false;
+            var aliasUsed = false;
+            if (doc != null) {
+                var refs = new ArrayList<String>();
+                var query = doc.query(INCLUDE_XPATH);
+                for (int i = 0; i < query.size(); i++) {
+                    refs.add(query.get(i).getValue());
+                }
+                docElement(doc).ifPresent(d -> { //References in stubs count too; scanned, not parsed.
+                    for (var page : d.getPages()) {
+                        page.getSource().ifPresent(src -> refs.addAll(src.findAttributeValues(INCLUDE_ATTR)));
+                    }
+                });
+                for (var ref : refs) {
+                    if (isUriInternal(ref) && resolve(ref).equals(target)) {
+                        contentUsed = true;
+                        aliasUsed |= ArchiveIndex.normalise(ref).equals(name);
+                    }
+                }
+            }
+            if (!contentUsed) {
+                removeResource(name);
+            } else if (!aliasUsed) {
+                aliases.remove(name); //Content is shared; just drop this name.
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove an entry, from the working FS or the base archive.
+     *
+     * @param name Entry name.
+     * @throws IOException No such entry.
+     */
+    private void deleteEntry(final String name) throws IOException {
+        var inBase = archiveIndex != null && archiveIndex.getEntry(name).isPresent();
+        if (isModified(name)) {
+            Files.deleteIfExists(getWorkingFs().getPath(name));
+        } else if (!inBase) {
+            throw new IOException("No such resource: " + name);
         }
+        markDeleted(name);
     }
 
     /**
@@ -144,31 +591,107 @@ public class DocIO extends IO {
      * @throws IOException Couldn't make file.
      */
     public Path getEmptyFile(final String loc, final String prefix, final String suffix) throws IOException {
-        var containingPath = zipFs.getPath(loc);
-        Files.createDirectories(containingPath);
-        var filePath = Files.createTempFile(containingPath, prefix, suffix);
-        return filePath;
+        writeLock.lock();
+        try {
+            var containingPath = getWorkingFs().getPath(loc);
+            Files.createDirectories(containingPath);
+            var filePath = Files.createTempFile(containingPath, prefix, suffix);
+            markModified(filePath.toString());
+            return filePath;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
-     * Add a resource to the zip.
+     * Add a resource to the zip. Content is stored once, by hash; adding the
+     * same bytes again just adds an alias.
      *
      * @param exrPath Existing Resource path.
      * @param newPath Path within zip.
      * @return Optional resource bytes.
      * @throws java.io.IOException Couldn't access Path.
      */
-    public synchronized Optional<byte[]> addResource(final String exrPath, final String newPath) throws IOException {
-        var internalPath = zipFs.getPath(newPath);
-        Files.createDirectories(internalPath);
+    public Optional<byte[]> addResource(final String exrPath, final String newPath) throws IOException {
         var resPath = Paths.get(exrPath);
+        String blob;
+        try {
+            var fileName = resPath.getFileName().toString();
+            var dot = fileName.lastIndexOf('.');
+            blob = BLOB_DIR + hashFile(resPath) + (dot > 0 ? fileName.substring(dot) : "");
+        } catch (IOException ex) {
+            Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
+            return Optional.empty();
+        }
+        var alias = ArchiveIndex.normalise(newPath);
+        writeLock.lock();
         try {
-            Files.copy(resPath, internalPath, StandardCopyOption.REPLACE_EXISTING);
+            if (!hasEntry(blob)) {
+                var internalPath = getWorkingFs().getPath(blob);
+                Files.createDirectories(internalPath.getParent());
+                Files.copy(resPath, internalPath, StandardCopyOption.REPLACE_EXISTING);
+                markModified(blob);
+            }
+            if (!alias.equals(blob)) {
+                if (!aliases.containsKey(alias) && hasEntry(alias)) {
+                    deleteEntry(alias); //Replaced by the alias.
+                }
+                var old = aliases.put(alias, blob);
+                if (old != null && !old.equals(blob) && !aliases.containsValue(old)) {
+                    deleteEntry(old);
+                }
+                invalidate(alias); //Drop anything cached under the alias.
+            }
         } catch (IOException ex) {
             Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
             return Optional.empty();
+        } finally {
+            writeLock.unlock();
+        }
+        return getResource(alias);
+    }
+
+    /**
+     * Does an entry exist, in the working FS or the base archive?
+     *
+     * @param name Entry name.
+     * @return True if present.
+     */
+    private boolean hasEntry(final String name) {
+        if (isModified(name)) {
+            return true;
+        }
+        return archiveIndex != null && !deletedEntries.contains(name) && archiveIndex.getEntry(name).isPresent();
+    }
+
+    /**
+     * Hash a file's contents.
+     *
+     * @param file File.
+     * @return Hex SHA-256.
+     * @throws IOException Couldn't read file.
+     */
+    private static String hashFile(final Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        //CHECKSTYLE:OFF
+        var buf = new byte[65536];
+        //CHECKSTYLE:ON
+        try (var is = Files.newInputStream(file)) {
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                digest.update(buf, 0, n);
+            }
+        }
+        var hex = new StringBuilder();
+        for (var b : digest.digest()) {
+            hex.append(String.format("%02x", b));
         }
-        return getResource(newPath);
+        return hex.toString();
     }
 
     /**
@@ -179,19 +702,188 @@ public class DocIO extends IO {
      * @throws java.io.IOException Couldn't access path.
      */
     public void writeBytes(final String path, final byte[] content) throws IOException {
-        var filePath = zipFs.getPath(path);
-        Files.write(filePath, content);
+        writeLock.lock();
+        try {
+            var filePath = getWorkingFs().getPath(path);
+            if (filePath.getParent() != null) {
+                Files.createDirectories(filePath.getParent());
+            }
+            Files.write(filePath, content);
+            aliases.remove(ArchiveIndex.normalise(path)); //Now a real entry.
+            markModified(path);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Get the root of a doc, if it's a presentation.
+     *
+     * @param doc Doc.
+     * @return Maybe root.
+     */
+    private static Optional<DocElement> docElement(final Document doc) {
+        var root = doc.getRootElement();
+        return root instanceof DocElement ? Optional.of((DocElement) root) : Optional.empty();
     }
 
     @Override
-    protected Optional<Document> retrieveDoc(final FileSystem fs) {
-        var docPath = fs.getPath(XML_FILE_NAME);
+    protected Optional<Document> retrieveDoc() {
+        var xml = getResource(XML_FILE_NAME);
+        if (xml.isEmpty()) {
+            Logger.getLogger(DocIO.class.getName()).log(Level.SEVERE, "No {0} in archive", XML_FILE_NAME);
+            return Optional.empty();
+        }
+        var hash = snapshotCache().map(c -> DocSnapshot.hash(xml.get()));
+        //Unchanged since last opened: no parsing at all.
+        var snapshot = hash.flatMap(h -> readCached(DocSnapshot.treeKey(h), DocSnapshot::read));
+        if (snapshot.isPresent()) {
+            if (validateOnOpen) {
+                var errs = validate(xml.get(), hash);
+                docElement(snapshot.get()).ifPresent(d -> d.setValidationErrors(errs));
+            }
+            return snapshot;
+        }
+        var doc = parse(xml.get());
+        if (doc.isPresent()) {
+            hash.ifPresent(h -> writeSnapshot(h, xml.get()));
+        }
+        return doc;
+    }
+
+    /**
+     * Parse doc.xml as it is opened.
+     *
+     * @param xml doc.xml.
+     * @return Optional doc.
+     */
+    private Optional<Document> parse(final byte[] xml) {
+        if (xml.length >= LAZY_PAGES_MIN_BYTES) {
+            //Big doc: only parse pages as they're visited.
+            return Parse.parseDocXMLLazy(xml, validateOnOpen);
+        }
+        var is = new ByteArrayInputStream(xml);
+        return validateOnOpen ? Parse.parseDocXML(is) : Parse.parseDocXMLUnvalidated(is);
+    }
+
+    /**
+     * Cache a snapshot of doc.xml in the background. The doc just opened may
+     * be changed as soon as it is handed out, so the snapshot is written from
+     * a parse of its own rather than from that doc.
+     *
+     * @param hash Hash of doc.xml.
+     * @param xml doc.xml.
+     */
+    private void writeSnapshot(final String hash, final byte[] xml) {
+        snapshotCache().ifPresent(cache -> submit(SNAPSHOT_TAG, () -> {
+            var doc = parse(xml);
+            if (doc.isEmpty()) {
+                return false;
+            }
+            var written = putCached(cache, DocSnapshot.treeKey(hash), DocSnapshot.write(doc.get()));
+            if (validateOnOpen) {
+                written &= docElement(doc.get())
+                        .map(d -> putCached(cache, DocSnapshot.errorsKey(hash), DocSnapshot.writeErrors(d.getValidationErrors())))
+                        .orElse(false);
+            }
+            return written;
+        }));
+    }
+
+    /**
+     * Check doc.xml against the schema, unless the errors for the same
+     * content are cached.
+     *
+     * @param xml doc.xml.
+     * @param hash Its hash, if snapshots are cached.
+     * @return Validity errors.
+     */
+    private ArrayList<String> validate(final byte[] xml, final Optional<String> hash) {
+        var cached = hash.flatMap(h -> readCached(DocSnapshot.errorsKey(h), DocSnapshot::readErrors));
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        var errs = Parse.validateDocXML(new ByteArrayInputStream(xml));
+        hash.ifPresent(h -> writeCached(DocSnapshot.errorsKey(h), DocSnapshot.writeErrors(errs)));
+        return errs;
+    }
+
+    /**
+     * Get the cache for snapshots, if they're enabled.
+     *
+     * @return Maybe cache.
+     */
+    private Optional<DiskCache> snapshotCache() {
+        return SNAPSHOTS ? Optional.ofNullable(diskCache) : Optional.empty();
+    }
+
+    /**
+     * Read a cached entry. A damaged entry is removed.
+     *
+     * @param <T> Content type.
+     * @param key Key.
+     * @param reader Reads the entry.
+     * @return Maybe content.
+     */
+    private <T> Optional<T> readCached(final String key, final SnapshotReader<T> reader) {
+        var cache = snapshotCache();
+        var file = cache.flatMap(c -> c.get(key));
+        if (file.isEmpty()) {
+            return Optional.empty();
+        }
+        try (var in = new BufferedInputStream(Files.newInputStream(file.get()))) {
+            return Optional.of(reader.read(in, Files.size(file.get())));
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(DocIO.class.getName()).log(Level.WARNING, null, ex);
+            cache.get().remove(key);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Write a cache entry in the background.
+     *
+     * @param key Key.
+     * @param content Content.
+     */
+    private void writeCached(final String key, final byte[] content) {
+        snapshotCache().ifPresent(cache -> submit(SNAPSHOT_TAG, () -> putCached(cache, key, content)));
+    }
+
+    /**
+     * Write a cache entry.
+     *
+     * @param cache Cache.
+     * @param key Key.
+     * @param content Content.
+     * @return True if written.
+     */
+    private static boolean putCached(final DiskCache cache, final String key, final byte[] content) {
         try {
-            var docIs = Files.newInputStream(docPath);
-            return Parse.parseDocXML(docIs);
+            cache.put(key, new ByteArrayInputStream(content));
+            return true;
         } catch (IOException ex) {
-            Logger.getLogger(ToolIO.class.getName()).log(Level.SEVERE, null, ex);
+            Logger.getLogger(DocIO.class.getName()).log(Level.WARNING, null, ex);
+            return false;
         }
-        return Optional.empty();
+    }
+
+    /**
+     * Reads a cache entry.
+     *
+     * @param <T> Content type.
+     */
+    @FunctionalInterface
+    private interface SnapshotReader<T> {
+
+        /**
+         * Read an entry.
+         *
+         * @param in Entry content.
+         * @param size Entry size in bytes.
+         * @return Content.
+         * @throws IOException Damaged entry.
+         */
+        T read(InputStream in, long size) throws IOException;
     }
 }
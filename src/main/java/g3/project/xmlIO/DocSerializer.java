@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.elements.PageElement;
+import g3.project.elements.PageSource;
+import g3.project.elements.TreeSnapshot;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import nu.xom.Element;
+import nu.xom.Serializer;
+
+/**
+ * Writes a doc as UTF-8 straight into an output stream. Pages that were never
+ * parsed are copied through as they were read, instead of being built just to
+ * be written out again. Indentation is off unless set. A snapshot is written
+ * with each page tag followed by that page's content.
+ *
+ * @author Group 3
+ */
+final class DocSerializer extends Serializer {
+
+    /**
+     * Buffer between the serializer and the stream.
+     */
+    //CHECKSTYLE:OFF
+    private static final int BUFFER_BYTES = 64 * 1024;
+    //CHECKSTYLE:ON
+
+    /**
+     * Buffered, counting output.
+     */
+    private final CountingStream out;
+
+    /**
+     * Snapshot being written, if any.
+     */
+    private TreeSnapshot snapshot = null;
+
+    /**
+     * Constructor.
+     *
+     * @param dest Stream to write to. Not closed.
+     * @throws IOException No UTF-8 support.
+     */
+    DocSerializer(final OutputStream dest) throws IOException {
+        this(new CountingStream(dest));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param counting Output.
+     * @throws IOException No UTF-8 support.
+     */
+    private DocSerializer(final CountingStream counting) throws IOException {
+        super(counting, StandardCharsets.UTF_8.name());
+        out = counting;
+    }
+
+    /**
+     * Get the bytes written so far.
+     *
+     * @return Bytes.
+     */
+    long getBytes() {
+        return out.count;
+    }
+
+    /**
+     * Write a snapshot of a doc.
+     *
+     * @param snap Snapshot.
+     * @throws IOException Couldn't write.
+     */
+    void write(final TreeSnapshot snap) throws IOException {
+        snapshot = snap;
+        try {
+            write(snap.getDocument());
+        } finally {
+            snapshot = null;
+        }
+    }
+
+    @Override
+    protected void write(final Element element) throws IOException {
+        var content = (snapshot != null && element instanceof PageElement)
+                ? snapshot.getContent((PageElement) element) : Optional.<PageElement>empty();
+        if (content.isPresent()) {
+            writeStartTag(element);
+            var page = content.get();
+            for (int i = 0; i < page.getChildCount(); i++) {
+                writeChild(page.getChild(i));
+            }
+            writeEndTag(element);
+            return;
+        }
+        var src = element instanceof PageElement ? ((PageElement) element).getSource() : Optional.<PageSource>empty();
+        if (src.isEmpty()) {
+            super.write(element);
+            return;
+        }
+        writeStartTag(element);
+        var enc = Charset.forName(src.get().getEncoding());
+        try (var raw = src.get().openRaw()) {
+            if (enc.equals(StandardCharsets.UTF_8)) {
+                flush(); //Raw bytes go after everything already written.
+                raw.transferTo(out);
+            } else { //Markup from an older save; re-encode it.
+                writeRaw(new String(raw.readAllBytes(), enc));
+            }
+        }
+        writeEndTag(element);
+    }
+
+    /**
+     * Buffered stream that counts what goes through it.
+     */
+    private static final class CountingStream extends BufferedOutputStream {
+
+        /**
+         * Bytes written.
+         */
+        private long count = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param dest Stream to write to.
+         */
+        CountingStream(final OutputStream dest) {
+            super(dest, BUFFER_BYTES);
+        }
+
+        @Override
+        public synchronized void write(final int b) throws IOException {
+            super.write(b);
+            count++;
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+            super.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush(); //The entry is closed by its owner.
+        }
+    }
+}
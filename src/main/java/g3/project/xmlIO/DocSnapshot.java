@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.elements.DocElement;
+import g3.project.elements.ElementFactory;
+import g3.project.elements.PageElement;
+import g3.project.elements.PageSource;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import nu.xom.*;
+
+/**
+ * Compact binary form of a parsed doc, so an unchanged doc.xml can be reopened
+ * without parsing or validating it. Names and namespaces are written once and
+ * then referred to by number; stub pages keep their unparsed bytes. Snapshots
+ * and validity errors are cached under a hash of the doc.xml they came from;
+ * the errors also depend on the schemas, so their key includes those too.
+ *
+ * @author Group 3
+ */
+final class DocSnapshot {
+
+    /**
+     * Start of every snapshot.
+     */
+    //CHECKSTYLE:OFF
+    private static final int MAGIC = 0x47335350;
+    //CHECKSTYLE:ON
+
+    /**
+     * Bumped whenever the layout changes, so old snapshots are ignored.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Node kind: element.
+     */
+    private static final byte ELEMENT = 1;
+
+    /**
+     * Node kind: text.
+     */
+    private static final byte TEXT = 2;
+
+    /**
+     * Node kind: comment.
+     */
+    private static final byte COMMENT = 3;
+
+    /**
+     * Node kind: processing instruction.
+     */
+    private static final byte INSTRUCTION = 4;
+
+    /**
+     * Node kind: document type.
+     */
+    private static final byte DOCTYPE = 5;
+
+    /**
+     * Child count marking a stub page.
+     */
+    private static final int STUB = -1;
+
+    /**
+     * Hash of the schemas the errors were found with.
+     */
+    private static final String SCHEMA_HASH = schemaHash();
+
+    /**
+     * Snapshots read; for tests.
+     */
+    private static volatile int loads = 0;
+
+    /**
+     * Not instantiable.
+     */
+    private DocSnapshot() {
+    }
+
+    /**
+     * Cache key of a doc's snapshot.
+     *
+     * @param xmlHash Hash of doc.xml.
+     * @return Key.
+     */
+    static String treeKey(final String xmlHash) {
+        return "doc-snapshot|" + VERSION + "|" + xmlHash;
+    }
+
+    /**
+     * Cache key of a doc's validity errors.
+     *
+     * @param xmlHash Hash of doc.xml.
+     * @return Key.
+     */
+    static String errorsKey(final String xmlHash) {
+        return "doc-errors|" + SCHEMA_HASH + "|" + xmlHash;
+    }
+
+    /**
+     * Hash some bytes.
+     *
+     * @param data Bytes.
+     * @return Hex SHA-256.
+     */
+    static String hash(final byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); //Every JVM has SHA-256.
+        }
+        var hex = new StringBuilder();
+        for (var b : digest.digest(data)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Write a doc.
+     *
+     * @param doc Doc. Stub pages are written unparsed.
+     * @return Snapshot.
+     */
+    static byte[] write(final Document doc) {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            var names = new HashMap<String, Integer>();
+            out.writeInt(doc.getChildCount());
+            for (int i = 0; i < doc.getChildCount(); i++) {
+                writeNode(out, names, doc.getChild(i));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); //Can't happen in memory.
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a doc.
+     *
+     * @param in Snapshot.
+     * @param size Size of the snapshot in bytes.
+     * @return Doc.
+     * @throws IOException Not a snapshot, or a damaged one.
+     */
+    static Document read(final InputStream in, final long size) throws IOException {
+        var data = new SnapshotInput(in, size);
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a doc snapshot");
+        }
+        var names = new ArrayList<String>();
+        var factory = new ElementFactory();
+        var nodes = new ArrayList<Node>();
+        Element root = null;
+        var count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            var kind = data.readByte();
+            if (kind == ELEMENT) {
+                if (root != null) {
+                    throw new IOException("Two root elements");
+                }
+                root = readElement(data, names, factory, Optional.empty());
+                nodes.add(root);
+            } else {
+                nodes.add(readLeaf(data, names, kind));
+            }
+        }
+        if (root == null) {
+            throw new IOException("No root element");
+        }
+        var doc = new Document(root);
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) != root) {
+                doc.insertChild(nodes.get(i), i);
+            }
+        }
+        loads++;
+        return doc;
+    }
+
+    /**
+     * Write a list of validity errors.
+     *
+     * @param errors Errors.
+     * @return Bytes.
+     */
+    static byte[] writeErrors(final List<String> errors) {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(errors.size());
+            for (var err : errors) {
+                writeString(out, err);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a list of validity errors.
+     *
+     * @param in Bytes.
+     * @param size Size of the list in bytes.
+     * @return Errors.
+     * @throws IOException Damaged list.
+     */
+    static ArrayList<String> readErrors(final InputStream in, final long size) throws IOException {
+        var data = new SnapshotInput(in, size);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an error list");
+        }
+        var count = data.readInt();
+        var errors = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            errors.add(readString(data));
+        }
+        return errors;
+    }
+
+    /**
+     * Get the number of snapshots read.
+     *
+     * @return Count.
+     */
+    static int getLoads() {
+        return loads;
+    }
+
+    /**
+     * Write a node and its descendants.
+     *
+     * @param out Output.
+     * @param names Names written so far.
+     * @param node Node.
+     * @throws IOException Couldn't write.
+     */
+    private static void writeNode(final DataOutputStream out, final HashMap<String, Integer> names,
+            final Node node) throws IOException {
+        if (node instanceof Element) {
+            out.writeByte(ELEMENT);
+            writeElement(out, names, (Element) node);
+        } else if (node instanceof Text) {
+            out.writeByte(TEXT);
+            writeString(out, node.getValue());
+        } else if (node instanceof Comment) {
+            out.writeByte(COMMENT);
+            writeString(out, node.getValue());
+        } else if (node instanceof ProcessingInstruction) {
+            out.writeByte(INSTRUCTION);
+            writeName(out, names, ((ProcessingInstruction) node).getTarget());
+            writeString(out, node.getValue());
+        } else if (node instanceof DocType) {
+            var type = (DocType) node;
+            out.writeByte(DOCTYPE);
+            writeName(out, names, type.getRootElementName());
+            writeString(out, type.getPublicID() == null ? "" : type.getPublicID());
+            writeString(out, type.getSystemID() == null ? "" : type.getSystemID());
+            writeString(out, type.getInternalDTDSubset());
+        } else {
+            throw new IOException("Can't snapshot " + node.getClass().getName());
+        }
+    }
+
+    /**
+     * Write an element: name, attributes, namespaces, then content.
+     *
+     * @param out Output.
+     * @param names Names written so far.
+     * @param el Element.
+     * @throws IOException Couldn't write.
+     */
+    private static void writeElement(final DataOutputStream out, final HashMap<String, Integer> names,
+            final Element el) throws IOException {
+        writeName(out, names, el.getQualifiedName());
+        writeName(out, names, el.getNamespaceURI());
+        out.writeInt(el.getAttributeCount());
+        for (int i = 0; i < el.getAttributeCount(); i++) {
+            var attr = el.getAttribute(i);
+            writeName(out, names, attr.getQualifiedName());
+            writeName(out, names, attr.getNamespaceURI());
+            writeString(out, attr.getValue());
+        }
+        var prefixes = new ArrayList<String>();
+        for (int i = 0; i < el.getNamespaceDeclarationCount(); i++) {
+            var prefix = el.getNamespacePrefix(i);
+            if (!prefix.equals(el.getNamespacePrefix())) {
+                prefixes.add(prefix);
+            }
+        }
+        out.writeInt(prefixes.size());
+        for (var prefix : prefixes) {
+            writeName(out, names, prefix);
+            writeName(out, names, el.getNamespaceURI(prefix));
+        }
+        var src = el instanceof PageElement ? ((PageElement) el).getSource() : Optional.<PageSource>empty();
+        if (src.isPresent()) {
+            out.writeInt(STUB);
+            writeName(out, names, src.get().getEncoding());
+            out.writeInt(src.get().getLength());
+            try (var raw = src.get().openRaw()) {
+                raw.transferTo(out);
+            }
+            var ids = ((PageElement) el).getStubIDs();
+            out.writeInt(ids.size());
+            for (var id : ids) {
+                writeString(out, id);
+            }
+        } else {
+            out.writeInt(el.getChildCount());
+            for (int i = 0; i < el.getChildCount(); i++) {
+                writeNode(out, names, el.getChild(i));
+            }
+        }
+    }
+
+    /**
+     * Read an element and its content.
+     *
+     * @param in Input.
+     * @param names Names read so far.
+     * @param factory Makes the right element classes.
+     * @param docEl Doc the element is in, once its root is read.
+     * @return Element.
+     * @throws IOException Damaged snapshot.
+     */
+    private static Element readElement(final SnapshotInput in, final ArrayList<String> names,
+            final ElementFactory factory, final Optional<DocElement> docEl) throws IOException {
+        var name = readName(in, names);
+        var el = factory.startMakingElement(name, readName(in, names));
+        var attrs = in.readInt();
+        for (int i = 0; i < attrs; i++) {
+            var attrName = readName(in, names);
+            var attrNs = readName(in, names);
+            el.addAttribute(new Attribute(attrName, attrNs, readString(in)));
+        }
+        var prefixes = in.readInt();
+        for (int i = 0; i < prefixes; i++) {
+            var prefix = readName(in, names);
+            el.addNamespaceDeclaration(prefix, readName(in, names));
+        }
+        var doc = docEl.isEmpty() && el instanceof DocElement ? Optional.of((DocElement) el) : docEl;
+        var count = in.readInt();
+        if (count == STUB) {
+            if (!(el instanceof PageElement) || doc.isEmpty()) {
+                throw new IOException("Stub outside a page");
+            }
+            var enc = readName(in, names);
+            var content = in.readBytes();
+            var idCount = in.readInt();
+            var ids = new ArrayList<String>();
+            for (int i = 0; i < idCount; i++) {
+                ids.add(readString(in));
+            }
+            doc.get().addPageStub((PageElement) el, new PageSource(content, 0, content.length, enc), ids);
+            return el;
+        }
+        for (int i = 0; i < count; i++) {
+            var kind = in.readByte();
+            el.appendChild(kind == ELEMENT ? readElement(in, names, factory, doc) : readLeaf(in, names, kind));
+        }
+        return el;
+    }
+
+    /**
+     * Read a node that has no children.
+     *
+     * @param in Input.
+     * @param names Names read so far.
+     * @param kind Node kind.
+     * @return Node.
+     * @throws IOException Damaged snapshot.
+     */
+    private static Node readLeaf(final SnapshotInput in, final ArrayList<String> names,
+            final byte kind) throws IOException {
+        switch (kind) {
+            case TEXT:
+                return new Text(readString(in));
+            case COMMENT:
+                return new Comment(readString(in));
+            case INSTRUCTION:
+                var target = readName(in, names);
+                return new ProcessingInstruction(target, readString(in));
+            case DOCTYPE:
+                var rootName = readName(in, names);
+                var publicID = readString(in);
+                var systemID = readString(in);
+                var type = new DocType(rootName, publicID.isEmpty() ? null : publicID,
+                        systemID.isEmpty() ? null : systemID);
+                var subset = readString(in);
+                if (!subset.isEmpty()) {
+                    type.setInternalDTDSubset(subset);
+                }
+                return type;
+            default:
+                throw new IOException("Unknown node kind " + kind);
+        }
+    }
+
+    /**
+     * Write a name, or its number if already written.
+     *
+     * @param out Output.
+     * @param names Names written so far.
+     * @param name Name.
+     * @throws IOException Couldn't write.
+     */
+    private static void writeName(final DataOutputStream out, final HashMap<String, Integer> names,
+            final String name) throws IOException {
+        var num = names.get(name);
+        if (num != null) {
+            out.writeInt(num);
+        } else {
+            out.writeInt(-1);
+            writeString(out, name);
+            names.put(name, names.size());
+        }
+    }
+
+    /**
+     * Read a name.
+     *
+     * @param in Input.
+     * @param names Names read so far.
+     * @return Name.
+     * @throws IOException Damaged snapshot.
+     */
+    private static String readName(final SnapshotInput in, final ArrayList<String> names) throws IOException {
+        var num = in.readInt();
+        if (num == -1) {
+            var name = readString(in);
+            names.add(name);
+            return name;
+        } else if (num < 0 || num >= names.size()) {
+            throw new IOException("Bad name reference " + num);
+        }
+        return names.get(num);
+    }
+
+    /**
+     * Write a string of any length.
+     *
+     * @param out Output.
+     * @param str String.
+     * @throws IOException Couldn't write.
+     */
+    private static void writeString(final DataOutputStream out, final String str) throws IOException {
+        var bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string.
+     *
+     * @param in Input.
+     * @return String.
+     * @throws IOException Damaged snapshot.
+     */
+    private static String readString(final SnapshotInput in) throws IOException {
+        return new String(in.readBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hash the schemas docs are checked against.
+     *
+     * @return Hex SHA-256, or "none" if they couldn't be read.
+     */
+    private static String schemaHash() {
+        var all = new ByteArrayOutputStream();
+        for (var name : new String[]{Parse.PWS, Parse.EXT_SCHEMA}) {
+            try (var in = DocSnapshot.class.getResourceAsStream(name)) {
+                if (in == null) {
+                    return "none";
+                }
+                in.transferTo(all);
+            } catch (IOException ex) {
+                return "none";
+            }
+        }
+        return hash(all.toByteArray());
+    }
+
+    /**
+     * Snapshot input that won't believe a length longer than the snapshot.
+     */
+    private static final class SnapshotInput extends DataInputStream {
+
+        /**
+         * Size of the snapshot in bytes.
+         */
+        private final long size;
+
+        /**
+         * Constructor.
+         *
+         * @param in Snapshot.
+         * @param snapshotSize Size of the snapshot in bytes.
+         */
+        SnapshotInput(final InputStream in, final long snapshotSize) {
+            super(in);
+            this.size = snapshotSize;
+        }
+
+        /**
+         * Read a length, then that many bytes.
+         *
+         * @return Bytes.
+         * @throws IOException Damaged snapshot.
+         */
+        byte[] readBytes() throws IOException {
+            var len = readInt();
+            if (len < 0 || len > size) {
+                throw new IOException("Bad length " + len);
+            }
+            var bytes = new byte[len];
+            readFully(bytes);
+            return bytes;
+        }
+    }
+}
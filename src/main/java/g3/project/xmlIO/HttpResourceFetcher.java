@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fetches external resources over HTTP(S). Connections are kept alive and
+ * reused between requests, and responses are kept in a {@link DiskCache}.
+ * Cached responses are served without a request while fresh (Cache-Control
+ * max-age), then revalidated with a conditional GET using their ETag and
+ * Last-Modified headers.
+ *
+ * @author Group 3
+ */
+public final class HttpResourceFetcher {
+
+    //CHECKSTYLE:OFF
+    /**
+     * Default connect timeout: 5 seconds.
+     */
+    private static final long DEFAULT_CONNECT_MS = 5000;
+
+    /**
+     * Default timeout for a whole request: 30 seconds.
+     */
+    private static final long DEFAULT_REQUEST_MS = 30000;
+
+    /**
+     * HTTP Not Modified.
+     */
+    private static final int NOT_MODIFIED = 304;
+    //CHECKSTYLE:ON
+
+    /**
+     * Prefix of cache keys for response bodies.
+     */
+    private static final String BODY_KEY = "http-body|";
+
+    /**
+     * Prefix of cache keys for response validators.
+     */
+    private static final String META_KEY = "http-meta|";
+
+    /**
+     * Entity tag header, also used as its metadata name.
+     */
+    private static final String ETAG = "ETag";
+
+    /**
+     * Last modified header, also used as its metadata name.
+     */
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    /**
+     * Metadata name for the time a response stops being fresh.
+     */
+    private static final String FRESH_UNTIL = "Fresh-Until";
+
+    /**
+     * Shared fetcher, created on first use.
+     */
+    private static HttpResourceFetcher shared = null;
+
+    /**
+     * Client. Holds the connection pool.
+     */
+    private final HttpClient client;
+
+    /**
+     * Response cache. May be null.
+     */
+    private final DiskCache cache;
+
+    /**
+     * Timeout for a whole request.
+     */
+    private final Duration requestTimeout;
+
+    /**
+     * Requests sent.
+     */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Requests answered with Not Modified.
+     */
+    private final AtomicLong notModified = new AtomicLong();
+
+    /**
+     * Fetches served from the cache without a request.
+     */
+    private final AtomicLong freshHits = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param diskCache Response cache. May be null, to not cache.
+     * @param connectTimeout Most time to wait for a connection.
+     * @param timeout Most time to wait for a whole request.
+     */
+    public HttpResourceFetcher(final DiskCache diskCache, final Duration connectTimeout, final Duration timeout) {
+        cache = diskCache;
+        requestTimeout = timeout;
+        client = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Get the fetcher shared by the application. It caches in the shared
+     * {@link DiskCache}; timeouts can be set with -Dg3.httpConnectTimeoutMs
+     * and -Dg3.httpTimeoutMs.
+     *
+     * @return Shared fetcher.
+     */
+    public static synchronized HttpResourceFetcher getShared() {
+        if (shared == null) {
+            shared = new HttpResourceFetcher(DiskCache.getShared().orElse(null),
+                    Duration.ofMillis(Long.getLong("g3.httpConnectTimeoutMs", DEFAULT_CONNECT_MS)),
+                    Duration.ofMillis(Long.getLong("g3.httpTimeoutMs", DEFAULT_REQUEST_MS)));
+        }
+        return shared;
+    }
+
+    /**
+     * Can this fetcher handle a location?
+     *
+     * @param path Location.
+     * @return True if HTTP or HTTPS.
+     */
+    public static boolean handles(final String path) {
+        var lower = path.toLowerCase(Locale.ROOT);
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    /**
+     * Fetch a resource whole.
+     *
+     * @param url Resource URL.
+     * @return Maybe bytes. Empty on error or timeout.
+     */
+    public Optional<byte[]> fetch(final String url) {
+        var maybeStream = openStream(url);
+        if (maybeStream.isEmpty()) {
+            return Optional.empty();
+        }
+        try (var is = maybeStream.get()) {
+            return Optional.of(is.readAllBytes());
+        } catch (IOException ex) {
+            Logger.getLogger(HttpResourceFetcher.class.getName()).log(Level.WARNING, null, ex);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Open a stream over a resource, from the cache if possible. The caller
+     * must close the stream.
+     *
+     * @param url Resource URL.
+     * @return Maybe stream. Empty on error or timeout.
+     */
+    public Optional<InputStream> openStream(final String url) {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException ex) {
+            return Optional.empty();
+        }
+        var meta = readMeta(url);
+        InputStream cached = null;
+        if (meta.isPresent()) {
+            cached = openCached(url);
+            var until = Long.parseLong(meta.get().getProperty(FRESH_UNTIL, "0"));
+            if (cached != null && System.currentTimeMillis() < until) {
+                freshHits.incrementAndGet();
+                return Optional.of(cached);
+            }
+        }
+        var req = HttpRequest.newBuilder(uri).timeout(requestTimeout).GET();
+        if (cached != null) { //Only revalidate what we still hold.
+            var m = meta.get();
+            Optional.ofNullable(m.getProperty(ETAG)).ifPresent(v -> req.header("If-None-Match", v));
+            Optional.ofNullable(m.getProperty(LAST_MODIFIED)).ifPresent(v -> req.header("If-Modified-Since", v));
+        }
+        try {
+            requests.incrementAndGet();
+            var resp = client.send(req.build(), HttpResponse.BodyHandlers.ofInputStream());
+            var status = resp.statusCode();
+            if (status == NOT_MODIFIED && cached != null) {
+                discard(resp.body());
+                notModified.incrementAndGet();
+                writeMeta(url, resp.headers(), meta.get());
+                return Optional.of(cached);
+            }
+            closeQuietly(cached);
+            if (status < 200 || status >= 300) {
+                discard(resp.body());
+                return Optional.empty();
+            }
+            if (cache == null || hasDirective(resp.headers(), "no-store")) {
+                return Optional.of(resp.body());
+            }
+            try (var body = resp.body()) {
+                var file = cache.put(BODY_KEY + url, body);
+                writeMeta(url, resp.headers(), new Properties());
+                return Optional.of(Files.newInputStream(file));
+            }
+        } catch (IOException ex) {
+            closeQuietly(cached);
+            Logger.getLogger(HttpResourceFetcher.class.getName()).log(Level.WARNING, url, ex);
+        } catch (InterruptedException ex) {
+            closeQuietly(cached);
+            Thread.currentThread().interrupt();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Forget a cached resource.
+     *
+     * @param url Resource URL.
+     */
+    public void evict(final String url) {
+        if (cache != null) {
+            cache.remove(BODY_KEY + url);
+            cache.remove(META_KEY + url);
+        }
+    }
+
+    /**
+     * @return Requests sent over the network.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return Requests answered with Not Modified.
+     */
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    /**
+     * @return Fetches served from the cache without a request.
+     */
+    public long getFreshHits() {
+        return freshHits.get();
+    }
+
+    /**
+     * Open the cached body of a resource.
+     *
+     * @param url Resource URL.
+     * @return Stream, or null if not cached.
+     */
+    private InputStream openCached(final String url) {
+        if (cache == null) {
+            return null;
+        }
+        var file = cache.get(BODY_KEY + url);
+        try {
+            return file.isPresent() ? Files.newInputStream(file.get()) : null;
+        } catch (IOException ex) {
+            return null; //Evicted under us.
+        }
+    }
+
+    /**
+     * Read the stored validators for a resource.
+     *
+     * @param url Resource URL.
+     * @return Maybe validators.
+     */
+    private Optional<Properties> readMeta(final String url) {
+        var file = cache != null ? cache.get(META_KEY + url) : Optional.<Path>empty();
+        if (file.isEmpty()) {
+            return Optional.empty();
+        }
+        var props = new Properties();
+        try (var is = Files.newInputStream(file.get())) {
+            props.load(is);
+        } catch (IOException ex) {
+            return Optional.empty();
+        }
+        return Optional.of(props);
+    }
+
+    /**
+     * Store the validators and freshness of a response.
+     *
+     * @param url Resource URL.
+     * @param headers Response headers.
+     * @param previous Validators already held, kept where not replaced.
+     */
+    private void writeMeta(final String url, final HttpHeaders headers, final Properties previous) {
+        var props = new Properties();
+        props.putAll(previous);
+        headers.firstValue(ETAG).ifPresent(v -> props.setProperty(ETAG, v));
+        headers.firstValue(LAST_MODIFIED).ifPresent(v -> props.setProperty(LAST_MODIFIED, v));
+        var until = hasDirective(headers, "no-cache") ? 0 : System.currentTimeMillis() + maxAgeMillis(headers);
+        props.setProperty(FRESH_UNTIL, Long.toString(until));
+        try {
+            var bytes = new ByteArrayOutputStream();
+            props.store(bytes, null);
+            cache.put(META_KEY + url, new ByteArrayInputStream(bytes.toByteArray()));
+        } catch (IOException ex) {
+            Logger.getLogger(HttpResourceFetcher.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Does the Cache-Control header hold a directive?
+     *
+     * @param headers Response headers.
+     * @param directive Directive.
+     * @return True if present.
+     */
+    private static boolean hasDirective(final HttpHeaders headers, final String directive) {
+        return headers.allValues("Cache-Control").stream()
+                .flatMap(v -> Arrays.stream(v.split(",")))
+                .anyMatch(d -> d.trim().equalsIgnoreCase(directive));
+    }
+
+    /**
+     * Get how long a response stays fresh, from Cache-Control max-age.
+     *
+     * @param headers Response headers.
+     * @return Milliseconds. Zero if not given.
+     */
+    private static long maxAgeMillis(final HttpHeaders headers) {
+        //CHECKSTYLE:OFF
+        return headers.allValues("Cache-Control").stream()
+                .flatMap(v -> Arrays.stream(v.split(",")))
+                .map(String::trim)
+                .filter(d -> d.toLowerCase(Locale.ROOT).startsWith("max-age="))
+                .findFirst()
+                .map(d -> {
+                    try {
+                        return Math.max(0, Long.parseLong(d.substring(8).trim())) * 1000;
+                    } catch (NumberFormatException ex) {
+                        return 0L;
+                    }
+                }).orElse(0L);
+        //CHECKSTYLE:ON
+    }
+
+    /**
+     * Read a response body to the end and close it, so the connection can be
+     * reused.
+     *
+     * @param is Body.
+     * @throws IOException Read failed.
+     */
+    private static void discard(final InputStream is) throws IOException {
+        try (is) {
+            is.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    /**
+     * Close a stream, ignoring errors.
+     *
+     * @param is Stream. May be null.
+     */
+    private static void closeQuietly(final InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException ex) {
+                Logger.getLogger(HttpResourceFetcher.class.getName()).log(Level.FINE, null, ex);
+            }
+        }
+    }
+}
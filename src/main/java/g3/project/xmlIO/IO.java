@@ -28,21 +28,36 @@
  */
 package g3.project.xmlIO;
 
-import java.util.Optional;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import nu.xom.*;
 
 /**
@@ -50,6 +65,24 @@ import nu.xom.*;
  * @author Group 3
  */
 public abstract class IO {
+
+    /**
+     * How an archive is opened.
+     */
+    public enum OpenMode {
+        /**
+         * Indexed in place on disk.
+         */
+        FILE,
+        /**
+         * Streamed to a temp file, then indexed in place.
+         */
+        SPOOL,
+        /**
+         * Read into memory and indexed there. For small archives only.
+         */
+        MEMORY
+    }
     //CHECKSTYLE:OFF
     protected final static String mediaDirString = "/media";
 
@@ -59,6 +92,12 @@ public abstract class IO {
 
     protected final static String tempFilePrefix = "_sprestmp_";
 
+    protected final static String ALIAS_FILE_NAME = "resources.alias";
+
+    protected final static String SESSION_LOCK_NAME = ".lock";
+
+    protected final static long STALE_TEMP_MS = 60L * 60L * 1000L;
+
     /**
      * Document Name.
      */
@@ -71,8 +110,20 @@ public abstract class IO {
      */
     protected final Optional<Document> myDoc;
 
-    protected FileSystem zipFs;
+    /**
+     * Working copy. Null until the first change is made.
+     */
+    protected volatile FileSystem zipFs;
+
+    /**
+     * Archive the document was read from. Either the original file, or a
+     * spooled copy of a stream. Null if the archive is held in memory.
+     */
+    protected volatile Path basePath;
 
+    /**
+     * Temp file backing the working (overlay) Zip FS, if one exists.
+     */
     protected Path tempPath;
 
     protected Boolean allowSave = false;
@@ -81,72 +132,653 @@ public abstract class IO {
     /**
      * Temporary files requiring cleanup.
      */
-    protected final HashMap<String, Path> tempFiles = new HashMap<>();
+    protected final Map<String, Path> tempFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Resources extracted to temp files, by entry name.
+     */
+    private final Map<String, Path> extracted = new ConcurrentHashMap<>();
+
+    /**
+     * Disk cache files handed out, and the cache pinning each. They are kept
+     * from eviction until closed, as a player may still be reading them.
+     */
+    private final Map<Path, DiskCache> pinnedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Locks for temp extraction. An entry always maps to the same lock, so
+     * different entries can be extracted in parallel.
+     */
+    //CHECKSTYLE:OFF
+    private final Object[] extractLocks = new Object[16];
+    //CHECKSTYLE:ON
+
+    /**
+     * Outstanding async fetches, by tag.
+     */
+    private final Map<String, Set<CompletableFuture<?>>> fetches = new ConcurrentHashMap<>();
+
+    /**
+     * Held while changing the archive. Reads never take it.
+     */
+    protected final ReentrantLock writeLock = new ReentrantLock();
+
+    {
+        for (int i = 0; i < extractLocks.length; i++) {
+            extractLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Temp directory for this run. Locked while the app is running.
+     */
+    private static Path sessionDir = null;
+
+    /**
+     * Channel holding the session lock.
+     */
+    private static FileChannel sessionLock = null;
+
+    /**
+     * Persistent cache for extracted resources. Null to extract to temp files.
+     */
+    protected volatile DiskCache diskCache = DiskCache.getShared().orElse(null);
+
+    /**
+     * Fetcher for HTTP(S) resources.
+     */
+    protected volatile HttpResourceFetcher httpFetcher = HttpResourceFetcher.getShared();
 
     /**
-     * Create new IO and parse the project doc.
+     * Cache of resource bytes. Null unless enabled.
+     */
+    protected volatile ResourceCache cache = null;
+
+    /**
+     * Time and memory taken to open.
+     */
+    protected final OpenStats openStats;
+
+    /**
+     * Read-only index of the base archive.
+     */
+    protected volatile ArchiveIndex archiveIndex = null;
+
+    /**
+     * Has close() been called?
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Entries written to the working FS since the base was opened. These
+     * override the base archive.
+     */
+    protected final Set<String> modifiedEntries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Resource paths that are stored under another entry, e.g. because the
+     * same bytes were added more than once. Alias to entry name.
+     */
+    protected final Map<String, String> aliases = new ConcurrentHashMap<>();
+
+    /**
+     * Entries of the base archive removed since it was opened.
+     */
+    protected final Set<String> deletedEntries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Entries changed since a save captured the archive. Null unless a save
+     * is running.
+     */
+    private volatile Set<String> changedDuringSave = null;
+
+    /**
+     * Validate the doc against its schema while opening? If not, a subclass
+     * may validate later.
+     */
+    protected final boolean validateOnOpen;
+
+    /**
+     * Create new IO and parse the project doc. The archive is read in place;
+     * nothing is copied until the first change is made.
      *
      * @param presFilePath path to pres. Zip.
      */
     public IO(final String presFilePath) {
+        this(presFilePath, true);
+    }
+
+    /**
+     * Create new IO and parse the project doc. The archive is read in place;
+     * nothing is copied until the first change is made.
+     *
+     * @param presFilePath path to pres. Zip.
+     * @param validate Validate the doc while opening?
+     */
+    protected IO(final String presFilePath, final boolean validate) {
+        validateOnOpen = validate;
+        var probe = OpenStats.start(OpenMode.FILE);
 
         var presFileUriString = pathToUriString(presFilePath);
         var presFileUriOpt = maybeURI(presFileUriString);
         var zipFile = presFileUriOpt.filter(uri -> uri.getPath().matches("^.*\\.(zip|ZIP|spres|SPRES)$"))
                 .flatMap(Uri -> getArchive(Uri)); //Retrieve the Zip archive.
-        var fsOpt = zipFile.flatMap(file -> {
+        var indexed = zipFile.filter(file -> {
             docName = file.getName();
             origZip = file;
             allowSave = true;
-            try {
-                tempPath = Files.createTempFile(tempFilePrefix, "");
-                Files.copy(file.toPath(), tempPath, StandardCopyOption.REPLACE_EXISTING);
-                tempFiles.put(docName, tempPath);
-            } catch (IOException ex) {
-                Logger.getLogger(ToolIO.class.getName()).log(Level.SEVERE, null, ex);
-                return null;
-            }
-            return makeFs(tempPath);
-        }); //Get the zip file-system. Maybe.
+            return openBase(file.toPath());
+        }); //Index the zip in place. Maybe.
 
-        myDoc = fsOpt.flatMap(fs -> {
-            zipFs = fs;            
-            return retrieveDoc(fs);
-        }); //Maybe get the doc.
+        myDoc = indexed.flatMap(f -> retrieveDoc()); //Maybe get the doc.
+        openStats = probe.finish();
+        Logger.getLogger(IO.class.getName()).log(Level.FINE, "{0}", openStats);
     }
 
     /**
-     * Build from a byte array.
+     * Build from a stream, spooling it to a temp file.
      *
      * @param presStream Stream containing archive.
      */
     public IO(final InputStream presStream) {
+        this(presStream, OpenMode.SPOOL);
+    }
+
+    /**
+     * Build from a stream. SPOOL copies the stream to a temp file through a
+     * small fixed buffer, so the archive is never held on the heap. MEMORY
+     * reads it into memory and never touches the filesystem; use it only for
+     * small archives.
+     *
+     * @param presStream Stream containing archive.
+     * @param mode SPOOL or MEMORY.
+     */
+    public IO(final InputStream presStream, final OpenMode mode) {
+        this(presStream, mode, true);
+    }
+
+    /**
+     * Build from a stream.
+     *
+     * @param presStream Stream containing archive.
+     * @param mode SPOOL or MEMORY.
+     * @param validate Validate the doc while opening?
+     */
+    protected IO(final InputStream presStream, final OpenMode mode, final boolean validate) {
+        validateOnOpen = validate;
+        var probe = OpenStats.start(mode);
         docName = "unknown.spres";
-        Optional<FileSystem> fsOpt = Optional.empty();
+        allowSave = false;
+        var opened = false;
         try {
-            tempPath = Files.createTempFile(tempFilePrefix, "");
-            tempFiles.put(docName, tempPath);
-            var pres = presStream.readAllBytes();
-            allowSave = false;
-            Files.write(tempPath, pres);
-            fsOpt = makeFs(tempPath);
+            if (mode == OpenMode.MEMORY) {
+                opened = setBase(ArchiveIndex.open(ByteBuffer.wrap(presStream.readAllBytes())), null);
+            } else {
+                var spool = createTempFile();
+                tempFiles.put(docName, spool);
+                Files.copy(presStream, spool, StandardCopyOption.REPLACE_EXISTING);
+                opened = openBase(spool);
+            }
         } catch (IOException | NullPointerException ex) {
-            Logger.getLogger(ToolIO.class.getName()).log(Level.SEVERE, null, ex);
+            Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
         }
 
-        myDoc = fsOpt.flatMap(fs -> {
-            zipFs = fs;
-            return retrieveDoc(fs);
-        });
+        myDoc = opened ? retrieveDoc() : Optional.empty();
+        openStats = probe.finish();
+        Logger.getLogger(IO.class.getName()).log(Level.FINE, "{0}", openStats);
+    }
+
+    /**
+     * Get this run's temp directory, creating and locking it on first use.
+     *
+     * @return Session directory.
+     * @throws IOException Couldn't create it.
+     */
+    protected static synchronized Path getSessionDir() throws IOException {
+        if (sessionDir == null) {
+            var dir = Files.createTempDirectory(tempFilePrefix + "session-");
+            var ch = FileChannel.open(dir.resolve(SESSION_LOCK_NAME),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            ch.lock(); //Held until exit; tells cleanupStaleTemps() we're alive.
+            sessionLock = ch;
+            sessionDir = dir;
+        }
+        return sessionDir;
+    }
+
+    /**
+     * Make a new temp file in this run's temp directory.
+     *
+     * @return New, empty, temp file.
+     * @throws IOException Couldn't create it.
+     */
+    protected static Path createTempFile() throws IOException {
+        return Files.createTempFile(getSessionDir(), tempFilePrefix, "");
+    }
+
+    /**
+     * Delete temp files left behind by runs that are no longer alive, e.g.
+     * after a crash. Session directories are removed if nobody holds their
+     * lock; loose temp files are removed once they are an hour old.
+     *
+     * @return Number of files and directories removed.
+     */
+    public static int cleanupStaleTemps() {
+        var removed = 0;
+        var tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+        try (var list = Files.list(tmp)) {
+            for (var p : list.filter(f -> f.getFileName().toString().startsWith(tempFilePrefix))
+                    .collect(Collectors.toList())) {
+                if (p.equals(sessionDir)) {
+                    continue;
+                } else if (Files.isDirectory(p)) {
+                    if (isSessionStale(p)) {
+                        removed += deleteTree(p);
+                    }
+                } else if (System.currentTimeMillis() - Files.getLastModifiedTime(p).toMillis() > STALE_TEMP_MS) {
+                    removed += Files.deleteIfExists(p) ? 1 : 0;
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(IO.class.getName()).log(Level.WARNING, null, ex);
+        }
+        return removed;
+    }
+
+    /**
+     * Is a session directory left over from a dead run?
+     *
+     * @param dir Session directory.
+     * @return True if no live run holds its lock.
+     */
+    private static boolean isSessionStale(final Path dir) {
+        var lockFile = dir.resolve(SESSION_LOCK_NAME);
+        if (!Files.exists(lockFile)) {
+            try {
+                return System.currentTimeMillis() - Files.getLastModifiedTime(dir).toMillis() > STALE_TEMP_MS;
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+        try (var ch = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            var lock = ch.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (IOException | OverlappingFileLockException ex) {
+            return false; //Held by us, or can't tell.
+        }
+    }
+
+    /**
+     * Delete a directory and everything in it.
+     *
+     * @param dir Directory.
+     * @return Number of files and directories removed.
+     */
+    private static int deleteTree(final Path dir) {
+        var removed = 0;
+        try (var walk = Files.walk(dir)) {
+            for (var p : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                removed += Files.deleteIfExists(p) ? 1 : 0;
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(IO.class.getName()).log(Level.WARNING, null, ex);
+        }
+        return removed;
+    }
+
+    /**
+     * Use a different persistent cache for extracted resources.
+     *
+     * @param cache Cache, or null to extract to temp files.
+     */
+    public void setDiskCache(final DiskCache cache) {
+        diskCache = cache;
     }
 
     /**
-     * Get doc from FileSystem. Must be implemented by subclass!
+     * Use a different fetcher for HTTP(S) resources.
+     *
+     * @param fetcher Fetcher.
+     */
+    public void setHttpFetcher(final HttpResourceFetcher fetcher) {
+        httpFetcher = fetcher;
+    }
+
+    /**
+     * Identify the archive, for persistent cache keys.
+     *
+     * @return Archive identity.
+     */
+    private String archiveIdentity() {
+        return origZip != null ? origZip.getAbsolutePath() : docName;
+    }
+
+    /**
+     * Index a new base archive, discarding any working changes.
+     *
+     * @param base Archive to read from.
+     * @return Succeeded?
+     */
+    protected final boolean openBase(final Path base) {
+        try {
+            return setBase(ArchiveIndex.open(base), base);
+        } catch (IOException ex) {
+            Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Replace the base archive, discarding any working changes.
+     *
+     * @param index Index of new base.
+     * @param base Path of new base, or null if it's in memory.
+     * @return Succeeded?
+     */
+    private boolean setBase(final ArchiveIndex index, final Path base) {
+        writeLock.lock();
+        try {
+            //Publish the new index first, so readers never see a gap.
+            var old = archiveIndex;
+            archiveIndex = index;
+            basePath = base;
+            loadAliases(index);
+            discardWorkingFs();
+            var c = cache;
+            if (c != null) {
+                c.clear();
+            }
+            extracted.keySet().forEach(this::invalidate);
+            if (old != null) {
+                try {
+                    old.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(IO.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Get the working Zip FS, creating it on first use. It only holds entries
+     * that have been written since the base archive was opened.
+     *
+     * @return Working FS.
+     * @throws IOException Couldn't create it.
+     */
+    protected final FileSystem getWorkingFs() throws IOException {
+        writeLock.lock();
+        try {
+            if (zipFs == null) {
+                var overlay = createTempFile();
+                Files.delete(overlay); //Let the Zip FS create it.
+                var fs = makeFs(overlay, false); //Compression is chosen at save.
+                if (fs.isEmpty()) {
+                    throw new IOException("Couldn't create working copy");
+                }
+                tempPath = overlay;
+                zipFs = fs.get();
+            }
+            return zipFs;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Close and remove the working FS, if any.
+     */
+    protected final void discardWorkingFs() {
+        writeLock.lock();
+        try {
+            //Forget the entries first, so readers stop looking in the working FS.
+            modifiedEntries.clear();
+            deletedEntries.clear();
+            if (zipFs != null) {
+                try {
+                    zipFs.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
+                }
+                zipFs = null;
+            }
+            if (tempPath != null) {
+                tempPath.toFile().delete();
+                tempPath = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Record that an entry has been written to the working FS.
+     *
+     * @param path Resource path.
+     */
+    protected final void markModified(final String path) {
+        var name = ArchiveIndex.normalise(path);
+        deletedEntries.remove(name);
+        modifiedEntries.add(name);
+        noteChange(name);
+        invalidate(name);
+    }
+
+    /**
+     * Record that an entry has been removed.
+     *
+     * @param path Resource path.
+     */
+    protected final void markDeleted(final String path) {
+        var name = ArchiveIndex.normalise(path);
+        modifiedEntries.remove(name);
+        deletedEntries.add(name);
+        noteChange(name);
+        invalidate(name);
+    }
+
+    /**
+     * Note a changed entry for a running save.
+     *
+     * @param name Entry name.
+     */
+    private void noteChange(final String name) {
+        var changed = changedDuringSave;
+        if (changed != null) {
+            changed.add(name);
+        }
+    }
+
+    /**
+     * Start noting the entries changed while a save runs. Call with the
+     * write lock held, as the save captures the archive.
+     */
+    protected final void startNotingChanges() {
+        changedDuringSave = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Stop noting changed entries. Call with the write lock held.
+     *
+     * @return Entries changed since startNotingChanges().
+     */
+    protected final Set<String> stopNotingChanges() {
+        var changed = changedDuringSave;
+        changedDuringSave = null;
+        return (changed != null) ? changed : Set.of();
+    }
+
+    /**
+     * Forget any cached copy or extracted temp file of an entry.
+     *
+     * @param name Entry name.
+     */
+    protected final void invalidate(final String name) {
+        var c = cache;
+        if (c != null) {
+            c.invalidate(name);
+        }
+        synchronized (extractLock(name)) {
+            extracted.remove(name); //File stays in tempFiles; it may still be in use.
+        }
+    }
+
+    /**
+     * Get the extraction lock for an entry.
+     *
+     * @param name Entry name.
+     * @return Lock.
+     */
+    private Object extractLock(final String name) {
+        return extractLocks[Math.floorMod(name.hashCode(), extractLocks.length)];
+    }
+
+    /**
+     * Cache resources read from the archive, up to the given number of bytes.
+     * Replaces any existing cache.
+     *
+     * @param budgetBytes Maximum bytes held.
+     */
+    public void enableCache(final long budgetBytes) {
+        cache = new ResourceCache(budgetBytes);
+    }
+
+    /**
+     * Stop caching resources, and drop any already cached.
+     */
+    public void disableCache() {
+        cache = null;
+    }
+
+    /**
+     * Get the resource cache, if enabled.
+     *
+     * @return Maybe cache.
+     */
+    public Optional<ResourceCache> getResourceCache() {
+        return Optional.ofNullable(cache);
+    }
+
+    /**
+     * Is the entry held in the working FS?
+     *
+     * @param path Resource path.
+     * @return True if modified.
+     */
+    protected final boolean isModified(final String path) {
+        return modifiedEntries.contains(ArchiveIndex.normalise(path));
+    }
+
+    /**
+     * Get the base archive entry for a path, if it hasn't been changed.
+     *
+     * @param index Base archive index, read once by the caller.
+     * @param path Resource path.
+     * @return Maybe entry.
+     */
+    private Optional<ArchiveIndex.Entry> indexedEntry(final ArchiveIndex index, final String path) {
+        var name = ArchiveIndex.normalise(path);
+        if (index == null || modifiedEntries.contains(name) || deletedEntries.contains(name)) {
+            return Optional.empty();
+        }
+        return index.getEntry(name).filter(e -> !e.isDirectory());
+    }
+
+    /**
+     * Read the alias table from an archive, replacing the current one.
+     *
+     * @param index Archive.
+     */
+    private void loadAliases(final ArchiveIndex index) {
+        var table = new Properties();
+        var entry = index.getEntry(ALIAS_FILE_NAME);
+        if (entry.isPresent()) {
+            try (var reader = new InputStreamReader(index.getStream(entry.get()), StandardCharsets.UTF_8)) {
+                table.load(reader);
+            } catch (IOException ex) {
+                Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        aliases.clear();
+        table.forEach((alias, target) -> aliases.put((String) alias, (String) target));
+    }
+
+    /**
+     * Turn a resource path into the name of the entry holding it, following
+     * the alias table.
+     *
+     * @param path Resource path.
+     * @return Entry name.
+     */
+    protected final String resolve(final String path) {
+        var name = ArchiveIndex.normalise(path);
+        return aliases.getOrDefault(name, name);
+    }
+
+    /**
+     * Get the location a resource is actually read from. Paths that alias the
+     * same content resolve to the same location.
+     *
+     * @param path Resource path.
+     * @return Canonical location.
+     */
+    public String resolveResource(final String path) {
+        return isUriInternal(path) ? resolve(path) : path;
+    }
+
+    /**
+     * Get the uncompressed size of an internal resource, without reading it.
+     *
+     * @param path Resource path.
+     * @return Maybe size in bytes. Empty if missing or external.
+     */
+    public Optional<Long> getResourceSize(final String path) {
+        if (!isUriInternal(path)) {
+            return Optional.empty();
+        }
+        var name = resolve(path);
+        var entry = indexedEntry(archiveIndex, name);
+        if (entry.isPresent()) {
+            return Optional.of(entry.get().getSize());
+        }
+        try {
+            var working = workingPath(name);
+            if (working.isPresent()) {
+                return Optional.of(Files.size(working.get()));
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Get a path in the working FS, for an entry that has been modified.
+     *
+     * @param path Resource path.
+     * @return Maybe path.
+     */
+    private Optional<Path> workingPath(final String path) {
+        var fs = zipFs;
+        if (fs == null || !isModified(path)) {
+            return Optional.empty();
+        }
+        return Optional.of(fs.getPath(path));
+    }
+
+    /**
+     * Get doc from the archive. Must be implemented by subclass!
      *
-     * @param fs FileSystem
      * @return Maybe Doc.
      */
-    protected abstract Optional<Document> retrieveDoc(final FileSystem fs);
+    protected abstract Optional<Document> retrieveDoc();
 
     /**
      * Make a new Zip FS.
@@ -155,8 +787,20 @@ public abstract class IO {
      * @return Maybe FS.
      */
     protected static final Optional<FileSystem> makeFs(final Path path) {
+        return makeFs(path, true);
+    }
+
+    /**
+     * Make a new Zip FS.
+     *
+     * @param path Path to zip
+     * @param compress Deflate entries?
+     * @return Maybe FS.
+     */
+    protected static final Optional<FileSystem> makeFs(final Path path, final boolean compress) {
         HashMap<String, String> env = new HashMap<>();
         env.put("create", "true");
+        env.put("noCompression", Boolean.toString(!compress));
         FileSystem fs = null;
         try {
             var urStr = path.toAbsolutePath().toFile().toURI().toString();
@@ -185,6 +829,15 @@ public abstract class IO {
         return Optional.ofNullable(zipFile);
     }
 
+    /**
+     * Get the time and memory taken to open.
+     *
+     * @return Stats.
+     */
+    public OpenStats getOpenStats() {
+        return openStats;
+    }
+
     /**
      * Get parsed document.
      *
@@ -200,47 +853,233 @@ public abstract class IO {
      * @param path Resource path.
      * @return Optional resource bytes.
      */
-    public synchronized Optional<byte[]> getResource(final String path) {
-        byte[] arr = null;
+    public Optional<byte[]> getResource(final String path) {
+        return getResourceBuffer(path).map(buf -> {
+            if (buf.hasArray() && buf.arrayOffset() == 0 && buf.array().length == buf.remaining()) {
+                return buf.array();
+            }
+            var arr = new byte[buf.remaining()];
+            buf.get(arr);
+            return arr;
+        });
+    }
+
+    /**
+     * Run a task on the shared I/O pool. Tagged tasks can be dropped together
+     * with cancelFetches(), e.g. when leaving the card that asked for them.
+     *
+     * @param <T> Result type.
+     * @param tag Tag, or null.
+     * @param task Task.
+     * @return Future result.
+     */
+    public <T> CompletableFuture<T> submit(final String tag, final Supplier<T> task) {
+        var key = tag == null ? "" : tag;
+        var future = ResourceExecutor.getShared().submit(task);
+        fetches.compute(key, (k, set) -> {
+            var pending = set == null ? ConcurrentHashMap.<CompletableFuture<?>>newKeySet() : set;
+            pending.add(future);
+            return pending;
+        });
+        future.whenComplete((r, ex) -> fetches.computeIfPresent(key, (k, set) -> {
+            set.remove(future);
+            return set.isEmpty() ? null : set;
+        }));
+        return future;
+    }
+
+    /**
+     * Fetch a resource on the I/O pool.
+     *
+     * @param path Resource path.
+     * @param tag Tag, or null.
+     * @return Future resource bytes.
+     */
+    public CompletableFuture<Optional<byte[]>> fetchResource(final String path, final String tag) {
+        return submit(tag, () -> getResource(path));
+    }
+
+    /**
+     * Fetch a resource buffer on the I/O pool.
+     *
+     * @param path Resource path.
+     * @param tag Tag, or null.
+     * @return Future resource buffer.
+     */
+    public CompletableFuture<Optional<ByteBuffer>> fetchResourceBuffer(final String path, final String tag) {
+        return submit(tag, () -> getResourceBuffer(path));
+    }
+
+    /**
+     * Extract a resource to a temp file on the I/O pool.
+     *
+     * @param path Resource path.
+     * @param tag Tag, or null.
+     * @return Future temp file path.
+     */
+    public CompletableFuture<Optional<String>> fetchResourceTempPath(final String path, final String tag) {
+        return submit(tag, () -> getResourceTempPath(path));
+    }
+
+    /**
+     * Drop all outstanding fetches with a tag. Their futures are cancelled, so
+     * dependent actions never run.
+     *
+     * @param tag Tag.
+     */
+    public void cancelFetches(final String tag) {
+        var pending = fetches.remove(tag == null ? "" : tag);
+        if (pending != null) {
+            pending.forEach(f -> f.cancel(false));
+        }
+    }
+
+    /**
+     * Drop all outstanding fetches.
+     */
+    public void cancelAllFetches() {
+        fetches.keySet().forEach(this::cancelFetches);
+    }
+
+    /**
+     * Get a resource as a read-only buffer. Stored entries are slices of the
+     * mapped archive, so no copy is made.
+     *
+     * @param path Resource path.
+     * @return Optional resource buffer.
+     */
+    public Optional<ByteBuffer> getResourceBuffer(final String path) {
+        ByteBuffer buf = null;
         if (isUriInternal(path)) { //Get an internal resource
-            var fPath = zipFs.getPath(path);
+            var name = resolve(path);
+            var c = cache;
+            var cached = c != null ? c.get(name) : Optional.<ByteBuffer>empty();
+            if (cached.isPresent()) {
+                return cached;
+            }
+            var generation = c != null ? c.getGeneration() : 0;
             try {
-                arr = Files.readAllBytes(fPath);
+                var index = archiveIndex;
+                var entry = indexedEntry(index, name);
+                var working = workingPath(name);
+                if (entry.isPresent()) {
+                    buf = index.getBuffer(entry.get());
+                } else if (working.isPresent()) {
+                    buf = ByteBuffer.wrap(Files.readAllBytes(working.get())).asReadOnlyBuffer();
+                }
             } catch (IOException ex) {
-                
+
+            }
+            if (buf != null && c != null) {
+                c.put(name, buf.duplicate(), generation);
             }
+        } else if (HttpResourceFetcher.handles(path)) { //Get a web resource
+            buf = httpFetcher.fetch(path).map(ByteBuffer::wrap).orElse(null);
         } else { //Get an external resource
-            try {
-                var uri = new URI(path);
-                var is = uri.toURL().openStream();
-                arr = is.readAllBytes();
+            try (var is = new URI(path).toURL().openStream()) {
+                buf = ByteBuffer.wrap(is.readAllBytes());
             } catch (URISyntaxException | MalformedURIException | IOException ex) {
             }
         }
-        return Optional.ofNullable(arr);
+        return Optional.ofNullable(buf);
+    }
+
+    /**
+     * Open a stream over a resource. Deflated entries are inflated as they are
+     * read. The caller must close the stream.
+     *
+     * @param path Resource path.
+     * @return Optional resource stream.
+     */
+    public Optional<InputStream> getResourceStream(final String path) {
+        InputStream is = null;
+        try {
+            if (isUriInternal(path)) { //Get an internal resource
+                var name = resolve(path);
+                var index = archiveIndex;
+                var entry = indexedEntry(index, name);
+                var working = workingPath(name);
+                var c = cache;
+                if (c != null && c.admits(entry.isPresent() ? entry.get().getSize()
+                        : working.isPresent() ? Files.size(working.get()) : Long.MAX_VALUE)) {
+                    //Small enough to cache, so read it whole.
+                    is = getResourceBuffer(name).map(ArchiveIndex.BufferStream::new).orElse(null);
+                } else if (entry.isPresent()) {
+                    is = index.getStream(entry.get());
+                } else if (working.isPresent()) {
+                    is = Files.newInputStream(working.get());
+                }
+            } else if (HttpResourceFetcher.handles(path)) { //Get a web resource
+                is = httpFetcher.openStream(path).orElse(null);
+            } else { //Get an external resource
+                is = new URI(path).toURL().openStream();
+            }
+        } catch (URISyntaxException | MalformedURIException | IOException ex) {
+        }
+        return Optional.ofNullable(is);
     }
 
     /**
-     * Extract a resource from the zip and return its path.
+     * Extract a resource from the zip and return its path. Unchanged entries
+     * are extracted into the persistent disk cache, so reopening the same
+     * archive finds them already there.
      *
      * @param path Resource path.
      * @return Optional resource bytes.
      */
-    public synchronized Optional<String> getResourceTempPath(final String path) {
+    public Optional<String> getResourceTempPath(final String path) {
         if (isUriInternal(path)) { //Get an internal resource
-            var cached = tempFiles.get(path); //Have we seen it before?
-            if (cached != null) {
-                return Optional.of(cached.toAbsolutePath().toString());
+            var name = resolve(path);
+            var done = extracted.get(name); //Have we seen it before?
+            if (done != null && Files.isRegularFile(done)) {
+                return Optional.of(done.toAbsolutePath().toString());
             }
-            var fPath = zipFs.getPath(path);
-            try {
-                var tempfPath = Files.createTempFile(tempFilePrefix, "");
-                Files.copy(fPath, tempfPath, StandardCopyOption.REPLACE_EXISTING);
-                tempFiles.put(path, tempfPath);
-                return Optional.of(tempfPath.toAbsolutePath().toString());
-            } catch (IOException ex) {
-                Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
-                return Optional.empty();
+            synchronized (extractLock(name)) {
+                done = extracted.get(name); //Extracted while we waited?
+                if (done != null && Files.isRegularFile(done)) {
+                    return Optional.of(done.toAbsolutePath().toString());
+                }
+                extracted.remove(name); //Gone, e.g. evicted by another instance.
+                var index = archiveIndex;
+                var entry = indexedEntry(index, name);
+                var dc = diskCache;
+                if (entry.isPresent() && dc != null) {
+                    //Unchanged entry: share one extraction between runs.
+                    var e = entry.get();
+                    var key = archiveIdentity() + "|" + name + "|" + Long.toHexString(e.getCrc()) + "|" + e.getSize();
+                    var file = dc.pin(key); //Before it's there, so it can't be evicted once it is.
+                    if (pinnedFiles.putIfAbsent(file, dc) != null) {
+                        dc.unpin(file); //Already held.
+                    }
+                    try {
+                        var hit = dc.get(key);
+                        if (hit.isPresent()) {
+                            done = hit.get();
+                        } else {
+                            try (var is = index.getStream(e)) {
+                                done = dc.put(key, is);
+                            }
+                        }
+                        extracted.put(name, done);
+                        return Optional.of(done.toAbsolutePath().toString());
+                    } catch (IOException ex) {
+                        Logger.getLogger(IO.class.getName()).log(Level.WARNING, null, ex);
+                    }
+                }
+                var resStream = getResourceStream(name);
+                if (resStream.isEmpty()) {
+                    return Optional.empty();
+                }
+                try (var is = resStream.get()) {
+                    var tempfPath = createTempFile();
+                    tempFiles.put(tempfPath.toString(), tempfPath);
+                    Files.copy(is, tempfPath, StandardCopyOption.REPLACE_EXISTING);
+                    extracted.put(name, tempfPath);
+                    return Optional.of(tempfPath.toAbsolutePath().toString());
+                } catch (IOException ex) {
+                    Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
+                    return Optional.empty();
+                }
             }
         } else { //External resource. Return input.
             return Optional.of(path);
@@ -334,19 +1173,39 @@ public abstract class IO {
         return Optional.ofNullable(uri);
     }
 
+    /**
+     * Has this been closed?
+     *
+     * @return True once closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
     /**
      * Closes associated File Systems. Must be run when object is finished with.
      */
     public void close() {
-        if (zipFs != null) {
-            try {
-                zipFs.close();
-            } catch (IOException ex) {
-                Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
+        cancelAllFetches();
+        writeLock.lock();
+        try {
+            closed = true;
+            if (archiveIndex != null) {
+                try {
+                    archiveIndex.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(IO.class.getName()).log(Level.SEVERE, null, ex);
+                }
+                archiveIndex = null; //Late saves fail cleanly.
             }
+            discardWorkingFs();
+            pinnedFiles.forEach((f, dc) -> dc.unpin(f));
+            pinnedFiles.clear();
+            tempFiles.forEach((id, p) -> {
+                p.toFile().delete();
+            });
+        } finally {
+            writeLock.unlock();
         }
-        tempFiles.forEach((id, p) -> {
-            p.toFile().delete();
-        });
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+
+/**
+ * Time and memory taken to open an archive. Memory is what the opening
+ * thread allocated, so other threads' work isn't counted; work the open hands
+ * off to other threads isn't either.
+ *
+ * @author Group 3
+ */
+public final class OpenStats {
+
+    /**
+     * How the archive was opened.
+     */
+    private final IO.OpenMode mode;
+
+    /**
+     * Time taken, in nanoseconds.
+     */
+    private final long nanos;
+
+    /**
+     * Heap allocated while opening, in bytes, or -1 if not known.
+     */
+    private final long allocatedBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param openMode Mode.
+     * @param time Time in ns.
+     * @param allocated Heap allocated, or -1.
+     */
+    private OpenStats(final IO.OpenMode openMode, final long time, final long allocated) {
+        mode = openMode;
+        nanos = time;
+        allocatedBytes = allocated;
+    }
+
+    /**
+     * Start measuring an open.
+     *
+     * @param openMode Mode.
+     * @return Probe to finish.
+     */
+    static Probe start(final IO.OpenMode openMode) {
+        return new Probe(openMode);
+    }
+
+    /**
+     * @return How the archive was opened.
+     */
+    public IO.OpenMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Time taken, in milliseconds.
+     */
+    public double getMillis() {
+        //CHECKSTYLE:OFF
+        return nanos / 1e6;
+        //CHECKSTYLE:ON
+    }
+
+    /**
+     * @return Heap allocated while opening, in bytes, or -1 if the JVM can't
+     * tell.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        if (allocatedBytes < 0) {
+            return String.format("%s open: %.1f ms", mode, getMillis());
+        }
+        return String.format("%s open: %.1f ms, allocated %d KiB", mode, getMillis(), allocatedBytes / 1024);
+    }
+
+    /**
+     * In-progress measurement.
+     */
+    static final class Probe {
+
+        /**
+         * Mode.
+         */
+        private final IO.OpenMode mode;
+        /**
+         * Per-thread allocation counter, if the JVM has one.
+         */
+        private final Optional<com.sun.management.ThreadMXBean> threads;
+        /**
+         * Thread doing the open.
+         */
+        private final long threadID;
+        /**
+         * Bytes the thread had allocated at start.
+         */
+        private final long baseline;
+        /**
+         * Start time.
+         */
+        private final long startNanos;
+
+        /**
+         * Constructor.
+         *
+         * @param openMode Mode.
+         */
+        Probe(final IO.OpenMode openMode) {
+            mode = openMode;
+            threads = Optional.of(ManagementFactory.getThreadMXBean())
+                    .filter(com.sun.management.ThreadMXBean.class::isInstance)
+                    .map(com.sun.management.ThreadMXBean.class::cast)
+                    .filter(t -> t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled());
+            threadID = Thread.currentThread().getId();
+            baseline = threads.map(t -> t.getThreadAllocatedBytes(threadID)).orElse(-1L);
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Finish measuring.
+         *
+         * @return Stats.
+         */
+        OpenStats finish() {
+            var time = System.nanoTime() - startNanos;
+            var allocated = threads.map(t -> t.getThreadAllocatedBytes(threadID))
+                    .filter(b -> b >= 0 && baseline >= 0)
+                    .map(b -> b - baseline)
+                    .orElse(-1L);
+            return new OpenStats(mode, time, allocated);
+        }
+    }
+}
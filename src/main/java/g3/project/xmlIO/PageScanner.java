@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the pages out of a doc.xml without parsing it. Finds each top-level
+ * page's content by byte offset and the IDs declared inside it, and builds a
+ * skeleton of the document with the page contents cut out. Only handles the
+ * markup this app writes: gives up on DOCTYPE internal subsets and encodings
+ * that aren't ASCII-compatible, so the caller can parse the whole thing.
+ *
+ * @author Group 3
+ */
+final class PageScanner {
+
+    /**
+     * Qualified name of page elements.
+     */
+    private static final String PAGE_NAME = "base:page";
+
+    /**
+     * Finds the ID attribute in a tag.
+     */
+    private static final Pattern ID_ATTR = attrPattern("ID");
+
+    /**
+     * Finds the encoding in an XML declaration.
+     */
+    private static final Pattern ENCODING_ATTR = attrPattern("encoding");
+
+    /**
+     * One page found by the scanner.
+     */
+    static final class Page {
+
+        /**
+         * Offset of the page's content, just after its start tag.
+         */
+        private final int start;
+
+        /**
+         * Offset just past the page's content, at its end tag.
+         */
+        private final int end;
+
+        /**
+         * IDs declared inside the page.
+         */
+        private final List<String> ids;
+
+        /**
+         * Constructor.
+         *
+         * @param from Content start.
+         * @param to Content end.
+         * @param idList IDs inside.
+         */
+        private Page(final int from, final int to, final List<String> idList) {
+            start = from;
+            end = to;
+            ids = idList;
+        }
+
+        /**
+         * @return Offset of the content.
+         */
+        int getStart() {
+            return start;
+        }
+
+        /**
+         * @return Offset just past the content.
+         */
+        int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return IDs declared inside the page.
+         */
+        List<String> getIDs() {
+            return ids;
+        }
+    }
+
+    /**
+     * Scanned document.
+     */
+    static final class Result {
+
+        /**
+         * The document with page contents cut out.
+         */
+        private final byte[] skeleton;
+
+        /**
+         * Encoding of the document.
+         */
+        private final String encoding;
+
+        /**
+         * Pages, in document order.
+         */
+        private final List<Page> pages;
+
+        /**
+         * Constructor.
+         *
+         * @param skel Skeleton.
+         * @param enc Encoding.
+         * @param found Pages.
+         */
+        private Result(final byte[] skel, final String enc, final List<Page> found) {
+            skeleton = skel;
+            encoding = enc;
+            pages = found;
+        }
+
+        /**
+         * @return The document with page contents cut out.
+         */
+        byte[] getSkeleton() {
+            return skeleton;
+        }
+
+        /**
+         * @return Encoding of the document.
+         */
+        String getEncoding() {
+            return encoding;
+        }
+
+        /**
+         * @return Pages, in document order.
+         */
+        List<Page> getPages() {
+            return pages;
+        }
+    }
+
+    /**
+     * Document being scanned.
+     */
+    private final byte[] xml;
+
+    /**
+     * Scan position.
+     */
+    private int pos = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param data Document.
+     */
+    private PageScanner(final byte[] data) {
+        xml = data;
+    }
+
+    /**
+     * Scan a document.
+     *
+     * @param xml Document bytes.
+     * @return Maybe the split document. Empty if it can't be handled (or isn't
+     * well formed), in which case it should be parsed whole.
+     */
+    static Optional<Result> scan(final byte[] xml) {
+        try {
+            return new PageScanner(xml).run();
+        } catch (IndexOutOfBoundsException ex) {
+            return Optional.empty(); //Ran off the end: truncated markup.
+        }
+    }
+
+    /**
+     * Scan the document.
+     *
+     * @return Maybe the split document.
+     */
+    private Optional<Result> run() {
+        //CHECKSTYLE:OFF
+        var encoding = "UTF-8";
+        if (xml.length >= 2 && ((xml[0] & 0xFF) == 0xFE || (xml[0] & 0xFF) == 0xFF || xml[0] == 0 || xml[1] == 0)) {
+            return Optional.empty(); //UTF-16 or UTF-32.
+        }
+        if (startsWith("\u00EF\u00BB\u00BF")) {
+            pos = 3; //UTF-8 BOM
+        }
+        if (startsWith("<?xml")) {
+            var declEnd = indexOf("?>", pos);
+            var enc = attrValue(new String(xml, pos, declEnd - pos, StandardCharsets.ISO_8859_1), ENCODING_ATTR);
+            if (enc.isPresent()) {
+                encoding = enc.get();
+            }
+        }
+        if (!asciiCompatible(encoding)) {
+            return Optional.empty();
+        }
+        //CHECKSTYLE:ON
+        var charset = Charset.forName(encoding);
+        var pages = new ArrayList<Page>();
+        var depth = 0;
+        var pageStart = -1;
+        List<String> ids = null;
+        var rootSeen = false;
+        while (true) {
+            var lt = indexOf("<", pos);
+            if (lt < 0) {
+                break;
+            }
+            pos = lt;
+            if (startsWith("<!--")) {
+                pos = indexOf("-->", pos) + 3;
+            } else if (startsWith("<![CDATA[")) {
+                pos = indexOf("]]>", pos) + 3;
+            } else if (startsWith("<?")) {
+                pos = indexOf("?>", pos) + 2;
+            } else if (startsWith("<!")) {
+                var gt = indexOf(">", pos);
+                if (depth > 0 || new String(xml, pos, gt - pos, StandardCharsets.ISO_8859_1).contains("[")) {
+                    return Optional.empty(); //Entities might be declared.
+                }
+                pos = gt + 1;
+            } else if (startsWith("</")) {
+                pos = indexOf(">", pos) + 1;
+                depth--;
+                if (depth < 0) {
+                    return Optional.empty();
+                }
+                if (pageStart >= 0 && depth == 1) {
+                    pages.add(new Page(pageStart, lt, ids));
+                    pageStart = -1;
+                }
+                if (depth == 0) {
+                    break; //End of root.
+                }
+            } else {
+                if (depth == 0 && rootSeen) {
+                    return Optional.empty(); //Two roots.
+                }
+                rootSeen = true;
+                var tagEnd = tagEnd(pos);
+                var tag = new String(xml, pos + 1, tagEnd - pos - 1, charset);
+                var selfClosing = xml[tagEnd - 1] == '/';
+                var name = tag.split("[\\s/]", 2)[0];
+                pos = tagEnd + 1;
+                if (depth == 1 && PAGE_NAME.equals(name)) {
+                    if (selfClosing) {
+                        pages.add(new Page(pos, pos, List.of()));
+                    } else {
+                        pageStart = pos;
+                        ids = new ArrayList<>();
+                    }
+                } else if (pageStart >= 0) {
+                    attrValue(tag, ID_ATTR).ifPresent(ids::add);
+                }
+                if (!selfClosing) {
+                    depth++;
+                }
+            }
+        }
+        if (depth != 0 || !rootSeen) {
+            return Optional.empty();
+        }
+        return Optional.of(new Result(skeleton(pages), encoding, pages));
+    }
+
+    /**
+     * Build the document without page contents.
+     *
+     * @param pages Pages found.
+     * @return Skeleton.
+     */
+    private byte[] skeleton(final List<Page> pages) {
+        var cut = 0;
+        for (var p : pages) {
+            cut += p.getEnd() - p.getStart();
+        }
+        var out = new byte[xml.length - cut];
+        var from = 0;
+        var at = 0;
+        for (var p : pages) {
+            System.arraycopy(xml, from, out, at, p.getStart() - from);
+            at += p.getStart() - from;
+            from = p.getEnd();
+        }
+        System.arraycopy(xml, from, out, at, xml.length - from);
+        return out;
+    }
+
+    /**
+     * Find the closing '>' of a start tag, skipping quoted values.
+     *
+     * @param from Offset of the '<'.
+     * @return Offset of the '>'.
+     */
+    private int tagEnd(final int from) {
+        byte quote = 0;
+        for (int i = from + 1;; i++) {
+            var b = xml[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Does the document continue with some ASCII text here?
+     *
+     * @param text Text.
+     * @return True if so.
+     */
+    private boolean startsWith(final String text) {
+        if (pos + text.length() > xml.length) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if ((xml[pos + i] & 0xFF) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find some ASCII text.
+     *
+     * @param text Text.
+     * @param from Offset to search from.
+     * @return Offset, or -1 if not found.
+     */
+    private int indexOf(final String text, final int from) {
+        var first = (byte) text.charAt(0);
+        outer:
+        for (int i = from; i <= xml.length - text.length(); i++) {
+            if (xml[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < text.length(); j++) {
+                if (xml[i + j] != (byte) text.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        if (text.length() > 1) {
+            throw new IndexOutOfBoundsException(text); //Unclosed markup.
+        }
+        return -1;
+    }
+
+    /**
+     * Make a pattern finding an attribute in a tag.
+     *
+     * @param attr Attribute name.
+     * @return Pattern. Group 2 or 3 holds the raw value.
+     */
+    private static Pattern attrPattern(final String attr) {
+        return Pattern.compile("(?:^|\\s)" + Pattern.quote(attr) + "\\s*=\\s*(\"([^\"]*)\"|'([^']*)')");
+    }
+
+    /**
+     * Get an attribute's value from a tag, with entities expanded.
+     *
+     * @param tag Tag text.
+     * @param attr Attribute pattern.
+     * @return Maybe value.
+     */
+    private static Optional<String> attrValue(final String tag, final Pattern attr) {
+        var m = attr.matcher(tag);
+        if (!m.find()) {
+            return Optional.empty();
+        }
+        var raw = m.group(2) != null ? m.group(2) : m.group(3);
+        return Optional.of(unescape(raw));
+    }
+
+    /**
+     * Expand the predefined entities and character references.
+     *
+     * @param raw Raw attribute value.
+     * @return Value.
+     */
+    private static String unescape(final String raw) {
+        if (raw.indexOf('&') < 0) {
+            return raw;
+        }
+        var out = new StringBuilder();
+        var i = 0;
+        while (i < raw.length()) {
+            var c = raw.charAt(i);
+            var semi = raw.indexOf(';', i);
+            if (c != '&' || semi < 0) {
+                out.append(c);
+                i++;
+                continue;
+            }
+            var ent = raw.substring(i + 1, semi);
+            switch (ent) {
+                case "amp":
+                    out.append('&');
+                    break;
+                case "lt":
+                    out.append('<');
+                    break;
+                case "gt":
+                    out.append('>');
+                    break;
+                case "quot":
+                    out.append('"');
+                    break;
+                case "apos":
+                    out.append('\'');
+                    break;
+                default:
+                    //CHECKSTYLE:OFF
+                    try {
+                        if (ent.startsWith("#x")) {
+                            out.appendCodePoint(Integer.parseInt(ent.substring(2), 16));
+                        } else if (ent.startsWith("#")) {
+                            out.appendCodePoint(Integer.parseInt(ent.substring(1)));
+                        } else {
+                            out.append('&').append(ent).append(';');
+                        }
+                    } catch (IllegalArgumentException ex) {
+                        out.append('&').append(ent).append(';');
+                    }
+                    //CHECKSTYLE:ON
+            }
+            i = semi + 1;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Can the markup of an encoding be scanned as ASCII bytes?
+     *
+     * @param encoding Encoding name.
+     * @return True if so.
+     */
+    private static boolean asciiCompatible(final String encoding) {
+        try {
+            var cs = Charset.forName(encoding);
+            var probe = "<?xml/>=\"'!-[]&#;: abcxyzABCXYZ019";
+            return new String(probe.getBytes(StandardCharsets.US_ASCII), cs).equals(probe);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+            return false;
+        }
+    }
+}
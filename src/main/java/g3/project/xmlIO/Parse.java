@@ -31,6 +31,8 @@ package g3.project.xmlIO;
 import g3.project.core.ToolsFactory;
 import g3.project.elements.DocElement;
 import g3.project.elements.ElementFactory;
+import g3.project.elements.PageSource;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -45,11 +47,10 @@ import nu.xom.Document;
 import nu.xom.NodeFactory;
 import nu.xom.ParsingException;
 import nu.xom.ValidityException;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.SAXNotRecognizedException;
-import org.xml.sax.SAXNotSupportedException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  *
@@ -60,7 +61,7 @@ public final class Parse {
     /**
      * PWS file name.
      */
-    private static final String PWS = "PWS.xsd";
+    static final String PWS = "PWS.xsd";
 
     /**
      * Name-space of the PWS.
@@ -70,31 +71,13 @@ public final class Parse {
     /**
      * Schema for our extension.
      */
-    private static final String EXT_SCHEMA = "my_exts.xsd";
+    static final String EXT_SCHEMA = "my_exts.xsd";
 
     /**
      * Extension name-space.
      */
     public static final String EXT_NS = "PWS_Exts";
 
-    /**
-     * Get an XOM compatible parser, which is either validating or
-     * non-validating.
-     *
-     * @param validate Validate or not.
-     * @return Parser.
-     */
-    private static XMLReader getParser(final Boolean validate) {
-        XMLReader xerces = null;
-        try {
-            xerces = XMLReaderFactory.createXMLReader("org.apache.xerces.parsers.SAXParser");
-            xerces.setFeature("http://apache.org/xml/features/validation/schema", validate);
-        } catch (SAXException ex) {
-            Logger.getLogger(DocIO.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        return xerces;
-    }
-
     /**
      * Return the fully parsed representation of the XML doc.
      *
@@ -118,23 +101,100 @@ public final class Parse {
      * @return Optional doc.
      */
     public static Optional<Document> parseDocXML(final InputStream xmlStream) {
-        Builder parser;
-        var xer = (XMLReader) getParser(true);
+        //Pooled parsers share pre-compiled schemas.
+        var pool = ParserPool.getShared();
+        var reader = pool.borrow();
         try {
-            var pwsURL = DocIO.class.getResource(PWS);
-            var extURL = DocIO.class.getResource(EXT_SCHEMA);
-            var schemaString = "http://" + PWS_NS + " " + pwsURL.toString() + " " + "http://" + EXT_NS + " " + extURL.toString();
-            //Set Schemas
-            xer.setProperty("http://apache.org/xml/properties/schema/external-schemaLocation", schemaString);
-        } catch (SAXNotRecognizedException | SAXNotSupportedException ex) {
-            Logger.getLogger(DocIO.class.getName()).log(Level.SEVERE, null, ex);
+            return build(ParserPool.builderFor(reader), xmlStream);
+        } finally {
+            pool.release(reader);
+        }
+    }
+
+    /**
+     * Parse the XML doc without checking it against the schema. Much quicker
+     * than parseDocXML; pair with validateDocXML if the errors are wanted.
+     *
+     * @param xmlStream XML Doc stream.
+     * @return Optional doc.
+     */
+    public static Optional<Document> parseDocXMLUnvalidated(final InputStream xmlStream) {
+        return build(new Builder(false, new ElementFactory()), xmlStream);
+    }
+
+    /**
+     * Parse the XML doc, leaving each page's content unparsed until it is
+     * first used. Falls back to a full parse if the pages can't be split out.
+     *
+     * @param xml XML Doc bytes. Kept by the stubs, so must not be changed.
+     * @param validate Check the whole doc against the schema?
+     * @return Optional doc.
+     */
+    public static Optional<Document> parseDocXMLLazy(final byte[] xml, final boolean validate) {
+        var scanned = PageScanner.scan(xml);
+        if (scanned.isEmpty()) {
+            return validate ? parseDocXML(new ByteArrayInputStream(xml))
+                    : parseDocXMLUnvalidated(new ByteArrayInputStream(xml));
+        }
+        var result = scanned.get();
+        var doc = parseDocXMLUnvalidated(new ByteArrayInputStream(result.getSkeleton()));
+        var root = doc.map(Document::getRootElement).orElse(null);
+        if (!(root instanceof DocElement) || ((DocElement) root).getPages().size() != result.getPages().size()) {
+            //Scanner and parser disagree; shouldn't happen, but don't lose pages.
+            return validate ? parseDocXML(new ByteArrayInputStream(xml))
+                    : parseDocXMLUnvalidated(new ByteArrayInputStream(xml));
+        }
+        var docEl = (DocElement) root;
+        var pages = docEl.getPages();
+        for (int i = 0; i < pages.size(); i++) {
+            var found = result.getPages().get(i);
+            var len = found.getEnd() - found.getStart();
+            if (len > 0) {
+                docEl.addPageStub(pages.get(i), new PageSource(xml, found.getStart(), len, result.getEncoding()), found.getIDs());
+            }
+        }
+        if (validate) {
+            docEl.setValidationErrors(validateDocXML(new ByteArrayInputStream(xml)));
         }
+        return doc;
+    }
+
+    /**
+     * Check an XML doc against the schema, without building it.
+     *
+     * @param xmlStream XML Doc stream.
+     * @return Validity errors. Empty if valid.
+     */
+    public static ArrayList<String> validateDocXML(final InputStream xmlStream) {
+        var errList = new ArrayList<String>();
+        var handler = new DefaultHandler() {
+            @Override
+            public void error(final SAXParseException ex) {
+                errList.add(ex.getMessage());
+            }
+        };
+        //Own parser: pooled ones still point at their last builder's handlers.
+        var reader = ParserPool.newReader(true);
         try {
-            parser = new Builder(xer, true, new ElementFactory());
-        } catch (Exception e) {
-            e.printStackTrace();
-            return Optional.empty();
+            reader.setFeature("http://xml.org/sax/features/validation", true);
+            reader.setFeature("http://apache.org/xml/features/validation/dynamic", true);
+            reader.setContentHandler(handler);
+            reader.setErrorHandler(handler);
+            reader.parse(new InputSource(xmlStream));
+        } catch (SAXException | IOException ex) {
+            errList.add(ex.getMessage());
         }
+        return errList;
+    }
+
+    /**
+     * Parse a doc with a given builder, collecting any validity errors.
+     *
+     * @param parser Validating builder.
+     * @param xmlStream XML Doc stream.
+     * @return Optional doc.
+     */
+    static Optional<Document> build(final Builder parser, final InputStream xmlStream) {
         Document doc = null;
         try {
             doc = parser.build(xmlStream);
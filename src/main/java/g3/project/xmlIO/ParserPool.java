@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.elements.ElementFactory;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nu.xom.Builder;
+import org.apache.xerces.parsers.XMLGrammarPreparser;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Pool of validating parsers. The PWS and extension schemas are compiled once
+ * into a shared, locked grammar pool, so a parser taken from here never
+ * compiles them again. Parsers are not thread safe, so each is lent to one
+ * thread at a time. Wrap a borrowed parser in a new builder for each document
+ * (see builderFor()): a reused builder keeps validity errors from the last.
+ *
+ * @author Group 3
+ */
+public final class ParserPool {
+
+    /**
+     * Xerces property for the grammar pool.
+     */
+    private static final String GRAMMAR_POOL_PROP = "http://apache.org/xml/properties/internal/grammar-pool";
+
+    /**
+     * Xerces property for schema locations.
+     */
+    private static final String SCHEMA_LOCATION_PROP = "http://apache.org/xml/properties/schema/external-schemaLocation";
+
+    /**
+     * Xerces schema validation feature.
+     */
+    private static final String SCHEMA_FEATURE = "http://apache.org/xml/features/validation/schema";
+
+    /**
+     * Compiled schemas, shared by every pool. Null if they couldn't be
+     * compiled, in which case each parser compiles its own.
+     */
+    private static final XMLGrammarPool GRAMMARS = compileGrammars();
+
+    /**
+     * Shared pool, sized for the machine.
+     */
+    private static final ParserPool SHARED = new ParserPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Idle parsers. Bounded, so releases racing each other can't overfill it.
+     */
+    private final ArrayBlockingQueue<XMLReader> idle;
+
+    /**
+     * Parsers created, for stats.
+     */
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param maxIdleParsers Most idle parsers kept for reuse.
+     */
+    public ParserPool(final int maxIdleParsers) {
+        idle = new ArrayBlockingQueue<>(Math.max(1, maxIdleParsers));
+    }
+
+    /**
+     * Get the pool shared by the application.
+     *
+     * @return Shared pool.
+     */
+    public static ParserPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Borrow a parser. Must be given back with release().
+     *
+     * @return Parser.
+     */
+    public XMLReader borrow() {
+        var reader = idle.poll();
+        if (reader == null) {
+            reader = newReader(true);
+            created.incrementAndGet();
+        }
+        return reader;
+    }
+
+    /**
+     * Give back a borrowed parser.
+     *
+     * @param reader Parser.
+     */
+    public void release(final XMLReader reader) {
+        idle.offer(reader); //Dropped if full.
+    }
+
+    /**
+     * Get the number of parsers created.
+     *
+     * @return Count.
+     */
+    public int getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Get the number of idle parsers.
+     *
+     * @return Count.
+     */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Are the schemas pre-compiled?
+     *
+     * @return True if parsers share compiled schemas.
+     */
+    public static boolean hasSharedGrammars() {
+        return GRAMMARS != null;
+    }
+
+    /**
+     * Wrap a parser in a validating document builder.
+     *
+     * @param reader Parser.
+     * @return Builder, for one document.
+     */
+    static Builder builderFor(final XMLReader reader) {
+        return new Builder(reader, true, new ElementFactory());
+    }
+
+    /**
+     * Make a new schema-validating parser.
+     *
+     * @param shareGrammars Use the pre-compiled schemas? If not, the parser
+     * compiles them on every document.
+     * @return Parser.
+     */
+    static XMLReader newReader(final boolean shareGrammars) {
+        XMLReader xer = null;
+        try {
+            xer = XMLReaderFactory.createXMLReader("org.apache.xerces.parsers.SAXParser");
+            xer.setFeature(SCHEMA_FEATURE, true);
+            xer.setProperty(SCHEMA_LOCATION_PROP, schemaLocations());
+            if (shareGrammars && GRAMMARS != null) {
+                xer.setProperty(GRAMMAR_POOL_PROP, GRAMMARS);
+            }
+        } catch (SAXException ex) {
+            Logger.getLogger(ParserPool.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return xer;
+    }
+
+    /**
+     * Get the schema locations, for Xerces.
+     *
+     * @return Namespace and location pairs.
+     */
+    private static String schemaLocations() {
+        var pwsURL = DocIO.class.getResource(Parse.PWS);
+        var extURL = DocIO.class.getResource(Parse.EXT_SCHEMA);
+        return "http://" + Parse.PWS_NS + " " + pwsURL.toString() + " " + "http://" + Parse.EXT_NS + " " + extURL.toString();
+    }
+
+    /**
+     * Compile the schemas into a locked grammar pool.
+     *
+     * @return Pool, or null on failure.
+     */
+    private static XMLGrammarPool compileGrammars() {
+        var pool = new XMLGrammarPoolImpl();
+        var preparser = new XMLGrammarPreparser();
+        preparser.registerPreparser(XMLGrammarDescription.XML_SCHEMA, null);
+        preparser.setProperty(GRAMMAR_POOL_PROP, pool);
+        preparser.setFeature("http://xml.org/sax/features/namespaces", true);
+        preparser.setFeature(SCHEMA_FEATURE, true);
+        try {
+            var grammars = new Grammar[]{
+                preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA,
+                new XMLInputSource(null, DocIO.class.getResource(Parse.PWS).toString(), null)),
+                preparser.preparseGrammar(XMLGrammarDescription.XML_SCHEMA,
+                new XMLInputSource(null, DocIO.class.getResource(Parse.EXT_SCHEMA).toString(), null))
+            };
+            pool.cacheGrammars(XMLGrammarDescription.XML_SCHEMA, grammars);
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(ParserPool.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        pool.lockPool(); //Read-only from here, so safe to share.
+        return pool;
+    }
+}
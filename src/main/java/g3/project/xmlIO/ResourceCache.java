@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+
+/**
+ * Least-recently-used cache of resource bytes, bounded by the total size of
+ * the resources held rather than their number.
+ *
+ * @author Group 3
+ */
+public final class ResourceCache {
+
+    /**
+     * Cached buffers, in access order.
+     */
+    //CHECKSTYLE:OFF
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    //CHECKSTYLE:ON
+
+    /**
+     * Maximum resident bytes.
+     */
+    private final long budget;
+
+    /**
+     * Bytes currently held.
+     */
+    private long resident = 0;
+
+    /**
+     * Lookups that found a buffer.
+     */
+    private long hits = 0;
+
+    /**
+     * Lookups that didn't.
+     */
+    private long misses = 0;
+
+    /**
+     * Buffers dropped to make room.
+     */
+    private long evictions = 0;
+
+    /**
+     * Bumped on every invalidation, so reads that started before a change
+     * can't cache stale bytes.
+     */
+    private long generation = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param budgetBytes Maximum resident bytes.
+     */
+    public ResourceCache(final long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive");
+        }
+        budget = budgetBytes;
+    }
+
+    /**
+     * Look up a resource.
+     *
+     * @param key Resource key.
+     * @return Maybe a read-only buffer over the cached bytes.
+     */
+    public synchronized Optional<ByteBuffer> get(final String key) {
+        var buf = entries.get(key);
+        if (buf == null) {
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(buf.duplicate());
+    }
+
+    /**
+     * Could a resource of this size be cached?
+     *
+     * @param size Size in bytes.
+     * @return True if it fits the budget.
+     */
+    public boolean admits(final long size) {
+        return size <= budget;
+    }
+
+    /**
+     * Get the current generation. Read it before loading a resource, and
+     * pass it to put().
+     *
+     * @return Generation.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Add a resource, evicting the least recently used ones to make room.
+     * Resources larger than the budget are ignored.
+     *
+     * @param key Resource key.
+     * @param buf Resource bytes. Not copied, so must not be modified later.
+     */
+    public synchronized void put(final String key, final ByteBuffer buf) {
+        put(key, buf, generation);
+    }
+
+    /**
+     * Add a resource, unless anything has been invalidated since it was
+     * loaded.
+     *
+     * @param key Resource key.
+     * @param buf Resource bytes. Not copied, so must not be modified later.
+     * @param loadedAt Generation read before loading.
+     */
+    public synchronized void put(final String key, final ByteBuffer buf, final long loadedAt) {
+        var size = buf.remaining();
+        if (!admits(size) || loadedAt != generation) {
+            return;
+        }
+        var old = entries.remove(key); //Replaced, not invalidated; other loads still count.
+        if (old != null) {
+            resident -= old.remaining();
+        }
+        var it = entries.values().iterator();
+        while (resident + size > budget && it.hasNext()) {
+            resident -= it.next().remaining();
+            it.remove();
+            evictions++;
+        }
+        entries.put(key, buf.asReadOnlyBuffer());
+        resident += size;
+    }
+
+    /**
+     * Drop a resource, if cached.
+     *
+     * @param key Resource key.
+     */
+    public synchronized void invalidate(final String key) {
+        generation++;
+        var old = entries.remove(key);
+        if (old != null) {
+            resident -= old.remaining();
+        }
+    }
+
+    /**
+     * Drop everything.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        resident = 0;
+    }
+
+    /**
+     * @return Maximum resident bytes.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return Bytes currently held.
+     */
+    public synchronized long getResidentBytes() {
+        return resident;
+    }
+
+    /**
+     * @return Number of resources held.
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return Lookups that found a buffer.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Lookups that didn't find a buffer.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Buffers dropped to make room.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d bytes in %d resources, %d hits, %d misses, %d evictions",
+                resident, budget, entries.size(), hits, misses, evictions);
+    }
+}
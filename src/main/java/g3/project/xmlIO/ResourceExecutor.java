@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool for resource I/O. Work is queued up to a limit, after which
+ * new requests fail straight away rather than piling up. Cancelling a
+ * returned future drops the work if it hasn't started yet.
+ *
+ * @author Group 3
+ */
+public final class ResourceExecutor {
+
+    //CHECKSTYLE:OFF
+    /**
+     * Most requests waiting at once in the shared pool.
+     */
+    private static final int SHARED_QUEUE_LIMIT = 512;
+
+    /**
+     * Threads in the shared pool.
+     */
+    private static final int SHARED_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    //CHECKSTYLE:ON
+
+    /**
+     * Pool shared by all IO instances.
+     */
+    private static final ResourceExecutor SHARED = new ResourceExecutor("spres-io", SHARED_THREADS, SHARED_QUEUE_LIMIT);
+
+    /**
+     * Underlying pool.
+     */
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Constructor.
+     *
+     * @param name Thread name prefix.
+     * @param threads Number of threads.
+     * @param queueLimit Most requests waiting at once.
+     */
+    public ResourceExecutor(final String name, final int threads, final int queueLimit) {
+        var count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            var t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(queueLimit), factory, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the pool shared by all IO instances.
+     *
+     * @return Shared pool.
+     */
+    public static ResourceExecutor getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Run a task on the pool. If the queue is full the future fails with a
+     * RejectedExecutionException. Cancelling the future removes the task from
+     * the queue; a task already running is left to finish, but its result is
+     * discarded. Running tasks are never interrupted, as that would close the
+     * archive's channel.
+     *
+     * @param <T> Result type.
+     * @param task Task.
+     * @return Future result.
+     */
+    public <T> CompletableFuture<T> submit(final Supplier<T> task) {
+        var future = new CompletableFuture<T>();
+        var job = new FutureTask<Void>(() -> {
+            if (!future.isDone()) {
+                try {
+                    future.complete(task.get());
+                } catch (RuntimeException | Error ex) {
+                    future.completeExceptionally(ex);
+                }
+            }
+        }, null);
+        try {
+            pool.execute(job);
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+            return future;
+        }
+        future.whenComplete((r, ex) -> {
+            if (future.isCancelled()) {
+                job.cancel(false);
+                pool.remove(job); //Free the queue slot now.
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return Number of requests waiting.
+     */
+    public int getQueued() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * @return Number of requests running.
+     */
+    public int getActive() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Stop accepting work. Queued work still runs.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
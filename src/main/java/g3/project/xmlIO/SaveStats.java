@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+/**
+ * Size of and time taken by a save.
+ *
+ * @author Group 3
+ */
+public final class SaveStats {
+
+    /**
+     * Bytes of doc.xml written.
+     */
+    private final long docBytes;
+
+    /**
+     * Time taken writing doc.xml, in nanoseconds.
+     */
+    private final long docNanos;
+
+    /**
+     * Time taken by the whole save, in nanoseconds.
+     */
+    private final long nanos;
+
+    /**
+     * Constructor.
+     *
+     * @param bytes Bytes of doc.xml.
+     * @param docTime Time writing doc.xml in ns.
+     * @param time Time in ns.
+     */
+    SaveStats(final long bytes, final long docTime, final long time) {
+        docBytes = bytes;
+        docNanos = docTime;
+        nanos = time;
+    }
+
+    /**
+     * @return Bytes of doc.xml written.
+     */
+    public long getDocBytes() {
+        return docBytes;
+    }
+
+    /**
+     * @return Time taken writing doc.xml, in milliseconds.
+     */
+    public double getDocMillis() {
+        //CHECKSTYLE:OFF
+        return docNanos / 1e6;
+        //CHECKSTYLE:ON
+    }
+
+    /**
+     * @return Time taken by the whole save, in milliseconds.
+     */
+    public double getMillis() {
+        //CHECKSTYLE:OFF
+        return nanos / 1e6;
+        //CHECKSTYLE:ON
+    }
+
+    @Override
+    public String toString() {
+        return String.format("save: %.1f ms, doc.xml %d KiB in %.1f ms", getMillis(), docBytes / 1024, getDocMillis());
+    }
+}
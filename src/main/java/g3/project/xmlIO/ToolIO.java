@@ -33,7 +33,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
@@ -70,17 +69,29 @@ public final class ToolIO extends IO {
     }
 
     /**
-     * Get doc from FileSystem.
+     * Load tools from Stream.
+     *
+     * @param toolStream Stream of tools Zip.
+     * @param mode SPOOL or MEMORY.
+     */
+    public ToolIO(final InputStream toolStream, final OpenMode mode) {
+        super(toolStream, mode);
+    }
+
+    /**
+     * Get doc from the archive.
      *
-     * @param fs FileSystem
      * @return Maybe Doc.
      */
     @Override
-    protected Optional<Document> retrieveDoc(final FileSystem fs) {
-        var docPath = fs.getPath(XML_FILE_NAME);
-        try {
-            var docIs = Files.newInputStream(docPath);
-            return Parse.parseToolXML(docIs);
+    protected Optional<Document> retrieveDoc() {
+        var docIs = getResourceStream(XML_FILE_NAME);
+        if (docIs.isEmpty()) {
+            Logger.getLogger(ToolIO.class.getName()).log(Level.SEVERE, "No {0} in archive", XML_FILE_NAME);
+            return Optional.empty();
+        }
+        try (var is = docIs.get()) {
+            return Parse.parseToolXML(is);
         } catch (IOException ex) {
             Logger.getLogger(ToolIO.class.getName()).log(Level.SEVERE, null, ex);
         }
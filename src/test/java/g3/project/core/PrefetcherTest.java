@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.core;
+
+import g3.project.elements.DocElement;
+import g3.project.xmlIO.DocIO;
+import g3.project.xmlIO.IO;
+import g3.project.xmlIO.Parse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class PrefetcherTest {
+//CHECKSTYLE:OFF
+
+    private static final String DOC_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<base:document xmlns:ext='http://PWS_Exts' xmlns:base='http://PWS_Base'>\n"
+            + "<base:page ID=\"page-0\" x_size_px=\"960\" y_size_px=\"600\">\n"
+            + " <base:image include_source=\"a.png\" ID=\"im0\"/>\n"
+            + " <base:shape ID=\"sh0\" type=\"rectangle\"><base:text><base:font>Go <base:href type=\"internal\" target=\"im2\">there</base:href></base:font></base:text></base:shape>\n"
+            + "</base:page>\n"
+            + "<base:page ID=\"page-1\" x_size_px=\"960\" y_size_px=\"600\"><base:image include_source=\"b.png\" ID=\"im1\"/></base:page>\n"
+            + "<base:page ID=\"page-2\" x_size_px=\"960\" y_size_px=\"600\"><base:image include_source=\"c.png\" ID=\"im2\"/></base:page>\n"
+            + "<base:page ID=\"page-3\" x_size_px=\"960\" y_size_px=\"600\"><base:image include_source=\"big.png\" ID=\"im3\"/></base:page>\n"
+            + "</base:document>\n";
+
+    public PrefetcherTest() {
+    }
+
+    /**
+     * Build a presentation holding the test doc and images.
+     */
+    private static DocIO makeDoc() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("doc.xml"));
+            zip.write(DOC_XML.getBytes(StandardCharsets.UTF_8));
+            for (var name : new String[]{"a.png", "b.png", "c.png"}) {
+                zip.putNextEntry(new ZipEntry(name));
+                zip.write(new byte[100]);
+            }
+            zip.putNextEntry(new ZipEntry("big.png"));
+            zip.write(new byte[10000]);
+        }
+        return new DocIO(new ByteArrayInputStream(bytes.toByteArray()), IO.OpenMode.MEMORY);
+    }
+
+    /**
+     * Test of predict method, of class Prefetcher.
+     */
+    @Test
+    public void testPredict() throws IOException {
+        System.out.println("Test: Prefetcher predict");
+        var io = makeDoc();
+        var doc = (DocElement) io.getDoc().get().getRootElement();
+        var pages = doc.getPages();
+        doc.getPage(0);
+        var predicted = Prefetcher.predict(doc, pages.get(0), Optional.of("page-3"));
+        assertEquals("page-0", doc.getCurrentPage().get().getID()); //Unchanged
+        //Next card, then link target, then history.
+        assertEquals(3, predicted.size());
+        assertEquals("page-1", predicted.get(0).getID());
+        assertEquals("page-2", predicted.get(1).getID());
+        assertEquals("page-3", predicted.get(2).getID());
+        //Last card has no next; history pointing here is ignored.
+        predicted = Prefetcher.predict(doc, pages.get(3), Optional.of("page-3"));
+        assertTrue(predicted.isEmpty());
+        io.close();
+    }
+
+    /**
+     * Test of budget and cancellation, of class Prefetcher.
+     */
+    @Test
+    public void testArrive() throws IOException {
+        System.out.println("Test: Prefetcher budget and cancellation");
+        var io = makeDoc();
+        var doc = (DocElement) io.getDoc().get().getRootElement();
+        var pages = doc.getPages();
+        var warmed = new ArrayList<String>();
+        var prefetcher = new Prefetcher(1000, (path, tag) -> warmed.add(path), Runnable::run);
+
+        //big.png is over budget, so page-3 is skipped.
+        assertEquals(200, prefetcher.arrive(io, doc, pages.get(0), Optional.of("page-3")));
+        assertEquals(List.of("b.png", "c.png"), warmed);
+        assertEquals(Set.of("page-1", "page-2"), prefetcher.getPendingPages());
+
+        //Followed the link: page-1 was a wrong guess and is dropped.
+        warmed.clear();
+        prefetcher.arrive(io, doc, pages.get(2), Optional.of("page-0"));
+        assertEquals(List.of("a.png"), warmed);
+        assertEquals(Set.of("page-0"), prefetcher.getPendingPages());
+
+        prefetcher.cancel(io);
+        assertTrue(prefetcher.getPendingPages().isEmpty());
+
+        //Zero budget does nothing.
+        warmed.clear();
+        var off = new Prefetcher(0, (path, tag) -> warmed.add(path), Runnable::run);
+        assertEquals(0, off.arrive(io, doc, pages.get(0), Optional.empty()));
+        assertTrue(warmed.isEmpty());
+        io.close();
+    }
+
+    /**
+     * Test of prefetching for cards not yet parsed, of class Prefetcher.
+     */
+    @Test
+    public void testArriveStubs() throws Exception {
+        System.out.println("Test: Prefetcher unparsed cards");
+        var io = makeDoc();
+        var doc = (DocElement) Parse.parseDocXMLLazy(DOC_XML.getBytes(StandardCharsets.UTF_8), false).get().getRootElement();
+        var pages = doc.getPages();
+        pages.get(0).materialise();
+        var warmed = new ArrayList<String>();
+        var engineTasks = new LinkedBlockingQueue<Runnable>();
+        var prefetcher = new Prefetcher(1000, (path, tag) -> warmed.add(path), engineTasks::add);
+
+        //Nothing is parsed on arrival; the cards are parsed on the I/O pool.
+        assertEquals(0, prefetcher.arrive(io, doc, pages.get(0), Optional.empty()));
+        assertTrue(warmed.isEmpty());
+        assertFalse(pages.get(1).isMaterialised());
+        assertEquals(Set.of("page-1", "page-2"), prefetcher.getPendingPages());
+        for (int i = 0; i < 2; i++) {
+            engineTasks.poll(5, TimeUnit.SECONDS).run();
+        }
+        assertEquals(Set.of("b.png", "c.png"), new HashSet<>(warmed));
+        assertEquals(200, prefetcher.getPlannedBytes());
+        assertFalse(pages.get(1).isMaterialised()); //Still stubs.
+        assertFalse(pages.get(2).isMaterialised());
+
+        //Parses finishing after the user moved on are ignored.
+        warmed.clear();
+        prefetcher.arrive(io, doc, pages.get(1), Optional.empty());
+        prefetcher.cancel(io);
+        var late = engineTasks.poll(1, TimeUnit.SECONDS);
+        if (late != null) {
+            late.run();
+        }
+        assertTrue(warmed.isEmpty());
+        assertTrue(prefetcher.getPendingPages().isEmpty());
+        io.close();
+    }
+
+    /**
+     * Test of skipping resources nothing would keep, of class Prefetcher.
+     */
+    @Test
+    public void testArriveUncached() throws IOException {
+        System.out.println("Test: Prefetcher without a resource cache");
+        var io = makeDoc();
+        var doc = (DocElement) io.getDoc().get().getRootElement();
+        var pages = doc.getPages();
+        io.disableCache();
+        //No image decoder and no cache: fetched bytes would be thrown away.
+        var prefetcher = new Prefetcher(1000, null, Runnable::run);
+        assertEquals(0, prefetcher.arrive(io, doc, pages.get(0), Optional.empty()));
+        assertTrue(prefetcher.getPendingPages().isEmpty());
+        io.enableCache(1000);
+        assertEquals(200, prefetcher.arrive(io, doc, pages.get(0), Optional.empty()));
+        prefetcher.cancel(io);
+        io.close();
+    }
+}
@@ -1,5 +1,17 @@
 package g3.project.elements;
 
+import g3.project.graphics.FontProps;
+import g3.project.graphics.StyledTextSeg;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+import nu.xom.Builder;
+import nu.xom.Document;
 import org.junit.jupiter.api.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -13,6 +25,11 @@ public class DocElementTest {
 
     static DocElement test;
     private static Integer TEST_ITERATIONS = 1000;
+    private static final int TIMING_PASSES = 5;
+    /** How much slower the big case may be; far below what a linear cost would give. */
+    private static final int SCALE_BOUND = 20;
+    /** Floor on the small case's time, so a few ns of it doesn't make the bound too tight. */
+    private static final long MIN_NANOS = 100;
 
     public DocElementTest(){
     }
@@ -67,6 +84,424 @@ public class DocElementTest {
         System.out.println("Test: addScriptFile");
 
     }
-}
 
+    /**
+     * Build a deck of pages with one shape each.
+     */
+    private static DocElement makeDeck(final int pages) throws Exception {
+        var xml = new StringBuilder("<base:document xmlns:base='http://PWS_Base'>");
+        for (int i = 0; i < pages; i++) {
+            xml.append("<base:page ID=\"p").append(i).append("\"><base:shape ID=\"s").append(i)
+                    .append("\" type=\"rectangle\"><base:text>t</base:text></base:shape></base:page>");
+        }
+        xml.append("</base:document>");
+        Document doc = new Builder(new ElementFactory()).build(new StringReader(xml.toString()));
+        return (DocElement) doc.getRootElement();
+    }
+
+    /**
+     * Test of the ID index, of class DocElement.
+     */
+    @Test
+    public void testIDIndex() throws Exception {
+        System.out.println("Test: ID index");
+        var doc = makeDeck(10);
+        var page3 = (PageElement) doc.getElementByID("p3").get();
+        assertEquals("s3", doc.getElementByID("s3").get().getID());
+        assertFalse(doc.validateUniqueID("s9"));
+
+        //Insert and detach.
+        var shape = new ShapeElement("base:shape", VisualElement.BASE_URI);
+        shape.setID("added");
+        assertTrue(doc.getElementByID("added").isEmpty());
+        page3.appendChild(shape);
+        assertSame(shape, doc.getElementByID("added").get());
+        shape.detach();
+        assertTrue(doc.getElementByID("added").isEmpty());
+        assertTrue(doc.validateUniqueID("added"));
+
+        //ID changes.
+        var s4 = doc.getElementByID("s4").get();
+        s4.setID("renamed");
+        assertTrue(doc.getElementByID("s4").isEmpty());
+        assertSame(s4, doc.getElementByID("renamed").get());
+        s4.removeAttribute(s4.getAttribute("ID"));
+        assertTrue(doc.getElementByID("renamed").isEmpty());
+
+        //Page moves keep the page's content findable; removal drops it.
+        doc.movePage(page3, 8);
+        assertSame(page3, doc.getElementByID("s3").get().getParent());
+        page3.removeChildren();
+        assertTrue(doc.getElementByID("s3").isEmpty());
+        doc.removeChild(page3);
+        assertTrue(doc.getElementByID("p3").isEmpty());
+
+        //Lookup cost doesn't grow with the deck: 100x the pages, nowhere near 100x the time.
+        var small = lookupNanos(makeDeck(100), 100);
+        var big = lookupNanos(makeDeck(10000), 10000);
+        System.out.println("100 pages: " + small + "ns per lookup, 10000 pages: " + big + "ns per lookup");
+        assertTrue(big < SCALE_BOUND * Math.max(small, MIN_NANOS));
+    }
+
+    /**
+     * Time looking up shapes by ID.
+     *
+     * @return Best time per lookup, in ns.
+     */
+    private static long lookupNanos(final DocElement deck, final int pages) {
+        deck.getElementByID("s0");
+        return bestNanos(() -> {
+            for (int i = 0; i < TEST_ITERATIONS; i++) {
+                assertTrue(deck.getElementByID("s" + (i % pages)).isPresent());
+            }
+        }) / TEST_ITERATIONS;
+    }
+
+    /**
+     * Time the best of a few runs, to ride out GC pauses and JIT.
+     *
+     * @return Best time, in ns.
+     */
+    private static long bestNanos(final Runnable run) {
+        var best = Long.MAX_VALUE;
+        for (int pass = 0; pass < TIMING_PASSES; pass++) {
+            var start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Test of the page list, of class DocElement.
+     */
+    @Test
+    public void testPageRegistry() throws Exception {
+        System.out.println("Test: page registry");
+        var doc = makeDeck(1000);
+        assertEquals(1000, doc.getPageCount());
+        var p500 = doc.getPage("p500").get();
+        assertEquals(500, p500.getIndex());
+        assertSame(p500, doc.getCurrentPage().get());
+        assertSame(p500, doc.getPage(500).get());
+        assertTrue(doc.getPage(1000).isEmpty());
+        assertTrue(doc.getPage(-1).isEmpty());
+
+        //Finding doesn't open.
+        assertSame(doc.getPages().get(7), doc.findPage("p7").get());
+        assertSame(p500, doc.getCurrentPage().get());
+
+        //Kept up to date by inserts, moves, deletes and renames.
+        var id = doc.insertPage(0, "New", 10d, 10d);
+        assertEquals(1001, doc.getPageCount());
+        assertEquals(0, doc.findPage(id).get().getIndex());
+        assertEquals(501, p500.getIndex());
+        doc.movePage(p500, 2);
+        assertEquals(2, p500.getIndex());
+        assertSame(p500, doc.findPage(2).get());
+        doc.removeChild(doc.findPage("p0").get());
+        assertEquals(1, p500.getIndex());
+        assertTrue(doc.findPage("p0").isEmpty());
+        p500.setID("renamed");
+        assertTrue(doc.findPage("p500").isEmpty());
+        assertSame(p500, doc.findPage("renamed").get());
+        assertEquals(1000, doc.getPages().size());
+
+        //Stepping through doesn't get slower as the deck grows.
+        var small = stepNanos(makeDeck(100));
+        var big = stepNanos(makeDeck(10000));
+        System.out.println("100 pages: " + small + "ns per step, 10000 pages: " + big + "ns per step");
+        assertTrue(big < SCALE_BOUND * Math.max(small, MIN_NANOS));
+    }
+
+    /**
+     * Time stepping to the next page.
+     *
+     * @return Best time per step, in ns.
+     */
+    private static long stepNanos(final DocElement deck) {
+        deck.getPage(0);
+        return bestNanos(() -> {
+            for (int i = 0; i < TEST_ITERATIONS; i++) {
+                var next = deck.getCurrentPage().get().getIndex() + 1;
+                assertTrue(deck.getPage(next < deck.getPageCount() ? next : 0).isPresent());
+            }
+        }) / TEST_ITERATIONS;
+    }
+
+    /**
+     * Test of getNewUniqueID method on a populated doc, of class DocElement.
+     */
+    @Test
+    public void testUniqueIDCounter() throws Exception {
+        System.out.println("Test: unique ID counter");
+        var doc = makeDeck(10);
+        assertEquals("s10", doc.getNewUniqueID("s")); //Counts on from the doc's IDs.
+        assertEquals("s11", doc.getNewUniqueID("s"));
+        assertEquals("shape1", doc.getNewUniqueID("shape"));
+
+        //An ID added by hand since is skipped.
+        var shape = new ShapeElement("base:shape", VisualElement.BASE_URI);
+        shape.setID("shape2");
+        doc.getPage(0).get().appendChild(shape);
+        assertEquals("shape3", doc.getNewUniqueID("shape"));
+
+        //So is one in a page that isn't parsed.
+        var page = (PageElement) doc.getElementByID("p9").get();
+        page.removeChildren();
+        doc.addPageStub(page, new PageSource(new byte[0], 0, 0, "UTF-8"), List.of("stubbed5"));
+        assertEquals("stubbed6", doc.getNewUniqueID("stubbed"));
+        assertFalse(page.isMaterialised());
+
+        //Bulk creation is linear: the cost per ID stays about the same for 100x the IDs.
+        var small = idNanos(200);
+        var big = idNanos(20000);
+        System.out.println("200 IDs: " + small + "ns per ID, 20000 IDs: " + big + "ns per ID");
+        assertTrue(big < SCALE_BOUND * Math.max(small, MIN_NANOS));
+    }
 
+    /**
+     * Time adding shapes with new IDs to a fresh deck.
+     *
+     * @param count Shapes to add.
+     * @return Best time per ID, in ns.
+     */
+    private static long idNanos(final int count) throws Exception {
+        var best = Long.MAX_VALUE;
+        for (int pass = 0; pass < TIMING_PASSES; pass++) {
+            var doc = makeDeck(10);
+            var target = doc.getPage(1).get();
+            var seen = new HashSet<String>();
+            var start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                var el = new ShapeElement("base:shape", VisualElement.BASE_URI);
+                el.setID(doc.getNewUniqueID("shape"));
+                assertTrue(seen.add(el.getID()));
+                target.appendChild(el);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / count;
+    }
+
+    /**
+     * Make a shape.
+     */
+    private static ShapeElement shape(final String id, final double x, final double y, final double size) {
+        var el = new ShapeElement("base:shape", VisualElement.BASE_URI);
+        el.setID(id);
+        el.setOriginXY(x, y);
+        el.setSize(size, size, 0d);
+        return el;
+    }
+
+    /**
+     * Test of spatial queries, of class DocElement and PageElement.
+     */
+    @Test
+    public void testSpatialIndex() throws Exception {
+        System.out.println("Test: spatial index");
+        var doc = makeDeck(2);
+        var page = doc.getPage(0).get();
+        assertTrue(page.elementsAt(0, 0).isEmpty()); //s0 has no origin.
+        var a = shape("a", 0, 0, 100);
+        var b = shape("b", 50, 50, 100);
+        page.appendChild(a);
+        page.appendChild(b);
+        assertEquals(List.of(b, a), doc.elementsAt(75, 75)); //Latest on top.
+        a.setZInd(-1d);
+        assertEquals(List.of(a, b), doc.elementsAt(75, 75)); //Lower z is drawn in front.
+        assertEquals(List.of(b), page.elementsAt(140, 140));
+        assertTrue(page.elementsAt(160, 160).isEmpty());
+
+        //Rotated about the centre.
+        var c = shape("c", 300, 300, 100);
+        page.appendChild(c);
+        assertEquals(List.of(c), page.elementsAt(305, 305));
+        c.setSize(100d, 100d, 45d);
+        assertTrue(page.elementsAt(305, 305).isEmpty());
+        assertEquals(List.of(c), page.elementsAt(410, 350));
+
+        //Moves, resizes and removals.
+        a.setOriginXY(1000d, 1000d);
+        assertEquals(List.of(b), page.elementsAt(75, 75));
+        assertEquals(List.of(a), page.elementsAt(1050, 1050));
+        b.setSize(10d, 10d, 0d);
+        assertTrue(page.elementsAt(75, 75).isEmpty());
+        b.detach();
+        assertTrue(page.elementsAt(55, 55).isEmpty());
+        a.removeAttribute(a.getAttribute("x_orig"));
+        assertTrue(page.elementsAt(1050, 1050).isEmpty());
+        page.appendChild(b);
+        assertEquals(List.of(b), page.elementsAt(55, 55));
+
+        //Regions, including ones bigger than the grid holds.
+        var region = new Rectangle2D(0, 0, 400, 400);
+        assertEquals(Set.of(b, c), new HashSet<>(page.elementsIn(region)));
+        var huge = shape("huge", -1e7, -1e7, 2e7);
+        page.appendChild(huge);
+        assertEquals(List.of(huge), page.elementsAt(-5e6, 5e6));
+        assertEquals(3, page.elementsIn(new Rectangle2D(-1e9, -1e9, 2e9, 2e9)).size());
+        assertTrue(doc.getPage(1).get().elementsAt(55, 55).isEmpty());
+
+        //Dense page: the index finds the same elements as checking every one.
+        var dense = doc.getPage(1).get();
+        var rand = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            dense.appendChild(shape("d" + i, rand.nextDouble() * 4000, rand.nextDouble() * 4000, 40));
+        }
+        var points = new double[50][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new double[]{rand.nextDouble() * 4000, rand.nextDouble() * 4000};
+        }
+        dense.elementsAt(0, 0);
+        var start = System.nanoTime();
+        var found = 0;
+        for (var pt : points) {
+            found += dense.elementsAt(pt[0], pt[1]).size();
+        }
+        var indexed = System.nanoTime() - start;
+        start = System.nanoTime();
+        var scanned = 0;
+        for (var pt : points) {
+            for (var el : dense.getChildElements()) {
+                if (el instanceof VisualElement && ((VisualElement) el).getOrigin().isPresent()) {
+                    var o = ((VisualElement) el).getOrigin().get().getLoc();
+                    var sz = ((VisualElement) el).getSize().get();
+                    if (pt[0] >= o.getX() && pt[0] <= o.getX() + sz.getX() && pt[1] >= o.getY() && pt[1] <= o.getY() + sz.getY()) {
+                        scanned++;
+                    }
+                }
+            }
+        }
+        var walked = System.nanoTime() - start;
+        assertEquals(scanned, found);
+        System.out.println("Indexed: " + indexed / points.length + "ns per query, scanned: " + walked / points.length + "ns");
+    }
+
+    /**
+     * Test of snapshot, of class DocElement.
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        System.out.println("Test: snapshot");
+        var doc = makeDeck(10);
+        var before = doc.getVersion();
+        var first = doc.snapshot();
+        assertEquals(10, first.getPages().size());
+        assertTrue(first.getElementByID("s3").get() instanceof ShapeElement); //Copies keep their types.
+        assertNotSame(doc.getElementByID("s3").get(), first.getElementByID("s3").get());
+
+        var s3 = doc.getElementByID("s3").get();
+        s3.setOriginXY(10d, 20d);
+        assertTrue(doc.getVersion() > before);
+        var second = doc.snapshot();
+        assertTrue(first.getElementByID("s3").get().getOrigin().isEmpty()); //First is unchanged.
+        assertEquals(10d, second.getElementByID("s3").get().getOrigin().get().getLoc().getX());
+        assertSame(first.getPages().get(0), second.getPages().get(0)); //Unchanged pages are shared.
+        assertNotSame(first.getPages().get(3), second.getPages().get(3));
+        assertSame(second.getPages().get(3), doc.snapshot().getPages().get(3));
+
+        ((ShapeElement) s3).setTextColour("#FF0000"); //Changes below the element count too.
+        assertNotSame(second.getPages().get(3), doc.snapshot().getPages().get(3));
+        doc.getPage(5).get().detach();
+        assertEquals(9, doc.snapshot().getPages().size());
+    }
+
+    /**
+     * Test of the undo journal, of class DocElement.
+     */
+    @Test
+    public void testUndoJournal() throws Exception {
+        System.out.println("Test: undoJournal");
+        var doc = makeDeck(5);
+        doc.enableUndo();
+        var undo = doc.getJournal().get();
+        var s1 = doc.getElementByID("s1").get();
+
+        s1.setZInd(3d);
+        undo.checkpoint();
+        for (int i = 0; i < 50; i++) { //A drag is one step.
+            s1.setOriginXY(10d + i, 20d);
+            undo.checkpoint();
+        }
+        assertEquals(2, undo.getUndoCount());
+        undo.undo();
+        assertTrue(s1.getOrigin().isEmpty());
+        assertEquals(3d, s1.getZInd());
+        undo.undo();
+        assertNull(s1.getAttribute("z_ind"));
+        assertFalse(undo.canUndo());
+        undo.redo();
+        undo.redo();
+        assertEquals(59d, s1.getOrigin().get().getLoc().getX());
+        assertFalse(undo.canRedo());
+
+        doc.getPage(2).get().appendChild(shape("n1", 0d, 0d, 5d)); //Insert.
+        undo.checkpoint();
+        s1.detach(); //Detach.
+        undo.checkpoint();
+        assertTrue(doc.getElementByID("s1").isEmpty());
+        assertTrue(undo.undo().get().isStructural());
+        assertSame(s1, doc.getElementByID("s1").get());
+        assertSame(doc.getPage(1).get(), s1.getParent());
+        undo.undo();
+        assertTrue(doc.getElementByID("n1").isEmpty());
+        undo.redo();
+        assertTrue(doc.getElementByID("n1").isPresent());
+
+        doc.movePage(doc.getPage(4).get(), 0); //Pages.
+        undo.checkpoint();
+        assertEquals("p4", doc.getPage(0).get().getID());
+        assertFalse(undo.canRedo()); //A new edit drops what was undone.
+        undo.undo();
+        assertEquals("p0", doc.getPage(0).get().getID());
+        assertEquals("p4", doc.getPage(4).get().getID());
+
+        var s0 = (ShapeElement) doc.getElementByID("s0").get(); //Text.
+        var segs = new ArrayList<StyledTextSeg>();
+        segs.add(new StyledTextSeg(new FontProps(), "hello"));
+        s0.setText(segs);
+        s0.setTextColour("#FF0000");
+        undo.checkpoint();
+        assertEquals("hello", s0.getValue());
+        undo.undo();
+        assertEquals("t", s0.getValue());
+        undo.redo();
+        assertEquals("hello", s0.getValue());
+        assertEquals(Color.RED, s0.getText().get().get(0).getStyle().getProp(FontProps.COLOUR).get());
+
+        System.setProperty("g3.undoSteps", "4"); //Oldest steps go beyond the limit.
+        try {
+            var capped = makeDeck(10);
+            capped.enableUndo();
+            var journal = capped.getJournal().get();
+            for (int i = 0; i < 10; i++) {
+                capped.getElementByID("s" + i).get().setZInd(1d);
+                journal.checkpoint();
+            }
+            assertEquals(4, journal.getUndoCount());
+            assertTrue(journal.getBytes() > 0);
+            while (journal.undo().isPresent()) {
+                continue;
+            }
+            assertEquals(1d, capped.getElementByID("s5").get().getZInd());
+            assertNull(capped.getElementByID("s6").get().getAttribute("z_ind"));
+            journal.clear();
+            assertEquals(0, journal.getBytes());
+
+            var released = new int[1]; //Held-back work waits for its step to be forgotten, not for a save.
+            capped.getElementByID("s0").get().setZInd(2d);
+            journal.record(UndoJournal.onForget(true, () -> released[0]++));
+            journal.checkpoint();
+            capped.getElementByID("s1").get().setZInd(2d);
+            journal.checkpoint();
+            assertEquals(0, released[0]);
+            assertEquals(2, journal.getUndoCount());
+            journal.clear();
+            assertEquals(1, released[0]);
+        } finally {
+            System.clearProperty("g3.undoSteps");
+        }
+    }
+}
@@ -6,7 +6,12 @@ import nu.xom.Attribute;
 import org.junit.jupiter.api.*;
 
 import java.awt.geom.Point2D;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Random;
+import java.util.Set;
+import javafx.scene.paint.Color;
 
 import static g3.project.elements.VisualElement.EXT_URI;
 import static org.junit.jupiter.api.Assertions.*;
@@ -127,7 +132,102 @@ public class VisualElementsTest {
 
 
      }
-}
-
 
+     /**
+      * Test of the parsed attribute cache, of class VisualElements.
+      */
+     @Test
+     public void testParsedCache() throws Exception {
+         System.out.println("Test: parsed attribute cache");
+         test.setOriginXY(1d, 2d);
+         test.setSize(3d, 4d, 5d);
+         test.setZInd(6d);
+         test.setFillColour("#FF0000");
+         assertSame(test.getSize().get(), test.getSize().get());
+         assertSame(test.getOrigin().get(), test.getOrigin().get());
+         assertNotSame(test.getVisualProps(), test.getVisualProps());
+
+         //Every setter must be seen by the next read.
+         test.setOriginXY(7d, 8d);
+         assertEquals(7d, test.getOrigin().get().getLoc().getX());
+         test.setSize(9d, 10d, 11d);
+         assertEquals(10d, test.getSize().get().getY());
+         test.setZInd(12d);
+         assertEquals(12d, test.getZInd());
+         test.setDelaySecs(13d);
+         assertEquals(13d, test.getDelaySecs().get());
+         test.setFillColour("#00FF00");
+         assertEquals(1d, test.getFillColour().get().getGreen());
+         var props = new HashMap<String, Object>();
+         props.put("fill", "#0000FF");
+         test.setProps(props);
+         assertEquals(1d, test.getFillColour().get().getBlue());
+         assertEquals(1d, ((Color) test.getVisualProps().get("fill")).getBlue());
+         test.getVisualProps().put("fill", "junk");
+         assertEquals(1d, test.getFillColour().get().getBlue());
+         test.removeAttribute(test.getAttribute("z_ind"));
+         assertEquals(0d, test.getZInd());
+
+         //Cold (parsing) reads against warm (cached) reads on 10k elements.
+         var els = new ArrayList<VisualElement>();
+         var rand = new Random(22);
+         for (int i = 0; i < 10000; i++) {
+             var el = new ShapeElement("base:shape", VisualElement.BASE_URI);
+             el.setOriginXY(rand.nextDouble() * 1000, rand.nextDouble() * 1000);
+             el.setSize(rand.nextDouble() * 100, rand.nextDouble() * 100, 0d);
+             el.setFillColour("#336699");
+             els.add(el);
+         }
+         var mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+         var tid = Thread.currentThread().getId();
+         var ns = new long[2];
+         var bytes = new long[2];
+         for (var pass = 0; pass < 2; pass++) {
+             var b0 = mx.getThreadAllocatedBytes(tid);
+             var t0 = System.nanoTime();
+             var sum = 0d;
+             for (var el : els) {
+                 sum += el.getSize().get().getX() + el.getVisualProps().size();
+             }
+             ns[pass] = System.nanoTime() - t0;
+             bytes[pass] = mx.getThreadAllocatedBytes(tid) - b0;
+             assertTrue(sum > 0);
+         }
+         System.out.println("getSize+getVisualProps x10k: cold " + ns[0] / 1000 + "us/" + bytes[0] / 1024
+                 + "KiB, cached " + ns[1] / 1000 + "us/" + bytes[1] / 1024 + "KiB");
+         assertTrue(bytes[1] < bytes[0]);
+     }
 
+     /**
+      * Test of change tracking, of class VisualElements.
+      */
+     @Test
+     public void testTakeChanges() throws Exception {
+         System.out.println("Test: takeChanges");
+         var shape = new ShapeElement("base:shape", VisualElement.BASE_URI);
+         shape.setType("rectangle");
+         shape.setText("hello");
+         shape.takeChanges();
+         assertTrue(shape.takeChanges().isEmpty());
+
+         shape.setOriginXY(1d, 2d);
+         shape.setSize(3d, 4d, 0d);
+         shape.setZInd(1d);
+         assertEquals(Set.of(ChangeType.GEOMETRY), shape.takeChanges());
+         shape.setFillColour("#FF0000");
+         shape.setDelaySecs(1d);
+         assertEquals(Set.of(ChangeType.VISUAL), shape.takeChanges());
+         shape.setStroke("#000000", "solid", 2d);
+         assertEquals(Set.of(ChangeType.STROKE), shape.takeChanges());
+         shape.setTextColour("#00FF00");
+         assertEquals(Set.of(ChangeType.TEXT), shape.takeChanges());
+         shape.setText("bye");
+         assertTrue(shape.takeChanges().contains(ChangeType.TEXT));
+         shape.setType("ellipse");
+         assertEquals(Set.of(ChangeType.CONTENT), shape.takeChanges());
+         shape.appendChild(new ScriptElement("ext:script", EXT_URI));
+         assertEquals(Set.of(ChangeType.SCRIPT), shape.takeChanges());
+         shape.setID("renamed");
+         assertTrue(shape.takeChanges().isEmpty());
+     }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.core.Engine;
+import g3.project.ui.MainController;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class ArchiveIndexTest {
+//CHECKSTYLE:OFF
+
+    public ArchiveIndexTest() {
+    }
+
+    private static Path resourcePath(final Class cls, final String name) throws URISyntaxException {
+        return new File(cls.getResource(name).toURI()).toPath();
+    }
+
+    /**
+     * Every entry read through the index must match java.util.zip.
+     */
+    private static void checkAgainstZipFile(final Path archive) throws Exception {
+        checkAgainstZipFile(archive, ArchiveIndex.open(archive));
+        checkAgainstZipFile(archive, ArchiveIndex.open(ByteBuffer.wrap(Files.readAllBytes(archive))));
+    }
+
+    private static void checkAgainstZipFile(final Path archive, final ArchiveIndex opened) throws Exception {
+        try (var index = opened; var zf = new ZipFile(archive.toFile())) {
+            var zEntries = zf.entries();
+            int count = 0;
+            while (zEntries.hasMoreElements()) {
+                var ze = zEntries.nextElement();
+                count++;
+                var entry = index.getEntry(ze.getName());
+                assertTrue(entry.isPresent(), "Missing " + ze.getName());
+                if (ze.isDirectory()) {
+                    continue;
+                }
+                var expected = zf.getInputStream(ze).readAllBytes();
+                var buf = index.getBuffer(entry.get());
+                var fromBuf = new byte[buf.remaining()];
+                buf.get(fromBuf);
+                assertArrayEquals(expected, fromBuf, ze.getName());
+                try (var is = index.getStream(entry.get())) {
+                    assertArrayEquals(expected, is.readAllBytes(), ze.getName());
+                }
+                assertEquals(ze.getCrc(), entry.get().getCrc());
+            }
+            assertEquals(count, index.getEntries().size());
+        }
+    }
+
+    /**
+     * Test of reading entries, of class ArchiveIndex.
+     */
+    @Test
+    public void testReadEntries() throws Exception {
+        System.out.println("Test: ArchiveIndex read entries");
+        checkAgainstZipFile(resourcePath(MainController.class, "start_screen.spres"));
+        checkAgainstZipFile(resourcePath(Engine.class, "tools.zip"));
+    }
+
+    /**
+     * Test of path normalisation, of class ArchiveIndex.
+     */
+    @Test
+    public void testNormalise() throws Exception {
+        System.out.println("Test: ArchiveIndex normalise");
+        assertEquals("scripts/tb-0.py", ArchiveIndex.normalise("/scripts/tb-0.py"));
+        assertEquals("scripts/tb-0.py", ArchiveIndex.normalise("./scripts//tb-0.py"));
+        try (var index = ArchiveIndex.open(resourcePath(MainController.class, "start_screen.spres"))) {
+            assertTrue(index.getEntry("/logo.jpg").isPresent());
+            assertTrue(index.getEntry("/missing.jpg").isEmpty());
+        }
+    }
+
+    /**
+     * Non-zip files must be rejected.
+     */
+    @Test
+    public void testNotZip() throws Exception {
+        System.out.println("Test: ArchiveIndex bad archive");
+        assertThrows(IOException.class,
+                () -> ArchiveIndex.open(resourcePath(MainController.class, "test.xml")));
+        assertThrows(IOException.class,
+                () -> ArchiveIndex.open(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+    }
+
+    /**
+     * Entries of 2 GiB or more are streamed, not mapped. The archive is
+     * sparse, so it takes little disk space.
+     */
+    @Test
+    public void testHugeEntry() throws Exception {
+        System.out.println("Test: ArchiveIndex huge entry");
+        var name = "big.bin".getBytes(StandardCharsets.UTF_8);
+        var size = (1L << 31) + 16;
+        var dataStart = 30 + name.length;
+        var cenStart = dataStart + size;
+        var file = Files.createTempFile(IO.tempFilePrefix, ".zip");
+        try (var ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            var loc = ByteBuffer.allocate(dataStart + 4).order(ByteOrder.LITTLE_ENDIAN);
+            loc.putInt(0x04034b50).putShort((short) 20).putShort((short) 0).putShort((short) 0).putInt(0).putInt(0)
+                    .putInt((int) size).putInt((int) size).putShort((short) name.length).putShort((short) 0).put(name)
+                    .put("HEAD".getBytes(StandardCharsets.UTF_8));
+            ch.write(loc.flip(), 0);
+            var cen = ByteBuffer.allocate(46 + name.length + 22).order(ByteOrder.LITTLE_ENDIAN);
+            cen.putInt(0x02014b50).putShort((short) 20).putShort((short) 20).putShort((short) 0).putShort((short) 0)
+                    .putInt(0).putInt(0).putInt((int) size).putInt((int) size).putShort((short) name.length)
+                    .putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0).putInt(0)
+                    .put(name);
+            cen.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) 1).putShort((short) 1)
+                    .putInt(46 + name.length).putInt((int) cenStart).putShort((short) 0);
+            ch.write(cen.flip(), cenStart);
+        }
+        try (var index = ArchiveIndex.open(file)) {
+            var entry = index.getEntry("big.bin").get();
+            assertEquals(size, entry.getSize());
+            assertThrows(IOException.class, () -> index.getRawData(entry)); //Checked, not IllegalArgumentException.
+            assertThrows(IOException.class, () -> index.getBuffer(entry));
+            try (var is = index.getStream(entry)) {
+                assertArrayEquals("HEAD".getBytes(StandardCharsets.UTF_8), is.readNBytes(4));
+                assertEquals(0, is.read());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+//CHECKSTYLE:ON
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.ui.MainController;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class ArchiveWriterTest {
+//CHECKSTYLE:OFF
+
+    public ArchiveWriterTest() {
+    }
+
+    /**
+     * Test of copying and adding entries, of class ArchiveWriter.
+     */
+    @Test
+    public void testCopyAndAdd() throws Exception {
+        System.out.println("Test: ArchiveWriter copy and add");
+        var source = new File(MainController.class.getResource("start_screen.spres").toURI()).toPath();
+        var dest = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        var text = "Hello, archive. Hello, archive. Hello, archive.".getBytes(StandardCharsets.UTF_8);
+        try (var index = ArchiveIndex.open(source); var writer = ArchiveWriter.create(dest)) {
+            for (var entry : index.getEntries()) {
+                writer.copyEntry(index, entry);
+            }
+            writer.putEntry("new/deflated.txt", new ByteArrayInputStream(text), ArchiveIndex.DEFLATED);
+            writer.putEntry("/new/stored.txt", new ByteArrayInputStream(text), ArchiveIndex.STORED);
+            assertThrows(ZipException.class,
+                    () -> writer.putEntry("new/stored.txt", new ByteArrayInputStream(text), ArchiveIndex.STORED));
+            writer.commit();
+        }
+        try (var src = new ZipFile(source.toFile()); var out = new ZipFile(dest.toFile())) {
+            var entries = src.entries();
+            while (entries.hasMoreElements()) {
+                var ze = entries.nextElement();
+                var copied = out.getEntry(ze.getName());
+                assertNotNull(copied, ze.getName());
+                assertEquals(ze.getCrc(), copied.getCrc());
+                assertArrayEquals(src.getInputStream(ze).readAllBytes(), out.getInputStream(copied).readAllBytes());
+            }
+            assertArrayEquals(text, out.getInputStream(out.getEntry("new/deflated.txt")).readAllBytes());
+            assertArrayEquals(text, out.getInputStream(out.getEntry("new/stored.txt")).readAllBytes());
+            assertEquals(src.size() + 2, out.size());
+        }
+        try (var index = ArchiveIndex.open(dest)) {
+            var stored = index.getEntry("new/stored.txt").get();
+            assertEquals(ArchiveIndex.STORED, stored.getMethod());
+            assertEquals(text.length, stored.getCompressedSize());
+        }
+        Files.delete(dest);
+    }
+
+    /**
+     * An uncommitted archive must not touch the destination.
+     */
+    @Test
+    public void testNoCommit() throws Exception {
+        System.out.println("Test: ArchiveWriter no commit");
+        var dest = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        Files.write(dest, new byte[]{1, 2, 3});
+        try (var writer = ArchiveWriter.create(dest)) {
+            writer.putEntry("a.txt", new ByteArrayInputStream(new byte[10]), ArchiveIndex.DEFLATED);
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(dest));
+        try (var siblings = Files.list(dest.getParent())) {
+            assertTrue(siblings.map(Path::toString).noneMatch(n -> n.endsWith(".tmp") && n.contains(dest.getFileName().toString())));
+        }
+        Files.delete(dest);
+    }
+    /**
+     * Saving over an archive keeps its permissions, and the archive can be
+     * opened between finishing and committing.
+     */
+    @Test
+    public void testKeepPermissions() throws Exception {
+        System.out.println("Test: ArchiveWriter permissions");
+        var dest = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        Assumptions.assumeTrue(dest.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        var perms = PosixFilePermissions.fromString("rw-rw-r--");
+        Files.setPosixFilePermissions(dest, perms);
+        try (var writer = ArchiveWriter.create(dest)) {
+            writer.putEntry("a.txt", new ByteArrayInputStream(new byte[10]), ArchiveIndex.DEFLATED);
+            var finished = writer.finish();
+            try (var index = ArchiveIndex.open(finished)) {
+                assertTrue(index.getEntry("a.txt").isPresent());
+                assertThrows(IOException.class,
+                        () -> writer.putEntry("b.txt", new ByteArrayInputStream(new byte[1]), ArchiveIndex.STORED));
+                writer.commit(); //Moved while still open.
+                assertEquals(10, index.getBuffer(index.getEntry("a.txt").get()).remaining());
+            }
+        }
+        assertEquals(perms, Files.getPosixFilePermissions(dest));
+        Files.delete(dest);
+    }
+//CHECKSTYLE:ON
+}
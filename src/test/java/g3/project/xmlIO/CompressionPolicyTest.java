@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.ui.MainController;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class CompressionPolicyTest {
+//CHECKSTYLE:OFF
+
+    public CompressionPolicyTest() {
+    }
+
+    /**
+     * Test of methodFor, of class CompressionPolicy.
+     */
+    @Test
+    public void testMethodFor() {
+        System.out.println("Test: CompressionPolicy methodFor");
+        var policy = CompressionPolicy.defaults();
+        assertEquals(ArchiveIndex.STORED, policy.methodFor("images/logo.JPG", 10000));
+        assertEquals(ArchiveIndex.STORED, policy.methodFor("media/clip.mp4", 10000));
+        assertEquals(ArchiveIndex.DEFLATED, policy.methodFor("doc.xml", 10000));
+        assertEquals(ArchiveIndex.DEFLATED, policy.methodFor("scripts/tb-0.py", 10000));
+        assertEquals(ArchiveIndex.STORED, policy.methodFor("scripts/tb-0.py", 10)); //Too small
+        assertEquals(ArchiveIndex.DEFLATED, policy.methodFor("images.d/noext", 10000));
+        var custom = new CompressionPolicy(Set.of("py"), Set.of("jpg"), 0);
+        assertEquals(ArchiveIndex.STORED, custom.methodFor("a.py", 10000));
+        assertEquals(ArchiveIndex.DEFLATED, custom.methodFor("a.jpg", 10000));
+    }
+
+    /**
+     * Test that saving applies the policy, of class DocIO.
+     */
+    @Test
+    public void testSaveApplies() throws Exception {
+        System.out.println("Test: CompressionPolicy on save");
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream, IO.OpenMode.MEMORY);
+        var image = new byte[4096];
+        new Random(1).nextBytes(image);
+        doc.writeBytes("images/photo.jpg", image);
+        doc.writeBytes("scripts/long.py", "print('hello')\n".repeat(100).getBytes());
+        var dest = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        doc.saveAs(dest.toString());
+        doc.close();
+        try (var index = ArchiveIndex.open(dest)) {
+            var photo = index.getEntry("images/photo.jpg").get();
+            assertEquals(ArchiveIndex.STORED, photo.getMethod());
+            assertTrue(index.getBuffer(photo).isDirect()); //Mapped, not inflated
+            assertEquals(ArchiveIndex.DEFLATED, index.getEntry("scripts/long.py").get().getMethod());
+            assertEquals(ArchiveIndex.DEFLATED, index.getEntry("doc.xml").get().getMethod());
+        }
+        Files.delete(dest);
+    }
+//CHECKSTYLE:ON
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.ui.MainController;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class DiskCacheTest {
+//CHECKSTYLE:OFF
+
+    private Path dir;
+
+    public DiskCacheTest() {
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("spres-cache-test");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (var walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Test of quota and LRU eviction, of class DiskCache.
+     */
+    @Test
+    public void testQuota() throws Exception {
+        System.out.println("Test: DiskCache quota");
+        var cache = new DiskCache(dir, 100);
+        var a = cache.put("a", new ByteArrayInputStream(new byte[40]));
+        var b = cache.put("b", new ByteArrayInputStream(new byte[40]));
+        Files.setLastModifiedTime(a, FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(b, FileTime.fromMillis(2000));
+        assertTrue(cache.get("a").isPresent()); //a is now most recent
+        cache.put("c", new ByteArrayInputStream(new byte[40])); //Evicts b
+        assertTrue(cache.get("b").isEmpty());
+        assertTrue(cache.get("a").isPresent());
+        assertEquals(80, cache.getTotalBytes());
+        for (int i = 0; i < 5; i++) { //Rewriting a key replaces its size.
+            cache.put("a", new ByteArrayInputStream(new byte[40]));
+        }
+        assertEquals(80, cache.getTotalBytes());
+        assertTrue(cache.get("c").isPresent());
+
+        //A new instance picks up what's on disk.
+        Files.write(dir.resolve(".part-left-over"), new byte[10]);
+        Files.setLastModifiedTime(dir.resolve(".part-left-over"), FileTime.fromMillis(1000));
+        Files.write(dir.resolve(".part-in-progress"), new byte[10]); //Another instance's write.
+        var again = new DiskCache(dir, 100);
+        assertEquals(80, again.getTotalBytes());
+        assertFalse(Files.exists(dir.resolve(".part-left-over")));
+        assertTrue(Files.exists(dir.resolve(".part-in-progress")));
+        again.remove("a");
+        assertEquals(40, again.getTotalBytes());
+
+        //Pinned files are never evicted, even before they're written.
+        var pinned = again.pin("p");
+        assertEquals(pinned, again.put("p", new ByteArrayInputStream(new byte[40])));
+        for (var key : new String[]{"q", "r", "s"}) {
+            again.put(key, new ByteArrayInputStream(new byte[40]));
+            Files.setLastModifiedTime(pinned, FileTime.fromMillis(1000)); //Least recently used.
+            assertTrue(Files.exists(pinned));
+        }
+        again.unpin(pinned);
+        again.put("t", new ByteArrayInputStream(new byte[40]));
+        assertFalse(Files.exists(pinned));
+    }
+
+    /**
+     * Test of persistent extraction through DocIO.
+     */
+    @Test
+    public void testExtraction() throws Exception {
+        System.out.println("Test: DiskCache extraction");
+        var cache = new DiskCache(dir, 1 << 24);
+        var deck = Paths.get(MainController.class.getResource("test_doc.spres").toURI());
+        var first = new DocIO(deck.toString());
+        first.setDiskCache(cache);
+        var path = first.getResourceTempPath("doc.xml").get();
+        first.close();
+        assertTrue(Files.exists(Paths.get(path))); //Survives close
+        var second = new DocIO(deck.toString());
+        second.setDiskCache(cache);
+        assertEquals(path, second.getResourceTempPath("/doc.xml").get());
+        assertArrayEquals(second.getResource("doc.xml").get(), Files.readAllBytes(Paths.get(path)));
+        Files.delete(Paths.get(path)); //Evicted by another instance.
+        assertEquals(path, second.getResourceTempPath("doc.xml").get());
+        assertArrayEquals(second.getResource("doc.xml").get(), Files.readAllBytes(Paths.get(path)));
+        second.close();
+    }
+
+    /**
+     * Test of removing temp files left by dead runs, of class IO.
+     */
+    @Test
+    public void testCleanupStaleTemps() throws Exception {
+        System.out.println("Test: IO cleanup stale temps");
+        var live = IO.getSessionDir();
+        var stale = Files.createTempDirectory(IO.tempFilePrefix + "session-");
+        Files.createFile(stale.resolve(IO.SESSION_LOCK_NAME)); //Lock file nobody holds
+        Files.write(stale.resolve("orphan"), new byte[10]);
+        IO.cleanupStaleTemps();
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(live));
+    }
+//CHECKSTYLE:ON
+}
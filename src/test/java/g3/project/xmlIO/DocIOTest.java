@@ -2,7 +2,31 @@ package g3.project.xmlIO;
 
 import org.junit.jupiter.api.*;
 
+import g3.project.elements.DocElement;
+import g3.project.elements.ShapeElement;
+import g3.project.ui.MainController;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import nu.xom.Attribute;
+import nu.xom.Element;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -11,12 +35,15 @@ public class DocIOTest {
     static DocIO test;
     static String presFilePath;
     static String newPath;
+    static String sharedCacheDir;
+    Path cacheDir;
     public DocIOTest(){
     }
 
     @BeforeAll
     public static void setUpClass() {
         System.out.println("\n*** DocIo class tests ***");
+        sharedCacheDir = System.getProperty("g3.diskCacheDir");
         presFilePath = "testFile.txt";
         newPath = "testSaveFile";
         test = new DocIO(presFilePath);
@@ -24,14 +51,29 @@ public class DocIOTest {
 
     @AfterAll
     public static void tearDownClass() {
+        if (sharedCacheDir == null) {
+            System.clearProperty("g3.diskCacheDir");
+        } else {
+            System.setProperty("g3.diskCacheDir", sharedCacheDir);
+        }
         System.out.println("DocIo class tests complete.");
     }
 
     @BeforeEach
-    public void setUp() { System.out.println("New test running..."); }
+    public void setUp() throws IOException {
+        System.out.println("New test running...");
+        //Each test gets its own disk cache, so none sees another's snapshots.
+        cacheDir = Files.createTempDirectory("spres-docio-test");
+        System.setProperty("g3.diskCacheDir", cacheDir.toString());
+    }
 
     @AfterEach
-    public void tearDown() { System.out.println("Test complete."); }
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(cacheDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+        System.out.println("Test complete.");
+    }
 
 
     /**
@@ -66,6 +108,211 @@ public class DocIOTest {
          assertEquals(expectedMessage.toString(), actualMessage.toString());
      }}
 
+    /**
+     * Test that the working copy is only made on the first change.
+     */
+    @Test
+    public void testCopyOnWrite() throws Exception {
+        System.out.println("Test: copyOnWrite");
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream);
+        assertTrue(doc.getDoc().isPresent());
+        assertNull(doc.zipFs);
+        var content = "print('cow')".getBytes();
+        doc.writeBytes("scripts/cow.py", content);
+        assertNotNull(doc.zipFs);
+        assertArrayEquals(content, doc.getResource("/scripts/cow.py").get());
+        doc.removeResource("scripts/cow.py");
+        assertTrue(doc.getResource("scripts/cow.py").isEmpty());
+        doc.close();
+        assertNull(doc.zipFs);
+    }
+
+    /**
+     * Test of opening from a stream in each mode, of class DocIo.
+     */
+    @Test
+    public void testStreamOpenModes() throws Exception {
+        System.out.println("Test: stream open modes");
+        for (var mode : new IO.OpenMode[]{IO.OpenMode.SPOOL, IO.OpenMode.MEMORY}) {
+            var stream = MainController.class.getResourceAsStream("test_doc.spres");
+            var doc = new DocIO(stream, mode);
+            assertTrue(doc.getDoc().isPresent());
+            assertEquals(mode, doc.getOpenStats().getMode());
+            assertTrue(doc.getOpenStats().getMillis() > 0);
+            assertTrue(doc.getOpenStats().getAllocatedBytes() != 0);
+            System.out.println(doc.getOpenStats());
+            assertEquals(mode == IO.OpenMode.MEMORY, doc.archiveIndex.isInMemory());
+            doc.writeBytes("scripts/mode.py", new byte[]{42});
+            assertArrayEquals(new byte[]{42}, doc.getResource("scripts/mode.py").get());
+            doc.close();
+        }
+    }
+
+    /**
+     * Test of reading from many threads while writing, of class DocIo.
+     */
+    @Test
+    public void testConcurrentReads() throws Exception {
+        System.out.println("Test: concurrent reads");
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream);
+        doc.enableCache(1 << 16);
+        var names = new ArrayList<String>();
+        var expected = new HashMap<String, byte[]>();
+        for (var entry : doc.archiveIndex.getEntries()) {
+            if (!entry.isDirectory()) {
+                names.add(entry.getName());
+                expected.put(entry.getName(), doc.getResource(entry.getName()).get());
+            }
+        }
+        var pool = Executors.newFixedThreadPool(8);
+        var results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 64; i++) {
+            final var name = names.get(i % names.size());
+            results.add(pool.submit(() -> Arrays.equals(expected.get(name), doc.getResource(name).get())
+                    && doc.getResourceTempPath(name).isPresent()));
+        }
+        for (int i = 0; i < 8; i++) {
+            doc.writeBytes("scripts/busy.py", new byte[]{(byte) i});
+        }
+        for (var r : results) {
+            assertTrue(r.get());
+        }
+        pool.shutdown();
+        assertArrayEquals(new byte[]{7}, doc.getResource("scripts/busy.py").get());
+        doc.close();
+    }
+
+    /**
+     * Test of de-duplicating added resources, of class DocIo.
+     */
+    @Test
+    public void testDedup() throws Exception {
+        System.out.println("Test: dedup");
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream, IO.OpenMode.MEMORY);
+        var content = new byte[]{1, 2, 3, 4};
+        var src = Files.createTempFile(IO.tempFilePrefix, ".png");
+        Files.write(src, content);
+        assertArrayEquals(content, doc.addResource(src.toString(), "/images/a.png").get());
+        assertArrayEquals(content, doc.addResource(src.toString(), "images/b.png").get());
+        assertEquals(doc.resolveResource("images/a.png"), doc.resolveResource("/images/b.png"));
+        assertEquals(1, doc.modifiedEntries.size()); //Stored once
+
+        //Only a.png is still referenced; releasing b.png must keep the content.
+        var ref = new Element("probe");
+        ref.addAttribute(new Attribute("include_source", "/images/a.png"));
+        doc.getDoc().get().getRootElement().appendChild(ref);
+        doc.releaseResource("images/b.png", doc.getDoc().get());
+        assertTrue(doc.getResource("images/b.png").isEmpty());
+        assertArrayEquals(content, doc.getResource("images/a.png").get());
+
+        var dest = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        doc.saveAs(dest.toString());
+        doc.close();
+        var reopened = new DocIO(dest.toString());
+        assertArrayEquals(content, reopened.getResource("/images/a.png").get());
+        ref = (Element) reopened.getDoc().get().query("//probe").get(0);
+        ref.detach();
+        reopened.releaseResource("images/a.png", reopened.getDoc().get());
+        assertTrue(reopened.getResource("images/a.png").isEmpty());
+        assertTrue(reopened.aliases.isEmpty());
+        reopened.close();
+        Files.delete(dest);
+        Files.delete(src);
+    }
+
+    /**
+     * Test of releasing resources referenced from unparsed pages, of class
+     * DocIo.
+     */
+    @Test
+    public void testReleaseInStubs() throws Exception {
+        System.out.println("Test: release with unparsed pages");
+        var xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<base:document xmlns:ext='http://PWS_Exts' xmlns:base='http://PWS_Base'>\n");
+        for (int i = 0; i < 4000; i++) {
+            xml.append("<base:page ID=\"p").append(i).append("\"><base:shape ID=\"s").append(i)
+                    .append("\" type=\"rectangle\"><base:text>t</base:text></base:shape></base:page>\n");
+        }
+        xml.append("<base:page ID=\"last\"><base:image ID=\"im\" include_source='images/a&amp;b.png'/></base:page>\n");
+        xml.append("</base:document>\n");
+        var doc = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY);
+        var docEl = (DocElement) doc.getDoc().get().getRootElement();
+        doc.writeBytes("images/a&b.png", new byte[]{1});
+        doc.writeBytes("images/free.png", new byte[]{2});
+        var parsed = docEl.getPages().stream().filter(p -> p.isMaterialised()).count();
+        assertTrue(parsed < 10);
+
+        doc.releaseResource("images/a&b.png", doc.getDoc().get());
+        doc.releaseResource("images/free.png", doc.getDoc().get());
+        assertTrue(doc.getResource("images/a&b.png").isPresent()); //Still used by the unparsed page.
+        assertTrue(doc.getResource("images/free.png").isEmpty());
+        assertEquals(parsed, docEl.getPages().stream().filter(p -> p.isMaterialised()).count()); //Nothing parsed to check.
+        doc.close();
+    }
+
+    /**
+     * Test of a save that can't be moved into place, of class DocIo.
+     */
+    @Test
+    public void testFailedCommit() throws Exception {
+        System.out.println("Test: failed commit");
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream, IO.OpenMode.MEMORY);
+        var content = "print('kept')".getBytes(StandardCharsets.UTF_8);
+        doc.writeBytes("scripts/kept.py", content);
+        var blocked = Files.createTempDirectory(IO.tempFilePrefix).resolve("blocked.spres");
+        Files.createDirectories(blocked);
+        Files.write(blocked.resolve("in-the-way"), new byte[1]); //A non-empty directory can't be replaced.
+        assertThrows(IOException.class, () -> doc.saveAs(blocked.toString()));
+        //Nothing was switched over, so the live doc still has everything.
+        assertTrue(doc.basePath == null || Files.exists(doc.basePath));
+        assertArrayEquals(content, doc.getResource("scripts/kept.py").get());
+        assertTrue(doc.getResource(DocIO.XML_FILE_NAME).isPresent());
+        var dest = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        doc.saveAs(dest.toString());
+        doc.close();
+        var reopened = new DocIO(dest.toString());
+        assertArrayEquals(content, reopened.getResource("scripts/kept.py").get());
+        reopened.close();
+        Files.delete(dest);
+        Files.delete(blocked.resolve("in-the-way"));
+        Files.delete(blocked);
+        Files.delete(blocked.getParent());
+    }
+
+    /**
+     * Test of saving changes, of class DocIo.
+     */
+    @Test
+    public void testSaveRoundTrip() throws Exception {
+        System.out.println("Test: save round trip");
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream, IO.OpenMode.MEMORY);
+        var content = "print('saved')".getBytes();
+        doc.writeBytes("scripts/saved.py", content);
+        var dest = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        doc.saveAs(dest.toString());
+        assertNull(doc.zipFs);
+        assertArrayEquals(content, doc.getResource("scripts/saved.py").get());
+        doc.close();
+
+        var reopened = new DocIO(dest.toString());
+        assertTrue(reopened.getDoc().isPresent());
+        assertArrayEquals(content, reopened.getResource("scripts/saved.py").get());
+        reopened.removeResource("scripts/saved.py");
+        reopened.save();
+        reopened.close();
+
+        var again = new DocIO(dest.toString());
+        assertTrue(again.getDoc().isPresent());
+        assertTrue(again.getResource("scripts/saved.py").isEmpty());
+        again.close();
+        Files.delete(dest);
+    }
+
     /**
      * Test of isURiInternal method, of class DocIo.
      */
@@ -87,6 +334,241 @@ public class DocIOTest {
     }
 
 
+    /**
+     * Zip a doc.xml into an in-memory presentation.
+     */
+    private static InputStream zipDoc(final String xml) throws IOException {
+        return zipDoc(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Zip an encoded doc.xml into an in-memory presentation.
+     */
+    private static InputStream zipDoc(final byte[] xml) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry(DocIO.XML_FILE_NAME));
+            zip.write(xml);
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    /**
+     * Test of fast open with background validation, of class DocIo.
+     */
+    @Test
+    public void testFastOpen() throws Exception {
+        System.out.println("Test: fast open");
+        var xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<base:document xmlns:ext='http://PWS_Exts' xmlns:base='http://PWS_Base'>\n"
+                + "<base:page ID=\"bad\" x_size_px=\"wide\"/>\n");
+        for (int i = 0; i < 2000; i++) {
+            xml.append("<base:page ID=\"p").append(i).append("\" x_size_px=\"960\" y_size_px=\"600\">"
+                    + "<base:shape ID=\"s").append(i).append("\" type=\"rectangle\" x_orig=\"1\" y_orig=\"2\"/></base:page>\n");
+        }
+        xml.append("</base:document>\n");
+
+        var slow = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY);
+        var expected = ((DocElement) slow.getDoc().get().getRootElement()).getValidationErrors();
+        assertFalse(expected.isEmpty());
+
+        var reported = new CompletableFuture<ArrayList<String>>();
+        var fast = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY, reported::complete);
+        var docEl = (DocElement) fast.getDoc().get().getRootElement();
+        assertEquals(2001, docEl.getPages().size());
+        System.out.println("Validated open: " + slow.getOpenStats().getMillis() + "ms, fast open: "
+                + fast.getOpenStats().getMillis() + "ms");
+
+        //Errors arrive later, and match a validating open.
+        var errs = fast.getValidation().get().get(30, TimeUnit.SECONDS);
+        assertEquals(expected, errs);
+        assertEquals(expected, docEl.getValidationErrors());
+        assertEquals(expected, reported.get(30, TimeUnit.SECONDS));
+        assertTrue(slow.getValidation().isEmpty());
+        slow.close();
+        fast.close();
+    }
+
+    /**
+     * Wait for an entry to reach the test's disk cache.
+     */
+    private static void awaitCached(final String key) throws InterruptedException {
+        var cache = DiskCache.getShared().get();
+        for (int i = 0; i < 500 && cache.get(key).isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(cache.get(key).isPresent());
+    }
+
+    /**
+     * Test of opening from a snapshot, of class DocIo.
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        System.out.println("Test: snapshot");
+        for (var pages : new int[]{5, 2000}) { //Small, then big enough to parse lazily.
+            var xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<!-- " + UUID.randomUUID() + " -->\n"
+                    + "<base:document xmlns:ext='http://PWS_Exts' xmlns:base='http://PWS_Base'>\n"
+                    + "<base:page ID=\"bad\" x_size_px=\"wide\"/>\n");
+            for (int i = 0; i < pages; i++) {
+                xml.append("<base:page ID=\"p").append(i).append("\" x_size_px=\"960\" y_size_px=\"600\">"
+                        + "<?render fast?><base:shape ID=\"s").append(i).append("\" type=\"rectangle\" ext:shade-px=\"2\">"
+                        + "<base:text><base:font>A &lt; B</base:font></base:text></base:shape></base:page>\n");
+            }
+            xml.append("</base:document>\n");
+            var hash = DocSnapshot.hash(xml.toString().getBytes(StandardCharsets.UTF_8));
+
+            var parsed = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY);
+            awaitCached(DocSnapshot.treeKey(hash));
+            awaitCached(DocSnapshot.errorsKey(hash));
+            var parsedEl = (DocElement) parsed.getDoc().get().getRootElement();
+
+            var loads = DocSnapshot.getLoads();
+            var reopened = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY);
+            assertEquals(loads + 1, DocSnapshot.getLoads());
+            var docEl = (DocElement) reopened.getDoc().get().getRootElement();
+            assertEquals(parsedEl.getValidationErrors(), docEl.getValidationErrors());
+            assertFalse(docEl.getValidationErrors().isEmpty());
+            assertEquals(pages > 5, !docEl.getPages().get(1).isMaterialised()); //Stubs stay stubs.
+            assertTrue(docEl.getElementByID("s3").get() instanceof ShapeElement);
+            System.out.println("Parsed open: " + parsed.getOpenStats().getMillis() + "ms, snapshot open: "
+                    + reopened.getOpenStats().getMillis() + "ms");
+            parsedEl.materialiseAll();
+            docEl.materialiseAll();
+            assertEquals(parsed.getDoc().get().toXML(), reopened.getDoc().get().toXML());
+
+            //Errors come from the cache on a fast open too.
+            var fast = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY, null);
+            assertEquals(loads + 2, DocSnapshot.getLoads());
+            assertEquals(parsedEl.getValidationErrors(), fast.getValidation().get().get(30, TimeUnit.SECONDS));
+
+            //A damaged snapshot is dropped, and the XML parsed instead.
+            DiskCache.getShared().get().put(DocSnapshot.treeKey(hash), new ByteArrayInputStream(new byte[]{1, 2, 3}));
+            var damaged = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY);
+            assertEquals(loads + 2, DocSnapshot.getLoads());
+            assertEquals(pages + 1, ((DocElement) damaged.getDoc().get().getRootElement()).getPages().size());
+            awaitCached(DocSnapshot.treeKey(hash)); //Rewritten.
+
+            //So is one claiming a string longer than the whole entry.
+            DiskCache.getShared().get().put(DocSnapshot.errorsKey(hash), new ByteArrayInputStream(
+                    new byte[]{0x47, 0x33, 0x53, 0x50, 0, 0, 0, 1, 0x7f, -1, -1, -1}));
+            var huge = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY, null);
+            assertEquals(parsedEl.getValidationErrors(), huge.getValidation().get().get(30, TimeUnit.SECONDS));
+            parsed.close();
+            reopened.close();
+            fast.close();
+            damaged.close();
+            huge.close();
+        }
+    }
+
+    /**
+     * Test of saving a big doc without parsing it, of class DocIo.
+     */
+    @Test
+    public void testStreamingSave() throws Exception {
+        System.out.println("Test: streaming save");
+        for (var enc : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1}) {
+            var xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"" + enc.name() + "\"?>\n"
+                    + "<base:document xmlns:ext='http://PWS_Exts' xmlns:base='http://PWS_Base'>\n");
+            for (int i = 0; i < 2000; i++) {
+                xml.append("<base:page ID=\"p").append(i).append("\" x_size_px=\"960\" y_size_px=\"600\">"
+                        + "<base:shape ID=\"s").append(i).append("\" type=\"rectangle\"><base:text><base:font>Café &#26085;</base:font></base:text>"
+                        + "</base:shape></base:page>\n");
+            }
+            xml.append("</base:document>\n");
+            var doc = new DocIO(zipDoc(xml.toString().getBytes(enc)), IO.OpenMode.MEMORY);
+            var docEl = (DocElement) doc.getDoc().get().getRootElement();
+            ((Element) docEl.getElementByID("s7").get()).addAttribute(new Attribute("x_orig", "5"));
+
+            var dest = Files.createTempFile(IO.tempFilePrefix, ".spres");
+            doc.saveAs(dest.toString());
+            var stats = doc.getSaveStats().get();
+            System.out.println(enc + " " + stats);
+            assertEquals(1, docEl.getLivePageCount()); //Only the edited page was parsed.
+            assertFalse(docEl.getPages().get(8).isMaterialised());
+
+            var saved = doc.getResource(DocIO.XML_FILE_NAME).get();
+            assertEquals(stats.getDocBytes(), saved.length);
+            var text = new String(saved, StandardCharsets.UTF_8);
+            assertTrue(text.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"));
+            var edited = text.substring(text.indexOf("ID=\"p7\""), text.indexOf("ID=\"p8\""));
+            assertTrue(edited.contains("Café 日")); //Written as UTF-8, not character references.
+            assertTrue(text.contains("Café &#26085;")); //Unparsed pages are copied as they were.
+
+            var reopened = new DocIO(dest.toString());
+            var reopenedEl = (DocElement) reopened.getDoc().get().getRootElement();
+            assertEquals("5", ((Element) reopenedEl.getElementByID("s7").get()).getAttributeValue("x_orig"));
+            docEl.materialiseAll();
+            reopenedEl.materialiseAll();
+            assertEquals(doc.getDoc().get().getRootElement().toXML(), reopened.getDoc().get().getRootElement().toXML());
+            doc.close();
+            reopened.close();
+            Files.delete(dest);
+        }
+    }
+
+    /**
+     * Test of saving a doc snapshot while the doc changes, of class DocIO.
+     */
+    @Test
+    public void testSnapshotSave() throws Exception {
+        System.out.println("Test: snapshot save");
+        var xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<base:document xmlns:ext='http://PWS_Exts' xmlns:base='http://PWS_Base'>\n");
+        for (int i = 0; i < 2000; i++) {
+            xml.append("<base:page ID=\"p").append(i).append("\"><base:shape ID=\"s").append(i)
+                    .append("\" type=\"rectangle\" ext:shade-px=\"2\"><base:text>t</base:text></base:shape></base:page>\n");
+        }
+        xml.append("</base:document>\n");
+        var doc = new DocIO(zipDoc(xml.toString()), IO.OpenMode.MEMORY);
+        var docEl = (DocElement) doc.getDoc().get().getRootElement();
+        var s3 = (Element) docEl.getElementByID("s3").get();
+        s3.addAttribute(new Attribute("x_orig", "5"));
+        doc.writeBytes("res/keep.txt", "old".getBytes(StandardCharsets.UTF_8));
+        doc.writeBytes("res/gone.txt", "gone".getBytes(StandardCharsets.UTF_8));
+        var snap = docEl.snapshot();
+
+        var live = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        var copy = Files.createTempFile(IO.tempFilePrefix, ".spres");
+        doc.saveAs(live.toString()); //The live doc, in the same state.
+        var saving = CompletableFuture.runAsync(() -> {
+            try {
+                doc.saveAs(copy.toString(), snap);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+        for (int i = 0; i < 200; i++) { //Keep changing the doc meanwhile.
+            s3.addAttribute(new Attribute("x_orig", String.valueOf(100 + i)));
+        }
+        doc.writeBytes("res/keep.txt", "new".getBytes(StandardCharsets.UTF_8)); //And its resources.
+        doc.writeBytes("res/added.txt", "added".getBytes(StandardCharsets.UTF_8));
+        doc.removeResource("res/gone.txt");
+        saving.get();
+        //Changes made during the save survive the switch to the saved archive.
+        assertEquals("new", new String(doc.getResource("res/keep.txt").get(), StandardCharsets.UTF_8));
+        assertTrue(doc.getResource("res/added.txt").isPresent());
+        assertTrue(doc.getResource("res/gone.txt").isEmpty());
+
+        var liveDoc = new DocIO(live.toString());
+        var copyDoc = new DocIO(copy.toString());
+        assertArrayEquals(liveDoc.getResource(DocIO.XML_FILE_NAME).get(), copyDoc.getResource(DocIO.XML_FILE_NAME).get());
+        var copyEl = (DocElement) copyDoc.getDoc().get().getRootElement();
+        assertEquals("5", ((Element) copyEl.getElementByID("s3").get()).getAttributeValue("x_orig"));
+        assertTrue(copyDoc.getResource("res/keep.txt").isPresent()); //Captured with the snapshot.
+        liveDoc.close();
+        copyDoc.close();
+        doc.close();
+        assertTrue(doc.isClosed());
+        //A save queued before close fails cleanly instead of reading a closed archive.
+        var ex = assertThrows(IOException.class, () -> doc.saveAs(copy.toString(), snap));
+        assertEquals("Document closed.", ex.getMessage());
+        Files.delete(live);
+        Files.delete(copy);
+    }
+
     /**
      * Test of retrieveDoc method, of class DocIo.
      */
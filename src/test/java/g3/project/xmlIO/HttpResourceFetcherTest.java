@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class HttpResourceFetcherTest {
+//CHECKSTYLE:OFF
+
+    private static final byte[] BODY = "picture".getBytes(StandardCharsets.UTF_8);
+
+    private Path dir;
+    private HttpServer server;
+    private String base;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    public HttpResourceFetcherTest() {
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("spres-http-test");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/etag", ex -> {
+            clientPorts.add(ex.getRemoteAddress().getPort());
+            ex.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+                ex.sendResponseHeaders(304, -1);
+            } else {
+                fullResponses.incrementAndGet();
+                ex.sendResponseHeaders(200, BODY.length);
+                ex.getResponseBody().write(BODY);
+            }
+            ex.close();
+        });
+        server.createContext("/fresh", ex -> {
+            fullResponses.incrementAndGet();
+            ex.getResponseHeaders().add("Cache-Control", "max-age=600");
+            ex.sendResponseHeaders(200, BODY.length);
+            ex.getResponseBody().write(BODY);
+            ex.close();
+        });
+        server.createContext("/slow", ex -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+            }
+            ex.sendResponseHeaders(200, BODY.length);
+            ex.getResponseBody().write(BODY);
+            ex.close();
+        });
+        server.createContext("/missing", ex -> {
+            ex.sendResponseHeaders(404, -1);
+            ex.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.stop(0);
+        try (var walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Test of conditional GET and connection reuse, of class HttpResourceFetcher.
+     */
+    @Test
+    public void testRevalidate() throws Exception {
+        System.out.println("Test: HttpResourceFetcher conditional GET");
+        var fetcher = new HttpResourceFetcher(new DiskCache(dir, 1 << 20), Duration.ofSeconds(5), Duration.ofSeconds(5));
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(BODY, fetcher.fetch(base + "/etag").get());
+        }
+        assertEquals(1, fullResponses.get()); //Downloaded once
+        assertEquals(3, fetcher.getRequests());
+        assertEquals(2, fetcher.getNotModified());
+        assertTrue(clientPorts.size() < 3); //Kept alive (this server drops it after a 304)
+
+        //Cache survives a new fetcher.
+        var again = new HttpResourceFetcher(new DiskCache(dir, 1 << 20), Duration.ofSeconds(5), Duration.ofSeconds(5));
+        assertArrayEquals(BODY, again.fetch(base + "/etag").get());
+        assertEquals(1, fullResponses.get());
+
+        //Evicted: downloaded again.
+        again.evict(base + "/etag");
+        assertArrayEquals(BODY, again.fetch(base + "/etag").get());
+        assertEquals(2, fullResponses.get());
+    }
+
+    /**
+     * Test of max-age freshness, of class HttpResourceFetcher.
+     */
+    @Test
+    public void testFresh() throws Exception {
+        System.out.println("Test: HttpResourceFetcher max-age");
+        var fetcher = new HttpResourceFetcher(new DiskCache(dir, 1 << 20), Duration.ofSeconds(5), Duration.ofSeconds(5));
+        assertArrayEquals(BODY, fetcher.fetch(base + "/fresh").get());
+        assertArrayEquals(BODY, fetcher.fetch(base + "/fresh").get());
+        assertEquals(1, fetcher.getRequests());
+        assertEquals(1, fetcher.getFreshHits());
+        assertEquals(1, fullResponses.get());
+    }
+
+    /**
+     * Test of timeouts and errors, of class HttpResourceFetcher.
+     */
+    @Test
+    public void testFailures() throws Exception {
+        System.out.println("Test: HttpResourceFetcher timeouts and errors");
+        var fetcher = new HttpResourceFetcher(null, Duration.ofSeconds(5), Duration.ofMillis(200));
+        var start = System.nanoTime();
+        assertTrue(fetcher.fetch(base + "/slow").isEmpty());
+        assertTrue(System.nanoTime() - start < 1_500_000_000L);
+        assertTrue(fetcher.fetch(base + "/missing").isEmpty());
+        assertTrue(fetcher.fetch("http://bad host/").isEmpty());
+    }
+}
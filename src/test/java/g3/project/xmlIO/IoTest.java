@@ -33,7 +33,6 @@ import org.junit.jupiter.api.*;
 
 import java.io.File;  // Import the File class
 import java.io.FileNotFoundException;  // Import this class to handle errors
-import java.nio.file.FileSystem;
 import java.util.Optional;
 import java.util.Scanner; // Import the Scanner class to read text files
 import static org.junit.jupiter.api.Assertions.*;
@@ -69,7 +68,7 @@ public class IoTest {
             presFilePath = "/Users/pezer/Desktop/3rdYear/SwEng/Sw-Eng-G3-Src-master/src/test/testFile.txt";
             test = new IO(presFilePath) {
                 @Override
-                protected Optional<Document> retrieveDoc(FileSystem fs) {
+                protected Optional<Document> retrieveDoc() {
                     return Optional.empty();
                 }
             };
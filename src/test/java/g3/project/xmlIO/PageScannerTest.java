@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class PageScannerTest {
+//CHECKSTYLE:OFF
+
+    public PageScannerTest() {
+    }
+
+    private static String content(final byte[] xml, final PageScanner.Page p) {
+        return new String(xml, p.getStart(), p.getEnd() - p.getStart(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test of splitting pages, of class PageScanner.
+     */
+    @Test
+    public void testScan() {
+        System.out.println("Test: PageScanner scan");
+        var text = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- <base:page> -->\n"
+                + "<base:document xmlns:base='http://PWS_Base'>\n"
+                + "<base:page ID=\"p0\" title=\"a > b\"><base:shape ID='s&amp;0'><![CDATA[</base:page>]]></base:shape><base:page ID=\"nested\"/></base:page>\n"
+                + "<base:page ID=\"p1\"/>\n"
+                + "<base:page ID=\"p2\"><?pi </base:page>?><base:image ID=\"&#x4E2D;\"/></base:page>\n"
+                + "</base:document>\n";
+        var xml = text.getBytes(StandardCharsets.UTF_8);
+        var result = PageScanner.scan(xml).get();
+        assertEquals("UTF-8", result.getEncoding());
+        var pages = result.getPages();
+        assertEquals(3, pages.size());
+        assertEquals("<base:shape ID='s&amp;0'><![CDATA[</base:page>]]></base:shape><base:page ID=\"nested\"/>", content(xml, pages.get(0)));
+        assertEquals(List.of("s&0", "nested"), pages.get(0).getIDs());
+        assertEquals("", content(xml, pages.get(1)));
+        assertEquals(List.of("中"), pages.get(2).getIDs());
+        var skeleton = new String(result.getSkeleton(), StandardCharsets.UTF_8);
+        assertTrue(skeleton.contains("<base:page ID=\"p0\" title=\"a > b\"></base:page>"));
+        assertTrue(skeleton.contains("<base:page ID=\"p2\"></base:page>"));
+        assertFalse(skeleton.contains("shape"));
+    }
+
+    /**
+     * Test of documents the scanner declines, of class PageScanner.
+     */
+    @Test
+    public void testDecline() {
+        System.out.println("Test: PageScanner decline");
+        //Entities might be declared.
+        assertTrue(PageScanner.scan("<!DOCTYPE d [<!ENTITY e 'x'>]><d><base:page>&e;</base:page></d>".getBytes(StandardCharsets.UTF_8)).isEmpty());
+        //Truncated.
+        assertTrue(PageScanner.scan("<d><base:page><!-- oops".getBytes(StandardCharsets.UTF_8)).isEmpty());
+        assertTrue(PageScanner.scan("<d><base:page>".getBytes(StandardCharsets.UTF_8)).isEmpty());
+        //UTF-16.
+        assertTrue(PageScanner.scan("<d/>".getBytes(StandardCharsets.UTF_16)).isEmpty());
+        //Single-byte encodings are fine.
+        var latin = "<?xml version='1.0' encoding='ISO-8859-1'?><d><base:page><x ID='café'/></base:page></d>".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(List.of("café"), PageScanner.scan(latin).get().getPages().get(0).getIDs());
+    }
+}
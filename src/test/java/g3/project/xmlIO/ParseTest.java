@@ -31,18 +31,26 @@ package g3.project.xmlIO;
 import g3.project.core.Engine;
 import g3.project.elements.DocElement;
 import g3.project.ui.MainController;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import nu.xom.Attribute;
 import nu.xom.Document;
+import nu.xom.Element;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.xml.sax.XMLReader;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -156,5 +164,141 @@ public class ParseTest {
         result = Parse.parseDocXML(xmlStream);
         assertTrue(result.isEmpty());
     }
+    /**
+     * Test of pooled parsing, of class Parse. Compares against a builder that
+     * compiles the schemas itself, as every parse used to.
+     */
+    @Test
+    public void testPooledParse() throws Exception {
+        System.out.println("Test: pooled parseDocXML");
+        assertTrue(ParserPool.hasSharedGrammars());
+        var xml = MainController.class.getResourceAsStream("test.xml").readAllBytes();
+        var bad = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<base:document xmlns:ext='http://PWS_Exts' xmlns:base='http://PWS_Base'>"
+                + "<base:page ID=\"p0\" x_size_px=\"wide\"/></base:document>").getBytes(StandardCharsets.UTF_8);
+
+        //Shared schemas validate the same as freshly compiled ones.
+        var pooledErrs = ((DocElement) Parse.parseDocXML(new ByteArrayInputStream(bad)).get().getRootElement()).getValidationErrors();
+        var freshErrs = ((DocElement) Parse.build(ParserPool.builderFor(ParserPool.newReader(false)), new ByteArrayInputStream(bad)).get().getRootElement()).getValidationErrors();
+        assertFalse(pooledErrs.isEmpty());
+        assertEquals(freshErrs, pooledErrs);
+
+        final int runs = 30;
+        var start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            assertTrue(Parse.build(ParserPool.builderFor(ParserPool.newReader(false)), new ByteArrayInputStream(xml)).isPresent());
+        }
+        var unpooled = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            assertTrue(Parse.parseDocXML(new ByteArrayInputStream(xml)).isPresent());
+        }
+        var pooled = System.nanoTime() - start;
+        System.out.println("Unpooled: " + unpooled / runs / 1000 + "us/doc, pooled: " + pooled / runs / 1000 + "us/doc");
+
+        //Many threads at once.
+        var pool = new ParserPool(4);
+        var exec = Executors.newFixedThreadPool(8);
+        var results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 200; i++) {
+            results.add(exec.submit(() -> {
+                var b = pool.borrow();
+                try {
+                    return Parse.build(ParserPool.builderFor(b), new ByteArrayInputStream(xml)).isPresent();
+                } finally {
+                    pool.release(b);
+                }
+            }));
+        }
+        for (var r : results) {
+            assertTrue(r.get());
+        }
+        exec.shutdown();
+        assertTrue(pool.getIdle() <= 4);
+
+        //Released parsers are reused, up to the idle capacity.
+        var reuse = new ParserPool(4);
+        var held = new ArrayList<XMLReader>();
+        for (int i = 0; i < 4; i++) {
+            held.add(reuse.borrow());
+        }
+        held.forEach(reuse::release);
+        for (int i = 0; i < 50; i++) {
+            var b = reuse.borrow();
+            assertTrue(Parse.build(ParserPool.builderFor(b), new ByteArrayInputStream(xml)).isPresent());
+            reuse.release(b);
+        }
+        assertEquals(4, reuse.getCreated());
+        assertEquals(4, reuse.getIdle());
+    }
+    /**
+     * Make a deck with many pages.
+     */
+    private static byte[] makeDeck(final int pages) {
+        var xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<base:document xmlns:ext='http://PWS_Exts' xmlns:base='http://PWS_Base'>\n");
+        for (int i = 0; i < pages; i++) {
+            xml.append("  <base:page ID=\"p").append(i).append("\" x_size_px=\"960\" y_size_px=\"600\" title=\"Card ").append(i).append("\">\n")
+                    .append("    <!-- card ").append(i).append(" -->\n")
+                    .append("    <base:shape ID=\"s").append(i).append("\" type=\"rectangle\" x_orig=\"1\" y_orig=\"2\" ext:shade-px=\"3\">\n")
+                    .append("      <base:text><base:font size=\"12\">Hello &amp; <base:href type=\"internal\" target=\"s").append((i + 1) % pages)
+                    .append("\">next</base:href></base:font></base:text>\n")
+                    .append("    </base:shape>\n")
+                    .append("    <base:image ID=\"im").append(i).append("\" include_source=\"im.png\"/>\n")
+                    .append("  </base:page>\n");
+        }
+        xml.append("  <base:page ID=\"empty\"/>\n</base:document>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test of parseDocXMLLazy method, of class Parse.
+     */
+    @Test
+    public void testLazyParse() throws Exception {
+        System.out.println("Test: lazy parseDocXML");
+        var xml = makeDeck(50);
+        var full = Parse.parseDocXML(new ByteArrayInputStream(xml)).get();
+        var lazy = Parse.parseDocXMLLazy(xml, true).get();
+        var docEl = (DocElement) lazy.getRootElement();
+        assertEquals(((DocElement) full.getRootElement()).getValidationErrors(), docEl.getValidationErrors());
+        var pages = docEl.getPages();
+        assertEquals(51, pages.size());
+        assertTrue(pages.stream().limit(50).noneMatch(p -> p.isMaterialised()));
+        assertEquals("Card 7", pages.get(7).getTitle().get()); //Stubs keep their attributes.
+
+        //Found in an unparsed page, which is then parsed.
+        var el = docEl.getElementByID("s10");
+        assertTrue(el.isPresent());
+        assertTrue(pages.get(10).isMaterialised());
+        assertEquals(pages.get(10), el.get().getPage().get());
+        assertFalse(pages.get(11).isMaterialised());
+        docEl.getPage(3);
+        assertTrue(pages.get(3).isMaterialised());
+        assertFalse(docEl.validateUniqueID("im41")); //Known without parsing.
+        assertFalse(pages.get(41).isMaterialised());
+        docEl.getElementByID("im40");
+
+        //Evicted least recently used first, never the current page.
+        docEl.setMaxLivePages(2);
+        assertEquals(2, docEl.getLivePageCount());
+        assertTrue(pages.get(3).isMaterialised());
+        assertTrue(pages.get(40).isMaterialised());
+        assertFalse(pages.get(10).isMaterialised());
+        //Edits survive eviction.
+        ((Element) docEl.getElementByID("s10").get()).addAttribute(new Attribute("probe", "99"));
+        docEl.getElementByID("s20");
+        docEl.getElementByID("s21");
+        assertFalse(pages.get(10).isMaterialised());
+        assertEquals("99", ((Element) docEl.getElementByID("s10").get()).getAttributeValue("probe"));
+
+        //Round trip.
+        docEl.materialiseAll();
+        var probed = (Element) docEl.getElementByID("s10").get();
+        probed.removeAttribute(probed.getAttribute("probe"));
+        assertEquals(full.toXML(), lazy.toXML());
+        docEl.trimPages();
+        assertEquals(2, docEl.getLivePageCount());
+    }
 //CHECKSTYLE:ON
 }
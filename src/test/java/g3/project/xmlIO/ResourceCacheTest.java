@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.ui.MainController;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class ResourceCacheTest {
+//CHECKSTYLE:OFF
+
+    public ResourceCacheTest() {
+    }
+
+    /**
+     * Test of LRU eviction and stats, of class ResourceCache.
+     */
+    @Test
+    public void testEviction() {
+        System.out.println("Test: ResourceCache eviction");
+        var cache = new ResourceCache(100);
+        cache.put("a", ByteBuffer.allocate(40));
+        cache.put("b", ByteBuffer.allocate(40));
+        assertTrue(cache.get("a").isPresent()); //a is now most recent
+        cache.put("c", ByteBuffer.allocate(40)); //Evicts b
+        assertTrue(cache.get("b").isEmpty());
+        assertTrue(cache.get("a").isPresent());
+        assertTrue(cache.get("c").isPresent());
+        assertEquals(80, cache.getResidentBytes());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        cache.put("huge", ByteBuffer.allocate(101)); //Over budget, ignored
+        assertTrue(cache.get("huge").isEmpty());
+        assertEquals(2, cache.getCount());
+        cache.invalidate("a");
+        assertEquals(40, cache.getResidentBytes());
+        cache.clear();
+        assertEquals(0, cache.getResidentBytes());
+    }
+
+    /**
+     * Test of caching and invalidation through DocIO.
+     */
+    @Test
+    public void testDocIOCache() throws Exception {
+        System.out.println("Test: ResourceCache with DocIO");
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream, IO.OpenMode.MEMORY);
+        doc.enableCache(1 << 20);
+        var cache = doc.getResourceCache().get();
+        doc.writeBytes("scripts/cached.py", new byte[]{1});
+        assertArrayEquals(new byte[]{1}, doc.getResource("/scripts/cached.py").get());
+        assertArrayEquals(new byte[]{1}, doc.getResource("scripts/cached.py").get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        doc.writeBytes("scripts/cached.py", new byte[]{2}); //Must invalidate
+        try (var is = doc.getResourceStream("scripts/cached.py").get()) {
+            assertArrayEquals(new byte[]{2}, is.readAllBytes());
+        }
+        doc.removeResource("scripts/cached.py");
+        assertTrue(doc.getResource("scripts/cached.py").isEmpty());
+        assertEquals(0, cache.getResidentBytes());
+        doc.close();
+    }
+    /**
+     * Test of loads in flight together, of class ResourceCache.
+     */
+    @Test
+    public void testConcurrentLoads() throws Exception {
+        System.out.println("Test: ResourceCache concurrent loads");
+        var cache = new ResourceCache(1 << 20);
+        var started = cache.getGeneration(); //All start loading...
+        for (int i = 0; i < 8; i++) {
+            cache.put("r" + i, ByteBuffer.allocate(10), started); //...and each finishes.
+        }
+        assertEquals(8, cache.getCount()); //Putting one doesn't drop the others.
+        cache.put("r0", ByteBuffer.allocate(20), started); //Replacing keeps the count right.
+        assertEquals(90, cache.getResidentBytes());
+        cache.invalidate("r1");
+        cache.put("late", ByteBuffer.allocate(10), started); //Started before a change.
+        assertTrue(cache.get("late").isEmpty());
+
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream, IO.OpenMode.MEMORY);
+        for (int i = 0; i < 16; i++) {
+            doc.writeBytes("res/r" + i, new byte[]{(byte) i});
+        }
+        doc.enableCache(1 << 20);
+        var pool = Executors.newFixedThreadPool(8);
+        try {
+            var loads = new ArrayList<Future<?>>();
+            for (int i = 0; i < 16; i++) {
+                var name = "res/r" + i;
+                loads.add(pool.submit(() -> doc.getResource(name)));
+            }
+            for (var load : loads) {
+                load.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(16, doc.getResourceCache().get().getCount());
+        doc.close();
+    }
+//CHECKSTYLE:ON
+}
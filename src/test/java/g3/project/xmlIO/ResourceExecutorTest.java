@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2022, Group 3
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ * * Neither the name of the copyright holder nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package g3.project.xmlIO;
+
+import g3.project.ui.MainController;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Group 3
+ */
+public class ResourceExecutorTest {
+//CHECKSTYLE:OFF
+
+    public ResourceExecutorTest() {
+    }
+
+    /**
+     * Test of queue limit and cancellation, of class ResourceExecutor.
+     */
+    @Test
+    public void testQueueAndCancel() throws Exception {
+        System.out.println("Test: ResourceExecutor queue limit and cancel");
+        var exec = new ResourceExecutor("test-io", 1, 1);
+        var release = new CountDownLatch(1);
+        var running = exec.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return Thread.currentThread().getName();
+        });
+        var ran = new AtomicBoolean(false);
+        var queued = exec.submit(() -> ran.getAndSet(true));
+        var rejected = exec.submit(() -> true); //Queue is full
+        assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+        assertTrue(queued.cancel(false));
+        assertEquals(0, exec.getQueued()); //Slot freed
+        release.countDown();
+        assertTrue(running.get(1, TimeUnit.SECONDS).startsWith("test-io-"));
+        exec.submit(() -> true).get(1, TimeUnit.SECONDS);
+        assertFalse(ran.get()); //Cancelled task never ran
+        exec.shutdown();
+    }
+
+    /**
+     * Test of dropping tagged fetches, of class IO.
+     */
+    @Test
+    public void testCancelFetches() throws Exception {
+        System.out.println("Test: IO cancel fetches");
+        var stream = MainController.class.getResourceAsStream("test_doc.spres");
+        var doc = new DocIO(stream, IO.OpenMode.MEMORY);
+        assertTrue(doc.fetchResource("doc.xml", "card-1").get(5, TimeUnit.SECONDS).isPresent());
+        var release = new CountDownLatch(1);
+        var slow = doc.submit("card-2", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+        var completed = new AtomicBoolean(false);
+        var after = slow.thenAccept(r -> completed.set(true));
+        doc.cancelFetches("card-2");
+        release.countDown();
+        assertTrue(slow.isCancelled());
+        assertTrue(after.isCompletedExceptionally());
+        assertFalse(completed.get());
+        doc.close();
+    }
+//CHECKSTYLE:ON
+}